@@ -0,0 +1,330 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A sink that keeps only summary counts of the validation results, grouped by record fields and/or by attribute,
+ * and writes them as one small CSV table when closed, instead of writing a row per attribute per record. Each
+ * thread that writes to the sink folds its records into its own counters, without locking against other threads;
+ * the counters of all threads are merged when the sink is closed, which must happen after all writes are done.
+ * <p>
+ * Each row of the summary holds the counts of one group: the number of records in it, how many of them are valid,
+ * how many attribute values are filled in and how many of those have an invalid format. Groups by attribute count
+ * filled-in and invalid values of that attribute only, and their validity rate is the share of its filled-in values
+ * that are valid; for other groups it is the share of valid records.
+ */
+public final class AggregatingReportSink implements ReportSink {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(AggregatingReportSink.class.getName());
+  @Nonnull public static final String SUMMARY_FILE = "validation-summary.csv";
+  @Nonnull private static final String KEY_SEPARATOR = " | ";
+
+  @Nonnull private final File summaryFile;
+  @Nonnull private final ImmutableList<GroupBy> groupBys;
+  @Nonnull private final List<Accumulator> accumulators = new ArrayList<>();
+  @Nonnull private final ThreadLocal<Accumulator> accumulator = ThreadLocal.withInitial(this::newAccumulator);
+
+  /**
+   * A record field or the attribute, to group results by
+   */
+  public enum Key {
+    ATTRIBUTE("attribute", null),
+    PACKAGE_NAME("packageName", Record::getPackageName),
+    OWNER_NAME("ownerName", Record::getOwnerName),
+    ORGANISM_TAXONOMY_NAME("organismTaxonomyName", Record::getOrganismTaxonomyName),
+    MODEL_NAME("modelName", Record::getModelName),
+    STATUS("status", Record::getStatus);
+
+    @Nonnull private final String name;
+    @Nullable private final Function<Record,String> field;
+
+    Key(@Nonnull String name, @Nullable Function<Record,String> field) {
+      this.name = name;
+      this.field = field;
+    }
+
+    @Nonnull
+    public String getName() {
+      return name;
+    }
+
+    @Nonnull
+    static Key forName(@Nonnull String name) {
+      for(Key key : values()) {
+        if(key.name.equalsIgnoreCase(name.trim())) {
+          return key;
+        }
+      }
+      throw new IllegalArgumentException("Unknown group-by key '" + name + "', expected one of " +
+          Joiner.on(", ").join(Arrays.stream(values()).map(Key::getName).toArray()));
+    }
+  }
+
+  /**
+   * A combination of keys that results are grouped by, such as the package name, or the package name and attribute
+   */
+  public static final class GroupBy {
+    @Nonnull private final ImmutableList<Key> recordKeys;
+    private final boolean byAttribute;
+    @Nonnull private final String name;
+
+    public GroupBy(@Nonnull List<Key> keys) {
+      checkArgument(!checkNotNull(keys).isEmpty(), "No group-by keys given");
+      ImmutableList.Builder<Key> recordKeys = ImmutableList.builder();
+      boolean byAttribute = false;
+      for(Key key : keys) {
+        if(key == Key.ATTRIBUTE) {
+          byAttribute = true;
+        } else {
+          recordKeys.add(key);
+        }
+      }
+      this.recordKeys = recordKeys.build();
+      this.byAttribute = byAttribute;
+      this.name = Joiner.on('+').join(keys.stream().map(Key::getName).toArray());
+    }
+
+    @Nonnull
+    public String getName() {
+      return name;
+    }
+
+    @Nonnull
+    private String keyOf(@Nonnull Record record) {
+      if(recordKeys.isEmpty()) {
+        return "";
+      }
+      if(recordKeys.size() == 1) {
+        return recordKeys.get(0).field.apply(record);
+      }
+      StringBuilder key = new StringBuilder();
+      for(Key recordKey : recordKeys) {
+        if(key.length() > 0) {
+          key.append(KEY_SEPARATOR);
+        }
+        key.append(recordKey.field.apply(record));
+      }
+      return key.toString();
+    }
+  }
+
+  /**
+   * @param outputFolder Folder to write the summary to
+   * @param groupBys     Combinations of keys to group results by; each gets its own rows in the summary
+   */
+  public AggregatingReportSink(@Nonnull File outputFolder, @Nonnull List<GroupBy> groupBys) {
+    this.summaryFile = new File(checkNotNull(outputFolder), SUMMARY_FILE);
+    this.groupBys = ImmutableList.copyOf(checkNotNull(groupBys));
+    checkArgument(!this.groupBys.isEmpty(), "No group-by keys given");
+  }
+
+  /**
+   * Parse a comma-separated list of group-bys, each one a key or several keys joined with '+', for example
+   * "attribute,packageName,packageName+attribute". Keys are attribute, packageName, ownerName,
+   * organismTaxonomyName, modelName and status
+   */
+  @Nonnull
+  public static List<GroupBy> parseGroupBys(@Nonnull String list) {
+    List<GroupBy> groupBys = new ArrayList<>();
+    for(String groupBy : checkNotNull(list).split(",")) {
+      if(groupBy.trim().isEmpty()) {
+        continue;
+      }
+      List<Key> keys = new ArrayList<>();
+      for(String key : groupBy.split("\\+")) {
+        keys.add(Key.forName(key));
+      }
+      groupBys.add(new GroupBy(keys));
+    }
+    return groupBys;
+  }
+
+  @Nonnull
+  private Accumulator newAccumulator() {
+    Accumulator accumulator = new Accumulator(groupBys.size());
+    synchronized (accumulators) {
+      accumulators.add(accumulator);
+    }
+    return accumulator;
+  }
+
+  @Override
+  public void write(@Nonnull RecordValidationReport report, boolean isValid) {
+    accumulator.get().add(checkNotNull(report), isValid);
+  }
+
+  @Override
+  public void close() {
+    Accumulator merged = new Accumulator(groupBys.size());
+    synchronized (accumulators) {
+      for(Accumulator accumulator : accumulators) {
+        merged.addAll(accumulator);
+      }
+    }
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(summaryFile),
+        StandardCharsets.UTF_8))) {
+      writer.write("group_by,key,attribute,records,valid_records,filled_in,invalid,validity_rate\n");
+      for(int i = 0; i < groupBys.size(); i++) {
+        GroupBy groupBy = groupBys.get(i);
+        for(Map.Entry<String,Counts> e : new TreeMap<>(merged.groups.get(i)).entrySet()) {
+          Counts counts = e.getValue();
+          if(groupBy.byAttribute) {
+            for(Map.Entry<String,AttributeCounts> a : new TreeMap<>(counts.attributes).entrySet()) {
+              AttributeCounts attributeCounts = a.getValue();
+              writeRow(writer, groupBy.getName(), e.getKey(), a.getKey(), counts.records, counts.validRecords,
+                  attributeCounts.filledIn, attributeCounts.invalid,
+                  rate(attributeCounts.filledIn - attributeCounts.invalid, attributeCounts.filledIn));
+            }
+          } else {
+            writeRow(writer, groupBy.getName(), e.getKey(), "", counts.records, counts.validRecords, counts.filledIn,
+                counts.invalid, rate(counts.validRecords, counts.records));
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write validation summary to " + summaryFile, e);
+    }
+    logger.info("Wrote validation summary of " + merged.records + " records to " + summaryFile);
+  }
+
+  private static double rate(long count, long total) {
+    return (total > 0 ? (double) count / total : 0);
+  }
+
+  private static void writeRow(@Nonnull Writer writer, @Nonnull String groupBy, @Nonnull String key,
+                               @Nonnull String attribute, long records, long validRecords, long filledIn,
+                               long invalid, double validityRate) throws IOException {
+    writer.write(quote(groupBy) + "," + quote(key) + "," + quote(attribute) + "," + records + "," + validRecords +
+        "," + filledIn + "," + invalid + "," + String.format(Locale.ROOT, "%.4f", validityRate) + "\n");
+  }
+
+  @Nonnull
+  private static String quote(@Nonnull String cell) {
+    return "\"" + cell.replace('"', '\'') + "\"";
+  }
+
+  /**
+   * The counts of one thread, for each group-by
+   */
+  private final class Accumulator {
+    @Nonnull private final List<Map<String,Counts>> groups = new ArrayList<>();
+    private long records;
+
+    private Accumulator(int groupBys) {
+      for(int i = 0; i < groupBys; i++) {
+        groups.add(new HashMap<>());
+      }
+    }
+
+    // only ever contended while the sink is being closed; the lock makes this thread's counts visible to close()
+    private synchronized void add(@Nonnull RecordValidationReport report, boolean isValid) {
+      records++;
+      Record record = report.getMetadataRecord();
+      for(int i = 0; i < groupBys.size(); i++) {
+        GroupBy groupBy = groupBys.get(i);
+        Counts counts = groups.get(i).computeIfAbsent(groupBy.keyOf(record), k -> new Counts());
+        counts.add(report, isValid, groupBy.byAttribute);
+      }
+    }
+
+    private synchronized void addAll(@Nonnull Accumulator other) {
+      synchronized (other) {
+        records += other.records;
+        for(int i = 0; i < groups.size(); i++) {
+          for(Map.Entry<String,Counts> e : other.groups.get(i).entrySet()) {
+            groups.get(i).computeIfAbsent(e.getKey(), k -> new Counts()).addAll(e.getValue());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * The counts of one group
+   */
+  private static final class Counts {
+    private static final int MAX_LAYOUTS = 16;
+    private long records, validRecords, filledIn, invalid;
+    @Nonnull private final Map<String,AttributeCounts> attributes = new HashMap<>();
+    // the counts of each attribute id of a report layout, so that attributes need not be looked up by name
+    @Nonnull private final Map<ReportLayout,AttributeCounts[]> attributesByLayout = new IdentityHashMap<>();
+
+    private void add(@Nonnull RecordValidationReport report, boolean isValid, boolean byAttribute) {
+      records++;
+      if(isValid) {
+        validRecords++;
+      }
+      filledIn += report.getFilledInCount();
+      invalid += report.getInvalidCount();
+      if(!byAttribute) {
+        return;
+      }
+      AttributeCounts[] counts = attributesByLayout.get(report.getLayout());
+      if(counts == null) {
+        counts = getAttributeCounts(report.getLayout());
+        // reports put together from group reports each have their own layout, which are not worth keeping
+        if(attributesByLayout.size() < MAX_LAYOUTS) {
+          attributesByLayout.put(report.getLayout(), counts);
+        }
+      }
+      for(int id = 0; id < counts.length; id++) {
+        if(report.isFilledIn(id)) {
+          counts[id].filledIn++;
+          if(!report.isValidFormat(id)) {
+            counts[id].invalid++;
+          }
+        }
+      }
+    }
+
+    @Nonnull
+    private AttributeCounts[] getAttributeCounts(@Nonnull ReportLayout layout) {
+      AttributeCounts[] counts = new AttributeCounts[layout.getAttributeCount()];
+      for(int id = 0; id < counts.length; id++) {
+        counts[id] = attributes.computeIfAbsent(layout.getAttributeName(id), n -> new AttributeCounts());
+      }
+      return counts;
+    }
+
+    private void addAll(@Nonnull Counts other) {
+      records += other.records;
+      validRecords += other.validRecords;
+      filledIn += other.filledIn;
+      invalid += other.invalid;
+      for(Map.Entry<String,AttributeCounts> e : other.attributes.entrySet()) {
+        AttributeCounts counts = attributes.computeIfAbsent(e.getKey(), n -> new AttributeCounts());
+        counts.filledIn += e.getValue().filledIn;
+        counts.invalid += e.getValue().invalid;
+      }
+    }
+  }
+
+  private static final class AttributeCounts {
+    private long filledIn, invalid;
+  }
+}
@@ -0,0 +1,274 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Computes per-attribute statistics over a stream of records in one pass and bounded memory: how many records have
+ * each attribute and have it filled in, how many values are invalid entries such as "missing" or "n/a" (see
+ * {@link Utils#getInvalidEntries()}, ignoring case), the number of distinct values (estimated with a
+ * {@link HyperLogLog}) and the most common values (estimated with {@link SpaceSaving}).
+ * <br>
+ * A profiler is not thread-safe. To profile records on several threads, or several shards of a dump, give each its
+ * own profiler and {@link #merge} them at the end.
+ */
+public final class AttributeProfiler {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(AttributeProfiler.class.getName());
+  public static final int DEFAULT_TOP_VALUES = 10;
+  // counters kept per reported top value, so that the top values are reliable in skewed distributions
+  private static final int COUNTERS_PER_TOP_VALUE = 10;
+
+  @Nonnull private final Map<String,AttributeProfile> profiles = new HashMap<>();
+  private final int topValues;
+  private final int precision;
+  private long records = 0;
+
+  public AttributeProfiler(int topValues, int precision) {
+    checkArgument(topValues > 0, "Number of top values must be positive");
+    this.topValues = topValues;
+    this.precision = precision;
+  }
+
+  public AttributeProfiler() {
+    this(DEFAULT_TOP_VALUES, HyperLogLog.DEFAULT_PRECISION);
+  }
+
+  public void add(@Nonnull Record record) {
+    records++;
+    for(Map.Entry<String,Attribute> entry : record.getAttributes().entrySet()) {
+      AttributeProfile profile = profiles.get(entry.getKey());
+      if(profile == null) {
+        profile = new AttributeProfile(entry.getKey(), topValues * COUNTERS_PER_TOP_VALUE, precision);
+        profiles.put(entry.getKey(), profile);
+      }
+      profile.add(entry.getValue().getValue());
+    }
+  }
+
+  public void addAll(@Nonnull Iterator<Record> records) {
+    while(records.hasNext()) {
+      add(records.next());
+    }
+  }
+
+  /**
+   * Add the statistics of the given profiler to this one
+   */
+  public void merge(@Nonnull AttributeProfiler other) {
+    records += other.records;
+    for(AttributeProfile profile : other.profiles.values()) {
+      AttributeProfile mine = profiles.get(profile.name);
+      if(mine == null) {
+        mine = new AttributeProfile(profile.name, topValues * COUNTERS_PER_TOP_VALUE, precision);
+        profiles.put(profile.name, mine);
+      }
+      mine.merge(profile);
+    }
+  }
+
+  public long getRecordCount() {
+    return records;
+  }
+
+  /**
+   * Get the profiles of all attributes seen, the most frequently present first
+   */
+  @Nonnull
+  public List<AttributeProfile> getProfiles() {
+    List<AttributeProfile> list = new ArrayList<>(profiles.values());
+    list.sort((a, b) -> (a.present != b.present ? Long.compare(b.present, a.present) : a.name.compareTo(b.name)));
+    return Collections.unmodifiableList(list);
+  }
+
+  /**
+   * Write the profiles as a JSON object with the number of records and an array of attribute profiles
+   */
+  public void writeProfiles(@Nonnull File outputFile) throws IOException {
+    try (JsonGenerator json = new JsonFactory().createGenerator(outputFile, JsonEncoding.UTF8)) {
+      json.useDefaultPrettyPrinter();
+      json.writeStartObject();
+      json.writeNumberField("records", records);
+      json.writeArrayFieldStart("attributes");
+      for(AttributeProfile profile : getProfiles()) {
+        json.writeStartObject();
+        json.writeStringField("name", profile.getName());
+        json.writeNumberField("present", profile.getPresentCount());
+        json.writeNumberField("filled", profile.getFilledCount());
+        json.writeNumberField("fillRate", ratio(profile.getFilledCount(), records));
+        json.writeNumberField("invalid", profile.getInvalidCount());
+        json.writeNumberField("invalidRate", ratio(profile.getInvalidCount(), profile.getFilledCount()));
+        json.writeNumberField("distinct", profile.getDistinctCount());
+        json.writeArrayFieldStart("topValues");
+        for(SpaceSaving.Counter counter : profile.getTopValues()) {
+          json.writeStartObject();
+          json.writeStringField("value", counter.getItem());
+          json.writeNumberField("count", counter.getCount());
+          json.writeNumberField("error", counter.getError());
+          json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+      json.writeEndObject();
+    }
+  }
+
+  private static double ratio(long count, long total) {
+    return (total == 0 ? 0 : (double) count / total);
+  }
+
+  /**
+   * Statistics of one attribute
+   */
+  public final class AttributeProfile {
+    @Nonnull private final String name;
+    @Nonnull private final HyperLogLog distinct;
+    @Nonnull private final SpaceSaving frequent;
+    private long present = 0, filled = 0, invalid = 0;
+
+    private AttributeProfile(@Nonnull String name, int counters, int precision) {
+      this.name = checkNotNull(name);
+      this.distinct = new HyperLogLog(precision);
+      this.frequent = new SpaceSaving(counters);
+    }
+
+    private void add(@Nonnull String value) {
+      present++;
+      String trimmed = value.trim();
+      if(trimmed.isEmpty()) {
+        return;
+      }
+      filled++;
+      if(Utils.isInvalidEntry(trimmed.toLowerCase(Locale.ROOT))) {
+        invalid++;
+      }
+      distinct.add(trimmed);
+      frequent.add(trimmed);
+    }
+
+    private void merge(@Nonnull AttributeProfile other) {
+      present += other.present;
+      filled += other.filled;
+      invalid += other.invalid;
+      distinct.merge(other.distinct);
+      frequent.merge(other.frequent);
+    }
+
+    @Nonnull
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Get the number of records that have this attribute, filled in or not
+     */
+    public long getPresentCount() {
+      return present;
+    }
+
+    /**
+     * Get the number of records that have a non-blank value for this attribute
+     */
+    public long getFilledCount() {
+      return filled;
+    }
+
+    /**
+     * Get the number of records whose value for this attribute is an invalid entry
+     */
+    public long getInvalidCount() {
+      return invalid;
+    }
+
+    /**
+     * Get the estimated number of distinct non-blank values
+     */
+    public long getDistinctCount() {
+      return distinct.getEstimate();
+    }
+
+    @Nonnull
+    public List<SpaceSaving.Counter> getTopValues() {
+      return frequent.getTop(topValues);
+    }
+  }
+
+  public static void main(String[] args) throws IOException, ParseException, InterruptedException {
+    Options options = new Options();
+    options.addOption("i", true, "Input BioSample XML dump, or a directory or manifest file of dump shards");
+    options.addOption("o", true, "Output JSON file");
+    options.addOption("k", true, "Number of most common values to report per attribute. Default 10");
+    options.addOption("threads", true, "Number of shards to profile at once. Default: nr of cores");
+    CommandLineParser parser = new DefaultParser();
+    CommandLine cmd = parser.parse(options, args);
+    File input = new File(cmd.getOptionValue("i"));
+    File output = new File(cmd.getOptionValue("o"));
+    int topValues = Integer.parseInt(cmd.getOptionValue("k", String.valueOf(DEFAULT_TOP_VALUES)));
+    int threads = Integer.parseInt(cmd.getOptionValue("threads",
+        String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+    List<File> inputs = (input.isFile() && BatchRunner.isDump(input.getName()) ?
+        Collections.singletonList(input) : BatchRunner.getInputs(input));
+    long start = System.currentTimeMillis();
+    AttributeProfiler profiler = new AttributeProfiler(topValues, HyperLogLog.DEFAULT_PRECISION);
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, inputs.size())));
+    try {
+      List<Future<AttributeProfiler>> shards = new ArrayList<>();
+      for(File shard : inputs) {
+        shards.add(executor.submit(() -> profile(shard, topValues)));
+      }
+      for(Future<AttributeProfiler> shard : shards) {
+        profiler.merge(shard.get());
+      }
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to profile " + input, e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+    logger.info("Profiled " + profiler.getRecordCount() + " records in " + inputs.size() + " file(s) in "
+        + (System.currentTimeMillis() - start) + " ms");
+    if(output.getParentFile() != null) {
+      output.getParentFile().mkdirs();
+    }
+    profiler.writeProfiles(output);
+  }
+
+  @Nonnull
+  private static AttributeProfiler profile(@Nonnull File dump, int topValues) throws IOException {
+    AttributeProfiler profiler = new AttributeProfiler(topValues, HyperLogLog.DEFAULT_PRECISION);
+    try (RecordStreamParser records = new RecordStreamParser(new BufferedInputStream(CompressedInputs.open(dump)),
+        new RecordProjection(EnumSet.noneOf(RecordProjection.Field.class), null))) {
+      profiler.addAll(records);
+    }
+    return profiler;
+  }
+}
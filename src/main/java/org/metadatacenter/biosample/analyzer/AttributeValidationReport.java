@@ -20,12 +20,19 @@ public final class AttributeValidationReport {
   private final boolean isFilledIn;
   private final boolean isValidFormat;
   private Optional<String> matchValue;
+  @Nonnull private final Optional<String> suggestion;
 
   public AttributeValidationReport(@Nonnull Attribute attribute, boolean isFilledIn, boolean isValidFormat, Optional<String> matchValue) {
+    this(attribute, isFilledIn, isValidFormat, matchValue, Optional.empty());
+  }
+
+  public AttributeValidationReport(@Nonnull Attribute attribute, boolean isFilledIn, boolean isValidFormat,
+                                   Optional<String> matchValue, @Nonnull Optional<String> suggestion) {
     this.attribute = checkNotNull(attribute);
     this.isFilledIn = isFilledIn;
     this.isValidFormat = isValidFormat;
     this.matchValue = checkNotNull(matchValue);
+    this.suggestion = checkNotNull(suggestion);
   }
 
   @Nonnull
@@ -49,6 +56,14 @@ public final class AttributeValidationReport {
     return matchValue;
   }
 
+  /**
+   * Get a likely correction for an invalid value, namely the closest known value to it
+   */
+  @Nonnull
+  public Optional<String> getSuggestion() {
+    return suggestion;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -74,6 +89,7 @@ public final class AttributeValidationReport {
         .add("attribute", attribute)
         .add("isFilledIn", isFilledIn)
         .add("isValidFormat", isValidFormat)
+        .add("suggestion", suggestion.orElse(null))
         .toString();
   }
 }
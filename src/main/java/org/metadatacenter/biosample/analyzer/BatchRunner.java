@@ -0,0 +1,146 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Validates several BioSample dumps concurrently in one JVM. All inputs share one validator, and with it the
+ * attribute schema and the term cache, so lookups resolved for one dump are reused by the others. Each input gets
+ * its own output folder, named after the input file, under the output root.
+ */
+public final class BatchRunner {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(BatchRunner.class.getName());
+  @Nonnull private final Validator validator;
+  @Nonnull private final ReportSink.Factory sinkFactory;
+  private final int threads;
+  private final long progressInterval;
+  @Nonnull private final RecordProjection projection;
+
+  public BatchRunner(@Nonnull Validator validator, int threads, long progressInterval) {
+    this(validator, CsvWriter::new, threads, progressInterval);
+  }
+
+  public BatchRunner(@Nonnull Validator validator, @Nonnull ReportSink.Factory sinkFactory, int threads,
+                     long progressInterval, @Nonnull RecordProjection projection) {
+    checkArgument(threads > 0, "Number of threads must be positive");
+    this.validator = checkNotNull(validator);
+    this.sinkFactory = checkNotNull(sinkFactory);
+    this.threads = threads;
+    this.progressInterval = progressInterval;
+    this.projection = checkNotNull(projection);
+  }
+
+  public BatchRunner(@Nonnull Validator validator, @Nonnull ReportSink.Factory sinkFactory, int threads,
+                     long progressInterval) {
+    this(validator, sinkFactory, threads, progressInterval, RecordProjection.ALL);
+  }
+
+  /**
+   * Get the input files to process. The given file is either a directory, whose XML dumps (possibly compressed, see
+   * {@link CompressedInputs}) are processed in name order, or a manifest listing one input path per line (blank
+   * lines and lines starting with '#' are ignored).
+   */
+  @Nonnull
+  public static List<File> getInputs(@Nonnull File directoryOrManifest) throws IOException {
+    checkNotNull(directoryOrManifest);
+    List<File> inputs = new ArrayList<>();
+    if(directoryOrManifest.isDirectory()) {
+      File[] files = directoryOrManifest.listFiles((dir, name) -> isDump(name));
+      if(files != null) {
+        Arrays.sort(files);
+        inputs.addAll(Arrays.asList(files));
+      }
+    } else {
+      for(String line : Utils.parseFile(directoryOrManifest)) {
+        line = line.trim();
+        if(!line.isEmpty() && !line.startsWith("#")) {
+          inputs.add(new File(line));
+        }
+      }
+    }
+    return inputs;
+  }
+
+  static boolean isDump(@Nonnull String fileName) {
+    return CompressedInputs.stripCompressionExtension(fileName).endsWith(".xml");
+  }
+
+  /**
+   * Process all inputs, at most {@code threads} at a time
+   *
+   * @return The number of inputs that failed
+   */
+  public int run(@Nonnull List<File> inputs, @Nonnull File outputRoot) throws InterruptedException {
+    checkNotNull(inputs); checkNotNull(outputRoot);
+    logger.info("Processing " + inputs.size() + " inputs with " + threads + " threads");
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    Map<File,Future<Long>> futures = new LinkedHashMap<>();
+    Set<String> outputNames = new HashSet<>();
+    for(File input : inputs) {
+      File outputFolder = new File(outputRoot, uniqueName(getBaseName(input), outputNames));
+      futures.put(input, executor.submit(() -> process(input, outputFolder)));
+    }
+    executor.shutdown();
+    int failures = 0;
+    for(Map.Entry<File,Future<Long>> e : futures.entrySet()) {
+      try {
+        e.getValue().get();
+      } catch (ExecutionException ex) {
+        failures++;
+        logger.error("Failed to process " + e.getKey(), ex.getCause());
+      }
+    }
+    logger.info("Processed " + (inputs.size() - failures) + " of " + inputs.size() + " inputs");
+    return failures;
+  }
+
+  private long process(@Nonnull File input, @Nonnull File outputFolder) throws IOException {
+    outputFolder.mkdirs();
+    logger.info("Processing " + input + " into " + outputFolder);
+    BioSampleAnalyzer analyzer = new BioSampleAnalyzer(validator);
+    try (ProgressTracker tracker = new ProgressTracker(input.getName() + ": ", input.length(), progressInterval);
+         RecordStreamParser records = analyzer.parseRecords(input, tracker, projection)) {
+      return analyzer.validate(records, sinkFactory.create(outputFolder), tracker);
+    }
+  }
+
+  /**
+   * Get the name of the output folder of the given input: its file name without the compression and ".xml"
+   * extensions, so that e.g. "biosample.2024-01.xml.gz" and "biosample.2024-02.xml" keep their distinct names
+   */
+  @Nonnull
+  static String getBaseName(@Nonnull File file) {
+    String name = CompressedInputs.stripCompressionExtension(file.getName());
+    if(name.toLowerCase().endsWith(".xml") && name.length() > 4) {
+      name = name.substring(0, name.length() - 4);
+    }
+    return name;
+  }
+
+  @Nonnull
+  private static String uniqueName(@Nonnull String name, @Nonnull Set<String> used) {
+    String unique = name;
+    for(int i = 2; !used.add(unique); i++) {
+      unique = name + "-" + i;
+    }
+    return unique;
+  }
+}
@@ -0,0 +1,218 @@
+package org.metadatacenter.biosample.analyzer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Decompresses a BGZF file (blocked gzip, as written by {@code bgzip}) on several threads. A BGZF file is a series
+ * of gzip members of at most 64KB each, whose headers give their compressed size, so blocks can be read off the
+ * stream cheaply and inflated concurrently. Decompressed blocks are returned in file order, and at most
+ * {@code 8 * threads} blocks are in flight.
+ */
+public final class BgzfInputStream extends InputStream {
+  private static final int HEADER_SIZE = 18;
+  private static final int BLOCKS_PER_THREAD = 8;
+  @Nonnull private static final byte[] EMPTY = new byte[0];
+  @Nonnull private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+  @Nonnull private final InputStream source;
+  @Nonnull private final ExecutorService executor;
+  @Nonnull private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+  private final int maxInFlight;
+  @Nonnull private byte[] current = EMPTY;
+  private int position = 0;
+  private boolean sourceFinished = false;
+
+  public BgzfInputStream(@Nonnull InputStream source, int threads) {
+    checkArgument(threads > 0, "Number of threads must be positive");
+    this.source = checkNotNull(source);
+    this.executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "bgzf-inflater");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.maxInFlight = threads * BLOCKS_PER_THREAD;
+  }
+
+  public BgzfInputStream(@Nonnull InputStream source) {
+    this(source, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Check whether the given bytes, from the start of a file, are the header of a BGZF block
+   */
+  public static boolean isBgzfHeader(@Nonnull byte[] header, int length) {
+    return length >= HEADER_SIZE && (header[0] & 0xFF) == 0x1f && (header[1] & 0xFF) == 0x8b && header[2] == 8
+        && (header[3] & 4) != 0 && readShort(header, 10) == 6 && header[12] == 'B' && header[13] == 'C'
+        && readShort(header, 14) == 2;
+  }
+
+  private boolean nextBlock() throws IOException {
+    while(!sourceFinished && inFlight.size() < maxInFlight) {
+      byte[] block = readBlock();
+      if(block == null) {
+        sourceFinished = true;
+      } else {
+        inFlight.add(executor.submit(() -> inflate(block)));
+      }
+    }
+    Future<byte[]> next = inFlight.poll();
+    if(next == null) {
+      return false;
+    }
+    try {
+      current = next.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while decompressing");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw (cause instanceof IOException ? (IOException) cause : new IOException(cause));
+    }
+    position = 0;
+    return true;
+  }
+
+  /*
+   * Read the next compressed block, header included, or return null at the end of the stream
+   */
+  @Nullable
+  private byte[] readBlock() throws IOException {
+    byte[] header = new byte[12];
+    int read = readFully(header, 0, header.length);
+    if(read == 0) {
+      return null;
+    }
+    if(read < header.length || (header[0] & 0xFF) != 0x1f || (header[1] & 0xFF) != 0x8b || (header[3] & 4) == 0) {
+      throw new IOException("Malformed BGZF block header");
+    }
+    int extraLength = readShort(header, 10);
+    byte[] extra = new byte[extraLength];
+    if(readFully(extra, 0, extraLength) < extraLength) {
+      throw new EOFException("Truncated BGZF block");
+    }
+    int blockSize = -1;
+    for(int i = 0; i + 4 <= extraLength; ) {
+      int fieldLength = readShort(extra, i + 2);
+      if(extra[i] == 'B' && extra[i + 1] == 'C' && fieldLength == 2) {
+        blockSize = readShort(extra, i + 4) + 1;
+      }
+      i += 4 + fieldLength;
+    }
+    if(blockSize == -1) {
+      throw new IOException("Gzip member without BGZF block size");
+    }
+    int dataLength = blockSize - header.length - extraLength;
+    byte[] block = new byte[dataLength];
+    if(dataLength < 8 || readFully(block, 0, dataLength) < dataLength) {
+      throw new EOFException("Truncated BGZF block");
+    }
+    return block;
+  }
+
+  /*
+   * Inflate a block made of the deflated data followed by the CRC32 and size of the uncompressed data
+   */
+  @Nonnull
+  private static byte[] inflate(@Nonnull byte[] block) throws IOException {
+    int dataLength = block.length - 8;
+    int size = readInt(block, dataLength + 4);
+    byte[] output = new byte[size];
+    Inflater inflater = inflaters.get();
+    inflater.reset();
+    inflater.setInput(block, 0, dataLength);
+    try {
+      int length = 0;
+      while(length < size && !inflater.finished()) {
+        int n = inflater.inflate(output, length, size - length);
+        if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        length += n;
+      }
+      if(length != size) {
+        throw new IOException("BGZF block size mismatch");
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Malformed BGZF block", e);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(output, 0, size);
+    if((int) crc.getValue() != readInt(block, dataLength)) {
+      throw new IOException("BGZF block checksum mismatch");
+    }
+    return output;
+  }
+
+  private int readFully(@Nonnull byte[] b, int off, int len) throws IOException {
+    int total = 0;
+    while(total < len) {
+      int n = source.read(b, off + total, len - total);
+      if(n == -1) {
+        break;
+      }
+      total += n;
+    }
+    return total;
+  }
+
+  private static int readShort(@Nonnull byte[] b, int off) {
+    return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8);
+  }
+
+  private static int readInt(@Nonnull byte[] b, int off) {
+    return readShort(b, off) | (readShort(b, off + 2) << 16);
+  }
+
+  @Override
+  public int read() throws IOException {
+    while(position >= current.length) {
+      if(!nextBlock()) {
+        return -1;
+      }
+    }
+    return current[position++] & 0xFF;
+  }
+
+  @Override
+  public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+    if(len == 0) {
+      return 0;
+    }
+    while(position >= current.length) {
+      if(!nextBlock()) {
+        return -1;
+      }
+    }
+    int n = Math.min(len, current.length - position);
+    System.arraycopy(current, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return current.length - position;
+  }
+
+  @Override
+  public void close() throws IOException {
+    executor.shutdownNow();
+    source.close();
+  }
+}
@@ -16,10 +16,18 @@ import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
+ * Searches BioPortal for terms. Requests from all agents in the JVM go through one {@link ConcurrencyLimiter}, which
+ * keeps the number of requests in flight near what BioPortal can answer at its usual latency, and one
+ * {@link CircuitBreaker}, which stops requests for a while after {@value #BREAKER_FAILURES} failures in a row, so
+ * that an overloaded BioPortal is not met with a storm of retries. Requests turned away by the breaker wait until it
+ * lets requests through again rather than coming back without a result, which callers would take as the term not
+ * being found; failed requests have no result.
+ *
  * @author Rafael Gonçalves <br>
  * Center for Biomedical Informatics Research <br>
  * Stanford University
@@ -27,22 +35,41 @@ import static com.google.common.base.Preconditions.checkNotNull;
 @Immutable
 public final class BioPortalAgent {
   @Nonnull private static final String REST_URL = "http://data.bioontology.org";
+  private static final int CONNECT_TIMEOUT_MILLIS = 10_000, READ_TIMEOUT_MILLIS = 60_000;
+  private static final int BREAKER_FAILURES = 5;
+  @Nonnull private static final ConcurrencyLimiter sharedLimiter = new ConcurrencyLimiter(4, 1, 64);
+  @Nonnull private static final CircuitBreaker sharedBreaker = new CircuitBreaker("BioPortal", BREAKER_FAILURES, 5, 300,
+      TimeUnit.SECONDS);
   @Nonnull private final ObjectMapper mapper = new ObjectMapper();
   @Nonnull private final String bioportalApiKey;
+  @Nonnull private final String restUrl;
+  @Nonnull private final ConcurrencyLimiter limiter;
+  @Nonnull private final CircuitBreaker breaker;
 
   public BioPortalAgent(@Nonnull String bioportalApiKey) {
+    this(bioportalApiKey, REST_URL, sharedLimiter, sharedBreaker);
+  }
+
+  /**
+   * Create an agent for the given BioPortal REST URL that has its own limiter and breaker, e.g. for testing
+   */
+  BioPortalAgent(@Nonnull String bioportalApiKey, @Nonnull String restUrl, @Nonnull ConcurrencyLimiter limiter,
+                 @Nonnull CircuitBreaker breaker) {
     this.bioportalApiKey = checkNotNull(bioportalApiKey);
+    this.restUrl = checkNotNull(restUrl);
+    this.limiter = checkNotNull(limiter);
+    this.breaker = checkNotNull(breaker);
   }
 
   @Nonnull
   public Optional<JsonNode> getResult(@Nonnull String searchString, boolean exactSearch) {
-    String query = REST_URL + "/search?q=" + searchString + (exactSearch ? "&require_exact_match=true" : "") + "&page=1";
+    String query = restUrl + "/search?q=" + searchString + (exactSearch ? "&require_exact_match=true" : "") + "&page=1";
     return runQuery(query);
   }
 
   @Nonnull
   public Optional<JsonNode> getResult(@Nonnull String searchString, boolean exactSearch, @Nonnull String ontologies) {
-    String query = REST_URL + "/search?q=" + searchString + (exactSearch ? "&require_exact_match=true" : "") + "&ontologies="
+    String query = restUrl + "/search?q=" + searchString + (exactSearch ? "&require_exact_match=true" : "") + "&ontologies="
         + ontologies + "&page=1";
     return runQuery(query);
   }
@@ -72,6 +99,13 @@ public final class BioPortalAgent {
     return root;
   }
 
+  /**
+   * Get how long until requests to BioPortal are let through again, or 0 if they are let through now
+   */
+  static long getRemainingPause(@Nonnull TimeUnit unit) {
+    return sharedBreaker.getRemainingPause(unit);
+  }
+
   // code adapted from https://github.com/ncbo/ncbo_rest_sample_code
   @Nonnull
   private String get(@Nonnull String urlToGet) {
@@ -80,9 +114,30 @@ public final class BioPortalAgent {
     BufferedReader rd;
     String line;
     String result = "";
+    long start;
+    CircuitBreaker.Permit permit;
+    try {
+      while(true) {
+        start = limiter.acquire();
+        permit = breaker.tryAcquire();
+        if(permit.isGranted()) {
+          break;
+        }
+        // wait out the pause without holding a place in the limiter, which the probe may need
+        limiter.cancel();
+        Metrics.counter("bioportal.rejected").increment();
+        breaker.awaitPermit();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return result;
+    }
+    boolean failed = true;
     try {
       url = new URL(urlToGet);
       conn = (HttpURLConnection) url.openConnection();
+      conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+      conn.setReadTimeout(READ_TIMEOUT_MILLIS);
       conn.setRequestProperty("Connection", "close");
       conn.setRequestMethod("GET");
       conn.setRequestProperty("Authorization", "apikey token=" + bioportalApiKey);
@@ -93,8 +148,13 @@ public final class BioPortalAgent {
         connected = true;
       } catch(ConnectException ce) {
         connected = false;
+        Metrics.counter("bioportal.connectFailures").increment();
       }
-      if (connected && conn.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST) {
+      int responseCode = (connected ? conn.getResponseCode() : -1);
+      if(connected) {
+        Metrics.counter("bioportal.status." + responseCode).increment();
+      }
+      if (connected && responseCode < HttpURLConnection.HTTP_BAD_REQUEST) {
         InputStream stream = conn.getInputStream();
         rd = new BufferedReader(new InputStreamReader(stream));
         while ((line = rd.readLine()) != null) {
@@ -106,9 +166,20 @@ public final class BioPortalAgent {
       if(connected) {
         conn.disconnect();
       }
+      // other client errors are answers about the request, not signs of overload
+      failed = (!connected || responseCode == 429 || responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR);
     } catch (IOException e) {
+      Metrics.counter("bioportal.errors").increment();
       e.printStackTrace();
+    } finally {
+      limiter.release(start, failed);
+      if(failed) {
+        breaker.onFailure(permit);
+      } else {
+        breaker.onSuccess(permit);
+      }
     }
+    Metrics.timer("bioportal.request").recordSince(start);
     return result;
   }
 
@@ -9,9 +9,13 @@ import javax.annotation.Nonnull;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 
@@ -25,6 +29,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class BioSampleAnalyzer {
   @Nonnull private static final Logger logger = LoggerFactory.getLogger(BioSampleAnalyzer.class.getName());
   @Nonnull private final Validator validator;
+  static final long PROGRESS_INTERVAL_SECS = 30;
 
   public BioSampleAnalyzer(@Nonnull Validator validator) {
     this.validator = checkNotNull(validator);
@@ -35,26 +40,98 @@ public class BioSampleAnalyzer {
     checkNotNull(records); checkNotNull(outputFolder);
     List<RecordValidationReport> reports = new ArrayList<>();
     CsvWriter csvWriter = new CsvWriter(outputFolder);
-    ProgressMonitor monitor = new ProgressMonitor(records);
     logger.info("Validating records...");
-    long start = System.currentTimeMillis();
-    int recordCounter = 0;  // counters
-    double percentDone = 0;
-    for (Record record : records) {
-      recordCounter++;  // increment counters
-      monitor.incrementProgress();
-      if(monitor.getPercentDone() > percentDone) {
-        logger.info("\t" + monitor.getPercentDone() + "%  (record #" + recordCounter + ")");
+    try (ProgressTracker tracker = new ProgressTracker(records.size(), PROGRESS_INTERVAL_SECS)) {
+      for (Record record : records) {
+        reports.add(validate(record, csvWriter));
+        tracker.addUnits(1);
+        tracker.recordProcessed();
       }
-      RecordValidationReport report = validator.validateBioSampleRecord(record);
-      reports.add(report);
-      csvWriter.writeRecord(record, validator.isValid(report), report.getAttributeGroupValidationReports());
     }
-    logger.info("done " + (System.currentTimeMillis() - start) / 1000.0 + " secs");
     csvWriter.closeWriters();
     return reports;
   }
 
+  /**
+   * Validate records as they are streamed in, without retaining them or their reports. Progress is reported
+   * through the given tracker.
+   *
+   * @return The number of records validated
+   */
+  public long validate(@Nonnull Iterator<Record> records, @Nonnull File outputFolder,
+                       @Nonnull ProgressTracker tracker) {
+    checkNotNull(outputFolder);
+    return validate(records, new CsvWriter(outputFolder), tracker);
+  }
+
+  /**
+   * Validate records as they are streamed in, writing the results to the given sink, which is closed afterwards.
+   *
+   * @return The number of records validated
+   */
+  public long validate(@Nonnull Iterator<Record> records, @Nonnull ReportSink sink,
+                       @Nonnull ProgressTracker tracker) {
+    checkNotNull(records); checkNotNull(sink); checkNotNull(tracker);
+    logger.info("Validating records...");
+    long recordCounter = 0;
+    try {
+      while (records.hasNext()) {
+        validate(records.next(), sink);
+        tracker.recordProcessed();
+        recordCounter++;
+      }
+    } finally {
+      sink.close();
+    }
+    return recordCounter;
+  }
+
+  @Nonnull
+  private RecordValidationReport validate(@Nonnull Record record, @Nonnull ReportSink sink) {
+    long recordStart = System.nanoTime();
+    RecordValidationReport report = validator.validateBioSampleRecord(record);
+    Metrics.timer("record.validate").recordSince(recordStart);
+    Metrics.counter("records.validated").increment();
+    long writeStart = System.nanoTime();
+    sink.write(report, validator.isValid(report));
+    Metrics.timer("record.write").recordSince(writeStart);
+    return report;
+  }
+
+  /**
+   * Open a streaming parser over the given BioSample XML file, which may be compressed (see
+   * {@link CompressedInputs}). Bytes read from the file are counted as progress by the given tracker, whose total
+   * should be the file length.
+   */
+  @Nonnull
+  public RecordStreamParser parseRecords(@Nonnull File inputFile, @Nonnull ProgressTracker tracker) throws IOException {
+    return parseRecords(inputFile, tracker, RecordProjection.ALL);
+  }
+
+  /**
+   * Open a streaming parser over the given BioSample XML file that reads only the parts of records included in
+   * the given projection
+   */
+  @Nonnull
+  public RecordStreamParser parseRecords(@Nonnull File inputFile, @Nonnull ProgressTracker tracker,
+                                         @Nonnull RecordProjection projection) throws IOException {
+    checkNotNull(inputFile); checkNotNull(tracker);
+    InputStream inputStream = new BufferedInputStream(CompressedInputs.decompress(
+        tracker.track(new FileInputStream(inputFile)), inputFile.getName()), 1 << 16);
+    return new RecordStreamParser(inputStream, projection);
+  }
+
+  /**
+   * Open a parser over the given uncompressed BioSample XML file that parses chunks of the file on the given number
+   * of threads, handing the records over in document order
+   */
+  @Nonnull
+  public ParallelRecordParser parseRecords(@Nonnull File inputFile, @Nonnull ProgressTracker tracker,
+                                           @Nonnull RecordProjection projection, int threads) throws IOException {
+    checkNotNull(inputFile); checkNotNull(tracker);
+    return new ParallelRecordParser(inputFile, projection, threads, ParallelRecordParser.DEFAULT_CHUNK_SIZE, tracker);
+  }
+
   @Nonnull
   public Optional<Document> parseDocument(@Nonnull File inputFile) {
     checkNotNull(inputFile);
@@ -63,7 +140,11 @@ public class BioSampleAnalyzer {
     try {
       DocumentBuilder builder = factory.newDocumentBuilder();
       logger.info("Parsing XML document...");
-      doc = builder.parse(inputFile);
+      long start = System.nanoTime();
+      try (InputStream inputStream = CompressedInputs.open(inputFile)) {
+        doc = builder.parse(inputStream, inputFile.toURI().toString());
+      }
+      Metrics.timer("document.parse").recordSince(start);
       logger.info("done");
     } catch (ParserConfigurationException | SAXException | IOException e) {
       e.printStackTrace();
@@ -76,8 +157,11 @@ public class BioSampleAnalyzer {
     checkNotNull(doc);
     logger.info("Extracting BioSample records from XML document");
     RecordParser parser = new RecordParser(doc);
+    long start = System.nanoTime();
     parser.processDocument();
+    Metrics.timer("document.extractRecords").recordSince(start);
     int nrRecords = parser.getBioSampleRecords().size();
+    Metrics.counter("records.parsed").add(nrRecords);
     logger.info("done. Total records processed: " + nrRecords);
     return parser.getBioSampleRecords();
   }
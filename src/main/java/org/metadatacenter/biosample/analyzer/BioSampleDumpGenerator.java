@@ -0,0 +1,320 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Generates synthetic BioSample XML dumps in the shape consumed by {@link RecordParser#processBioSample}. Attribute
+ * values are drawn from the value sets in attributes.csv and from country-list.txt, and a configurable fraction of
+ * the filled-in attributes receive an invalid entry. Records are streamed to disk one at a time, so memory use does
+ * not depend on the number of records generated.
+ */
+public final class BioSampleDumpGenerator {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(BioSampleDumpGenerator.class.getName());
+  @Nonnull private static final String[] MONTHS =
+      {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+  @Nonnull private static final String[] OWNERS =
+      {"NCBI", "EBI", "DDBJ", "Broad Institute", "JGI", "Wellcome Sanger Institute", "BGI", "CDC"};
+  @Nonnull private static final String[][] PACKAGES = {
+      {"Generic.1.0", "Generic"},
+      {"MIGS.ba.soil.4.0", "MIGS Cultured Bacterial/Archaeal; soil; version 4.0"},
+      {"MIMS.me.water.4.0", "MIMS Environmental/Metagenome; water; version 4.0"},
+      {"Microbe.1.0", "Microbe; version 1.0"},
+      {"Pathogen.cl.1.0", "Pathogen: clinical or host-associated; version 1.0"},
+      {"Human.1.0", "Human; version 1.0"}};
+  @Nonnull private static final String[][] ORGANISMS = {
+      {"9606", "Homo sapiens"}, {"562", "Escherichia coli"}, {"10090", "Mus musculus"},
+      {"1280", "Staphylococcus aureus"}, {"410658", "soil metagenome"}, {"256318", "metagenome"},
+      {"1773", "Mycobacterium tuberculosis"}, {"28901", "Salmonella enterica"}};
+  @Nonnull private static final String[] MODELS = {"Generic", "MIGS.ba", "MIMS.me", "Microbe", "Pathogen.cl"};
+  @Nonnull private static final String[] TERMS = {"soil", "marine biome", "sediment", "feces", "blood", "lung",
+      "skin", "fresh water", "human gut", "rhizosphere", "wastewater", "healthy", "diabetes mellitus", "diploid",
+      "ENVO:00001998", "[ENVO:00002007]", "UBERON:0001088", "host-associated", "tuberculosis", "leaf"};
+  @Nonnull private static final String[] LOCATION_DETAILS = {"", "", ": Boston", ": Lake Tahoe", ": near coast",
+      ": Alps, halfway down Zugspitze"};
+
+  @Nonnull private final Random random;
+  private final double invalidRate;
+  private final double fillRate;
+  @Nonnull private final List<AttributeSchema> schemas = new ArrayList<>();
+  @Nonnull private final List<String> invalidEntries;
+  @Nonnull private final List<String> locations;
+
+  public BioSampleDumpGenerator(long seed, double invalidRate, double fillRate) {
+    checkArgument(invalidRate >= 0 && invalidRate <= 1, "Invalid entry rate must be between 0 and 1");
+    checkArgument(fillRate >= 0 && fillRate <= 1, "Fill rate must be between 0 and 1");
+    this.random = new Random(seed);
+    this.invalidRate = invalidRate;
+    this.fillRate = fillRate;
+    for(AttributeType type : AttributeType.values()) {
+      if(BioSampleAttributes.getAttributeTypes().contains(type)) {
+        schemas.addAll(BioSampleAttributes.getAttributesOfType(type));
+      }
+    }
+    this.invalidEntries = new ArrayList<>(Utils.getInvalidEntries());
+    this.locations = Utils.getValidLocations();
+  }
+
+  /**
+   * Write the given number of records to the output file. Output files ending with ".gz" are gzip-compressed.
+   */
+  public void generate(@Nonnull File outputFile, long nrRecords) throws IOException {
+    checkNotNull(outputFile);
+    File parent = outputFile.getAbsoluteFile().getParentFile();
+    if(parent != null) {
+      parent.mkdirs();
+    }
+    OutputStream out = new FileOutputStream(outputFile);
+    if(outputFile.getName().endsWith(".gz")) {
+      out = new GZIPOutputStream(out, 1 << 16);
+    }
+    try (OutputStream stream = new BufferedOutputStream(out, 1 << 16)) {
+      XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(stream, "UTF-8");
+      writer.writeStartDocument("UTF-8", "1.0");
+      writer.writeCharacters("\n");
+      writer.writeStartElement("BioSampleSet");
+      writer.writeCharacters("\n");
+      for(long i = 1; i <= nrRecords; i++) {
+        writeRecord(writer, i);
+        if(i % 1000000 == 0) {
+          logger.info("\t" + i + " records written");
+        }
+      }
+      writer.writeEndElement();
+      writer.writeCharacters("\n");
+      writer.writeEndDocument();
+      writer.close();
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void writeRecord(@Nonnull XMLStreamWriter w, long id) throws XMLStreamException {
+    String submission = isoDate();
+    w.writeStartElement("BioSample");
+    w.writeAttribute("access", random.nextInt(20) == 0 ? "controlled-access" : "public");
+    w.writeAttribute("publication_date", submission + "T00:00:00.000");
+    w.writeAttribute("last_update", isoDate() + "T12:30:00.000");
+    w.writeAttribute("submission_date", submission + "T09:15:00.000");
+    w.writeAttribute("id", String.valueOf(id));
+    w.writeAttribute("accession", String.format("SAMN%08d", id));
+    w.writeCharacters("\n  ");
+
+    w.writeStartElement("Ids");
+    w.writeStartElement("Id");
+    w.writeAttribute("db", "BioSample");
+    w.writeAttribute("is_primary", "1");
+    w.writeCharacters(String.format("SAMN%08d", id));
+    w.writeEndElement();
+    w.writeEndElement();
+    w.writeCharacters("\n  ");
+
+    String[] organism = pick(ORGANISMS);
+    w.writeStartElement("Description");
+    writeTextElement(w, "Title", "Synthetic sample " + id);
+    w.writeStartElement("Organism");
+    w.writeAttribute("taxonomy_id", organism[0]);
+    w.writeAttribute("taxonomy_name", organism[1]);
+    writeTextElement(w, "OrganismName", organism[1]);
+    w.writeEndElement();
+    w.writeEndElement();
+    w.writeCharacters("\n  ");
+
+    w.writeStartElement("Owner");
+    writeTextElement(w, "Name", pick(OWNERS));
+    w.writeEndElement();
+    w.writeCharacters("\n  ");
+
+    w.writeStartElement("Models");
+    writeTextElement(w, "Model", pick(MODELS));
+    w.writeEndElement();
+    w.writeCharacters("\n  ");
+
+    String[] pkg = pick(PACKAGES);
+    w.writeStartElement("Package");
+    w.writeAttribute("display_name", pkg[1]);
+    w.writeCharacters(pkg[0]);
+    w.writeEndElement();
+    w.writeCharacters("\n  ");
+
+    w.writeStartElement("Attributes");
+    for(AttributeSchema schema : schemas) {
+      if(random.nextDouble() < fillRate) {
+        w.writeCharacters("\n    ");
+        w.writeStartElement("Attribute");
+        w.writeAttribute("attribute_name", schema.getName());
+        w.writeAttribute("harmonized_name", schema.getName());
+        w.writeAttribute("display_name", schema.getName().replace('_', ' '));
+        w.writeCharacters(random.nextDouble() < invalidRate ? invalidValue(schema) : validValue(schema));
+        w.writeEndElement();
+      }
+    }
+    w.writeCharacters("\n  ");
+    w.writeEndElement();
+    w.writeCharacters("\n  ");
+
+    w.writeStartElement("Links");
+    w.writeStartElement("Link");
+    w.writeAttribute("type", "entrez");
+    w.writeAttribute("target", "bioproject");
+    w.writeAttribute("label", "PRJNA" + (100000 + random.nextInt(50000)));
+    w.writeCharacters(String.valueOf(100000 + random.nextInt(50000)));
+    w.writeEndElement();
+    w.writeEndElement();
+    w.writeCharacters("\n  ");
+
+    w.writeEmptyElement("Status");
+    w.writeAttribute("status", "live");
+    w.writeAttribute("when", submission + "T09:15:00.000");
+    w.writeCharacters("\n");
+    w.writeEndElement();
+    w.writeCharacters("\n");
+  }
+
+  private void writeTextElement(@Nonnull XMLStreamWriter w, @Nonnull String name, @Nonnull String text)
+      throws XMLStreamException {
+    w.writeStartElement(name);
+    w.writeCharacters(text);
+    w.writeEndElement();
+  }
+
+  @Nonnull
+  private String validValue(@Nonnull AttributeSchema schema) {
+    switch (schema.getType()) {
+      case VALUE_SET:
+        return pick(schema.getValues());
+      case BOOLEAN:
+        return random.nextBoolean() ? "true" : "false";
+      case INTEGER:
+        return String.valueOf(random.nextInt(100000));
+      case TIMESTAMP:
+        return timestamp();
+      case ONTOLOGY_TERM:
+      case TERM:
+        if(schema.getValues().contains("GEOLOC")) {
+          return pick(locations) + pick(LOCATION_DETAILS);
+        }
+        return pick(TERMS);
+      default:
+        return "value " + random.nextInt(1000);
+    }
+  }
+
+  @Nonnull
+  private String invalidValue(@Nonnull AttributeSchema schema) {
+    if(random.nextBoolean()) {
+      return pick(invalidEntries);
+    }
+    switch (schema.getType()) {
+      case BOOLEAN:
+        return random.nextBoolean() ? "yes" : "N";
+      case INTEGER:
+        return random.nextInt(1000) + " approx.";
+      case TIMESTAMP:
+        return (1 + random.nextInt(12)) + "/" + (1 + random.nextInt(31)) + "/" + (1990 + random.nextInt(30));
+      default:
+        return misspell(validValue(schema));
+    }
+  }
+
+  /* Apply a single-character edit, mimicking the typos found in submitted values */
+  @Nonnull
+  private String misspell(@Nonnull String value) {
+    if(value.isEmpty()) {
+      return "x";
+    }
+    StringBuilder sb = new StringBuilder(value);
+    int pos = random.nextInt(value.length());
+    switch (random.nextInt(3)) {
+      case 0:
+        sb.deleteCharAt(pos);
+        break;
+      case 1:
+        sb.insert(pos, (char) ('a' + random.nextInt(26)));
+        break;
+      default:
+        sb.setCharAt(pos, (char) ('a' + random.nextInt(26)));
+    }
+    return sb.toString();
+  }
+
+  @Nonnull
+  private String timestamp() {
+    int year = 1980 + random.nextInt(40);
+    int month = random.nextInt(12);
+    int day = 1 + random.nextInt(28);
+    switch (random.nextInt(5)) {
+      case 0:
+        return String.valueOf(year);
+      case 1:
+        return MONTHS[month] + "-" + year;
+      case 2:
+        return String.format("%02d-%s-%d", day, MONTHS[month], year);
+      case 3:
+        return String.format("%d-%02d", year, month + 1);
+      default:
+        return String.format("%d-%02d-%02d", year, month + 1, day);
+    }
+  }
+
+  @Nonnull
+  private String isoDate() {
+    return String.format("%d-%02d-%02d", 2008 + random.nextInt(12), 1 + random.nextInt(12), 1 + random.nextInt(28));
+  }
+
+  @Nonnull
+  private <T> T pick(@Nonnull T[] array) {
+    return array[random.nextInt(array.length)];
+  }
+
+  @Nonnull
+  private <T> T pick(@Nonnull List<T> list) {
+    return list.get(random.nextInt(list.size()));
+  }
+
+  public static void main(String[] args) throws IOException, ParseException {
+    Options options = new Options();
+    options.addOption("o", true, "Path to write the generated XML dump to (a .gz suffix enables gzip compression)");
+    options.addOption("n", true, "Number of records to generate. Default 1000");
+    options.addOption("invalid", true, "Fraction of filled-in attributes that get an invalid value. Default 0.1");
+    options.addOption("fill", true, "Fraction of schema attributes filled in per record. Default 0.25");
+    options.addOption("seed", true, "Random seed. Default 42");
+    CommandLineParser parser = new DefaultParser();
+    CommandLine cmd = parser.parse(options, args);
+    if(!cmd.hasOption("o")) {
+      throw new ParseException("Missing required option: o");
+    }
+    File outputFile = new File(cmd.getOptionValue("o"));
+    long nrRecords = Long.parseLong(cmd.getOptionValue("n", "1000"));
+    double invalidRate = Double.parseDouble(cmd.getOptionValue("invalid", "0.1"));
+    double fillRate = Double.parseDouble(cmd.getOptionValue("fill", "0.25"));
+    long seed = Long.parseLong(cmd.getOptionValue("seed", "42"));
+
+    logger.info("Generating " + nrRecords + " records to " + outputFile.getAbsolutePath());
+    long start = System.currentTimeMillis();
+    new BioSampleDumpGenerator(seed, invalidRate, fillRate).generate(outputFile, nrRecords);
+    logger.info("done " + (System.currentTimeMillis() - start) / 1000.0 + " secs");
+  }
+}
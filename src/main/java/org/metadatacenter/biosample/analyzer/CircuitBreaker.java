@@ -0,0 +1,150 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Stops requests to a remote service for a while once enough of them fail in a row, instead of sending it more
+ * requests it cannot answer. While the breaker is open requests are turned away, and callers can wait with
+ * {@link #awaitPermit()} until it is worth asking again. After a pause a single probe request is let through: if it
+ * succeeds the breaker closes again, and if it fails the breaker stays open for twice as long as before, up to a
+ * maximum pause.
+ */
+@ThreadSafe
+final class CircuitBreaker {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class.getName());
+  @Nonnull private static final Metrics.Counter opened = Metrics.counter("bioportal.breaker.opened");
+
+  private enum State { CLOSED, OPEN, HALF_OPEN }
+
+  @Nonnull private final String name;
+  private final int failureThreshold;
+  private final long initialPauseNanos, maxPauseNanos;
+  @Nonnull private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long pauseNanos, openUntil;
+
+  CircuitBreaker(@Nonnull String name, int failureThreshold, long initialPause, long maxPause,
+                 @Nonnull TimeUnit unit) {
+    checkArgument(failureThreshold > 0 && 0 < initialPause && initialPause <= maxPause);
+    this.name = checkNotNull(name);
+    this.failureThreshold = failureThreshold;
+    this.initialPauseNanos = unit.toNanos(initialPause);
+    this.maxPauseNanos = unit.toNanos(maxPause);
+    this.pauseNanos = initialPauseNanos;
+  }
+
+  /**
+   * What {@link #tryAcquire()} lets a caller do
+   */
+  enum Permit {
+    /** The request must not be sent */
+    REJECTED,
+    /** The request may be sent while the breaker is closed */
+    REQUEST,
+    /** The request may be sent as the probe, whose result decides whether the breaker closes again */
+    PROBE;
+
+    boolean isGranted() {
+      return this != REJECTED;
+    }
+  }
+
+  /**
+   * Check whether a request may be sent. Once the pause is over, the first caller to ask is let through as the probe.
+   * Every request that is let through must be followed by a call to {@link #onSuccess(Permit)} or
+   * {@link #onFailure(Permit)} with the permit it got
+   */
+  @Nonnull
+  synchronized Permit tryAcquire() {
+    switch(state) {
+      case CLOSED:
+        return Permit.REQUEST;
+      case OPEN:
+        if(System.nanoTime() - openUntil >= 0) {
+          state = State.HALF_OPEN;
+          return Permit.PROBE;
+        }
+        return Permit.REJECTED;
+      default:
+        // the probe is in flight
+        return Permit.REJECTED;
+    }
+  }
+
+  /**
+   * Wait until the breaker may let a request through: until it is closed, or its pause is over and no probe is in
+   * flight. Another caller may still take the probe first, so {@link #tryAcquire()} must be asked again
+   */
+  synchronized void awaitPermit() throws InterruptedException {
+    while(true) {
+      if(state == State.CLOSED) {
+        return;
+      } else if(state == State.OPEN) {
+        long remaining = openUntil - System.nanoTime();
+        if(remaining <= 0) {
+          return;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      } else {
+        // woken when the probe succeeds or fails
+        wait();
+      }
+    }
+  }
+
+  /**
+   * Get how long until the breaker lets a probe through, or 0 if it lets requests through now
+   */
+  synchronized long getRemainingPause(@Nonnull TimeUnit unit) {
+    return (state == State.OPEN ? unit.convert(Math.max(0, openUntil - System.nanoTime()), TimeUnit.NANOSECONDS) : 0);
+  }
+
+  /**
+   * Count a request that succeeded. Requests let through before the breaker opened may finish while the probe is in
+   * flight; only the probe's own result closes the breaker again
+   */
+  synchronized void onSuccess(@Nonnull Permit permit) {
+    checkArgument(permit.isGranted(), "Request was not let through");
+    if(state == State.HALF_OPEN && permit == Permit.PROBE) {
+      logger.info(name + " answered again, resuming requests");
+      state = State.CLOSED;
+    }
+    if(state == State.CLOSED) {
+      consecutiveFailures = 0;
+      pauseNanos = initialPauseNanos;
+    }
+    notifyAll();
+  }
+
+  /**
+   * Count a request that failed. A failure of the probe reopens the breaker for a longer pause, while late failures
+   * of requests let through before the breaker opened are ignored
+   */
+  synchronized void onFailure(@Nonnull Permit permit) {
+    checkArgument(permit.isGranted(), "Request was not let through");
+    if(state == State.HALF_OPEN && permit == Permit.PROBE) {
+      pauseNanos = Math.min(maxPauseNanos, pauseNanos * 2);
+      open();
+    } else if(state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+      open();
+    }
+    notifyAll();
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openUntil = System.nanoTime() + pauseNanos;
+    opened.increment();
+    logger.warn(name + " failed " + (consecutiveFailures >= failureThreshold ? consecutiveFailures + " times in a row" :
+        "again") + ", pausing requests for " + TimeUnit.NANOSECONDS.toSeconds(pauseNanos) + "s");
+    consecutiveFailures = 0;
+  }
+}
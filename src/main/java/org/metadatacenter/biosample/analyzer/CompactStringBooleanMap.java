@@ -0,0 +1,176 @@
+package org.metadatacenter.biosample.analyzer;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * Map from strings, given as UTF-8 bytes, to booleans. Keys are packed one after another in a single byte array,
+ * and looked up through an open-addressing table of offsets with linear probing, so that an entry costs its key
+ * bytes plus a few bytes of overhead instead of the String, Boolean and HashMap.Node objects of a
+ * {@code HashMap<String,Boolean>}.
+ */
+public final class CompactStringBooleanMap {
+  public static final int ABSENT = -1;
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+  /**
+   * The largest memory usage up to which the map can always take another key. Past it, the key arena or the table
+   * of offsets may not be able to grow, so callers that bound the map's memory should not allow more than this
+   */
+  public static final long MAX_MEMORY_USAGE = MAX_ARRAY_SIZE / 2;
+
+  // entries are stored as [key length: 4 bytes][key bytes][value: 1 byte]
+  @Nonnull private byte[] arena;
+  private int arenaSize = 0;
+  // offset + 1 of the entry in each slot, 0 if the slot is empty
+  @Nonnull private int[] offsets;
+  @Nonnull private int[] hashes;
+  private int size = 0;
+
+  public CompactStringBooleanMap(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+    this.offsets = new int[capacity];
+    this.hashes = new int[capacity];
+    this.arena = new byte[Math.max(1024, expectedSize * 16)];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the number of bytes taken by the arrays of this map
+   */
+  public long getMemoryUsage() {
+    return arena.length + 8L * offsets.length;
+  }
+
+  /**
+   * Get the most bytes that the arrays of this map take while a new key of the given length is put, counting both
+   * the old and the new arrays while the key arena or the table of offsets grows. Callers that bound the map's
+   * memory check this before putting a key, since by the time {@link #getMemoryUsage()} has grown past the bound the
+   * memory has already been allocated
+   */
+  public long getMemoryUsageToPut(int length) {
+    long table = 8L * offsets.length;
+    long arenaLength = arena.length;
+    long peak = arenaLength + table;
+    if(arenaSize + 4L + length + 1 > arenaLength) {
+      long newArenaLength = getNewArenaLength(4 + length + 1);
+      peak = Math.max(peak, arenaLength + newArenaLength + table);
+      arenaLength = newArenaLength;
+    }
+    if((size + 1) * 2L > offsets.length) {
+      // the old and the new offsets and hashes
+      peak = Math.max(peak, arenaLength + table + 2 * table);
+    }
+    return peak;
+  }
+
+  /**
+   * Hash the given bytes (32-bit FNV-1a, with a final mix so that the low bits are usable for table indexes)
+   */
+  public static int hash(@Nonnull byte[] bytes, int offset, int length, int seed) {
+    int h = 0x811c9dc5 ^ seed;
+    for(int i = offset; i < offset + length; i++) {
+      h = (h ^ bytes[i]) * 0x01000193;
+    }
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return h;
+  }
+
+  /**
+   * Get the value of the given key
+   *
+   * @return 1 for true, 0 for false, or {@link #ABSENT} if the key is not in the map
+   */
+  public int get(@Nonnull byte[] key, int offset, int length) {
+    int h = hash(key, offset, length, 0);
+    int mask = offsets.length - 1;
+    for(int slot = h & mask; offsets[slot] != 0; slot = (slot + 1) & mask) {
+      if(hashes[slot] == h && keyEquals(offsets[slot] - 1, key, offset, length)) {
+        return arena[offsets[slot] - 1 + 4 + length];
+      }
+    }
+    return ABSENT;
+  }
+
+  /**
+   * Set the value of the given key
+   *
+   * @return true if the key was already in the map
+   */
+  public boolean put(@Nonnull byte[] key, int offset, int length, boolean value) {
+    int h = hash(key, offset, length, 0);
+    int mask = offsets.length - 1;
+    int slot = h & mask;
+    for(; offsets[slot] != 0; slot = (slot + 1) & mask) {
+      if(hashes[slot] == h && keyEquals(offsets[slot] - 1, key, offset, length)) {
+        arena[offsets[slot] - 1 + 4 + length] = (byte) (value ? 1 : 0);
+        return true;
+      }
+    }
+    int entry = append(key, offset, length, value);
+    offsets[slot] = entry + 1;
+    hashes[slot] = h;
+    if(++size * 2 > offsets.length) {
+      rehash();
+    }
+    return false;
+  }
+
+  private boolean keyEquals(int entry, @Nonnull byte[] key, int offset, int length) {
+    int entryLength = ((arena[entry] & 0xFF) << 24) | ((arena[entry + 1] & 0xFF) << 16)
+        | ((arena[entry + 2] & 0xFF) << 8) | (arena[entry + 3] & 0xFF);
+    if(entryLength != length) {
+      return false;
+    }
+    for(int i = 0; i < length; i++) {
+      if(arena[entry + 4 + i] != key[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int append(@Nonnull byte[] key, int offset, int length, boolean value) {
+    int needed = 4 + length + 1;
+    if(arenaSize + needed > arena.length) {
+      if((long) arenaSize + needed > MAX_ARRAY_SIZE) {
+        throw new IllegalStateException("Map keys exceed the 2GB limit of a single array");
+      }
+      arena = Arrays.copyOf(arena, (int) getNewArenaLength(needed));
+    }
+    int entry = arenaSize;
+    arena[entry] = (byte) (length >>> 24);
+    arena[entry + 1] = (byte) (length >>> 16);
+    arena[entry + 2] = (byte) (length >>> 8);
+    arena[entry + 3] = (byte) length;
+    System.arraycopy(key, offset, arena, entry + 4, length);
+    arena[entry + 4 + length] = (byte) (value ? 1 : 0);
+    arenaSize += needed;
+    return entry;
+  }
+
+  private long getNewArenaLength(int needed) {
+    return Math.min(MAX_ARRAY_SIZE, Math.max((long) arena.length * 2, (long) arenaSize + needed));
+  }
+
+  private void rehash() {
+    int[] oldOffsets = offsets, oldHashes = hashes;
+    offsets = new int[oldOffsets.length * 2];
+    hashes = new int[oldOffsets.length * 2];
+    int mask = offsets.length - 1;
+    for(int i = 0; i < oldOffsets.length; i++) {
+      if(oldOffsets[i] != 0) {
+        int slot = oldHashes[i] & mask;
+        while(offsets[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        offsets[slot] = oldOffsets[i];
+        hashes[slot] = oldHashes[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Opens input files that may be compressed, choosing the decompressor by file extension: ".gz" (or ".bgz") for
+ * gzip, ".bz2" for bzip2 and ".zst" for Zstandard. Gzip files written in BGZF format (e.g. by {@code bgzip}) are
+ * decompressed on all cores by a {@link BgzfInputStream}; other compressed files are decompressed on a separate
+ * thread by a {@link ReadAheadInputStream}, so that decompression overlaps with parsing.
+ */
+public final class CompressedInputs {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private CompressedInputs() {
+    // no instances
+  }
+
+  /**
+   * Open the given file, decompressing it if its extension says it is compressed
+   */
+  @Nonnull
+  public static InputStream open(@Nonnull File file) throws IOException {
+    return decompress(new FileInputStream(checkNotNull(file)), file.getName());
+  }
+
+  /**
+   * Decompress the given stream if the name of the file it comes from says it is compressed, or return it as is
+   */
+  @Nonnull
+  public static InputStream decompress(@Nonnull InputStream inputStream, @Nonnull String fileName)
+      throws IOException {
+    checkNotNull(inputStream); checkNotNull(fileName);
+    String name = fileName.toLowerCase();
+    if(name.endsWith(".gz") || name.endsWith(".bgz")) {
+      BufferedInputStream buffered = new BufferedInputStream(inputStream, BUFFER_SIZE);
+      buffered.mark(32);
+      byte[] header = new byte[18];
+      int length = 0, read;
+      while(length < header.length && (read = buffered.read(header, length, header.length - length)) != -1) {
+        length += read;
+      }
+      buffered.reset();
+      if(BgzfInputStream.isBgzfHeader(header, length)) {
+        return new BgzfInputStream(buffered);
+      }
+      return new ReadAheadInputStream(new GZIPInputStream(buffered, BUFFER_SIZE));
+    } else if(name.endsWith(".bz2")) {
+      return new ReadAheadInputStream(new BZip2CompressorInputStream(new BufferedInputStream(inputStream,
+          BUFFER_SIZE), true));
+    } else if(name.endsWith(".zst")) {
+      return new ReadAheadInputStream(new ZstdCompressorInputStream(new BufferedInputStream(inputStream,
+          BUFFER_SIZE)));
+    }
+    return inputStream;
+  }
+
+  /**
+   * Check whether the given file name has the extension of a supported compression format
+   */
+  public static boolean isCompressed(@Nonnull String fileName) {
+    return !stripCompressionExtension(fileName).equals(fileName);
+  }
+
+  /**
+   * Get the given file name without its compression extension, if any (e.g. "biosample_set.xml" for
+   * "biosample_set.xml.gz")
+   */
+  @Nonnull
+  public static String stripCompressionExtension(@Nonnull String fileName) {
+    String name = fileName.toLowerCase();
+    for(String extension : new String[]{".gz", ".bgz", ".bz2", ".zst"}) {
+      if(name.endsWith(extension)) {
+        return fileName.substring(0, fileName.length() - extension.length());
+      }
+    }
+    return fileName;
+  }
+}
@@ -0,0 +1,97 @@
+package org.metadatacenter.biosample.analyzer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits how many requests to a remote service are in flight at once, adapting the limit to what the service can
+ * take (additive increase, multiplicative decrease). The limit grows by about one request per round trip while
+ * requests succeed at close to the service's baseline latency and the limit is in use, and is cut by a constant factor
+ * when a request fails or the smoothed latency rises well above the baseline, which is how an overloaded service
+ * first shows. The limit is cut at most once per round trip, so the responses of one burst of overload only cut it
+ * once. The baseline is the lowest latency seen, drifting slowly upwards so that it follows a service that has
+ * become slower for good.
+ */
+@ThreadSafe
+final class ConcurrencyLimiter {
+  // how much higher than the baseline the smoothed latency may get before it counts as overload
+  private static final double LATENCY_TOLERANCE = 2.0;
+  private static final double BACKOFF_RATIO = 0.7, SMOOTHING = 0.1, BASELINE_DRIFT = 1.001;
+  @Nonnull private static final Metrics.Counter decreases = Metrics.counter("bioportal.limiter.decreases");
+  @Nonnull private static final Metrics.Timer waits = Metrics.timer("bioportal.limiter.wait");
+
+  private final int minLimit, maxLimit;
+  private double limit, smoothedLatency, baselineLatency = Double.MAX_VALUE;
+  private int inFlight;
+  private long lastDecrease = Long.MIN_VALUE;
+
+  ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+    checkArgument(0 < minLimit && minLimit <= initialLimit && initialLimit <= maxLimit);
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+  }
+
+  /**
+   * Wait until fewer requests than the limit are in flight, and count the caller's request as in flight. Every call
+   * must be followed by a call to {@link #release(long, boolean)} or {@link #cancel()}
+   *
+   * @return The time at which the request was let through, to be given to {@link #release(long, boolean)}
+   */
+  synchronized long acquire() throws InterruptedException {
+    long start = System.nanoTime();
+    while(inFlight >= (int) limit) {
+      wait();
+    }
+    inFlight++;
+    long now = System.nanoTime();
+    waits.record(now - start);
+    return now;
+  }
+
+  /**
+   * Count a request as no longer in flight, and adapt the limit to how it went
+   *
+   * @param start  The time returned by {@link #acquire()} for the request
+   * @param failed Whether the request failed in a way that suggests the service is overloaded, such as a timeout, a
+   *               refused connection or a 429 or 5xx response
+   */
+  synchronized void release(long start, boolean failed) {
+    long now = System.nanoTime();
+    double latency = now - start;
+    boolean used = (inFlight >= limit / 2);
+    inFlight--;
+    if(!failed) {
+      baselineLatency = Math.min(latency, baselineLatency * BASELINE_DRIFT);
+      smoothedLatency = (smoothedLatency == 0 ? latency : smoothedLatency + SMOOTHING * (latency - smoothedLatency));
+    }
+    if(failed || smoothedLatency > LATENCY_TOLERANCE * baselineLatency) {
+      // requests that started before the last cut saw the load from before it
+      if(start > lastDecrease) {
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        lastDecrease = now;
+        decreases.increment();
+      }
+    } else if(used) {
+      limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Count a request that was not sent after all as no longer in flight, leaving the limit as it is
+   */
+  synchronized void cancel() {
+    inFlight--;
+    notifyAll();
+  }
+
+  /**
+   * Get the current limit on requests in flight
+   */
+  synchronized int getLimit() {
+    return (int) limit;
+  }
+}
@@ -2,10 +2,12 @@ package org.metadatacenter.biosample.analyzer;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
+import com.google.common.base.Utf8;
 
 import javax.annotation.Nonnull;
 import java.io.*;
 import java.util.List;
+import java.util.Optional;
 import java.util.regex.Pattern;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -15,11 +17,13 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * Center for Biomedical Informatics Research <br>
  * Stanford University
  */
-public class CsvWriter {
+public class CsvWriter implements ReportSink {
   @Nonnull private final File outputFolder;
   @Nonnull private BufferedWriter recordWriter;
   @Nonnull private BufferedWriter attributeWriter;
   @Nonnull private final static Pattern p = Pattern.compile("\"");
+  @Nonnull private final static Metrics.Counter bytesWritten = Metrics.counter("csv.writer.bytes");
+  @Nonnull private final static Metrics.Counter flushes = Metrics.counter("csv.writer.flushes");
   private int attributeCounter = 1;
 
   public CsvWriter(@Nonnull File outputFolder) {
@@ -40,8 +44,34 @@ public class CsvWriter {
     }
   }
 
+  @Override
+  public void write(@Nonnull RecordValidationReport report, boolean isValid) {
+    Record record = report.getMetadataRecord();
+    writeRecordFields(record, isValid);
+
+    // write attributes validation results, reading them straight from the report's columns
+    ReportLayout layout = report.getLayout();
+    for(int id = 0; id < layout.getAttributeCount(); id++) {
+      Attribute attribute = report.getAttribute(id);
+      writeAttributeValidation(attribute, record.getId(), layout.getGroupName(layout.getGroupOf(id)),
+          report.isValid(id), report.isFilledIn(id), report.isValidFormat(id), report.getMatchValue(id),
+          report.getSuggestion(id));
+    }
+    writeNewLine(recordWriter);
+  }
+
   public void writeRecord(@Nonnull Record record, boolean isValid,
                                        @Nonnull List<AttributeGroupValidationReport> validationReports) {
+    writeRecordFields(record, isValid);
+
+    // write attributes validation results
+    for(AttributeGroupValidationReport groupValidationReport : validationReports) {
+      writeAttributeGroupValidation(groupValidationReport, record.getId());
+    }
+    writeNewLine(recordWriter);
+  }
+
+  private void writeRecordFields(@Nonnull Record record, boolean isValid) {
     checkNotNull(record);
     writeCell(recordWriter, record.getId());
     writeCell(recordWriter, record.getAccession());
@@ -59,12 +89,6 @@ public class CsvWriter {
     writeCell(recordWriter, record.getStatus());
     writeCell(recordWriter, record.getStatusDate());
     writeCell(recordWriter, "" + isValid); // is record overall valid?
-
-    // write attributes validation results
-    for(AttributeGroupValidationReport groupValidationReport : validationReports) {
-      writeAttributeGroupValidation(groupValidationReport, record.getId());
-    }
-    writeNewLine(recordWriter);
   }
 
   public void writeAttributeGroupValidation(@Nonnull AttributeGroupValidationReport attributeGroupValidationReport, @Nonnull String recordId) {
@@ -75,17 +99,30 @@ public class CsvWriter {
   }
 
   public void writeAttributeValidation(@Nonnull AttributeValidationReport report, @Nonnull String recordId, @Nonnull String attributeType) {
+    writeAttributeValidation(report.getAttribute(), recordId, attributeType, report.isValid(), report.isFilledIn(),
+        report.isValidFormat(), report.getMatchValue(), report.getSuggestion());
+  }
+
+  private void writeAttributeValidation(@Nonnull Attribute attribute, @Nonnull String recordId,
+                                        @Nonnull String attributeType, boolean isValid, boolean isFilledIn,
+                                        boolean isValidFormat, @Nonnull Optional<String> matchValue,
+                                        @Nonnull Optional<String> suggestion) {
     writeCell(attributeWriter, "" + attributeCounter);
     writeCell(attributeWriter, recordId);
     writeCell(attributeWriter, attributeType);
-    writeCell(attributeWriter, report.getAttribute().getName());
-    writeCell(attributeWriter, report.getAttribute().getAttributeName());
-    writeCell(attributeWriter, report.getAttribute().getDisplayName());
-    writeCell(attributeWriter, report.getAttribute().getValue());
-    writeCell(attributeWriter, "" + report.isValid());
-    writeCell(attributeWriter, "" + report.isFilledIn());
-    writeCell(attributeWriter, "" + report.isValidFormat());
-    report.getMatchValue().ifPresent(match -> writeCell(attributeWriter, match));
+    writeCell(attributeWriter, attribute.getName());
+    writeCell(attributeWriter, attribute.getAttributeName());
+    writeCell(attributeWriter, attribute.getDisplayName());
+    writeCell(attributeWriter, attribute.getValue());
+    writeCell(attributeWriter, "" + isValid);
+    writeCell(attributeWriter, "" + isFilledIn);
+    writeCell(attributeWriter, "" + isValidFormat);
+    if(suggestion.isPresent()) {
+      writeCell(attributeWriter, matchValue.orElse(""));
+      writeCell(attributeWriter, suggestion.get());
+    } else {
+      matchValue.ifPresent(match -> writeCell(attributeWriter, match));
+    }
     writeNewLine(attributeWriter);
     attributeCounter++;
   }
@@ -96,7 +133,9 @@ public class CsvWriter {
     try {
       String output = "\"" + cellTextClean + "\"" + (includeComma ? "," : "");
       writer.write(output);
+      bytesWritten.add(Utf8.encodedLength(output));
       writer.flush();
+      flushes.increment();
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -109,12 +148,19 @@ public class CsvWriter {
   public void writeNewLine(Writer writer) {
     try {
       writer.write("\n");
+      bytesWritten.increment();
       writer.flush();
+      flushes.increment();
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
 
+  @Override
+  public void close() {
+    closeWriters();
+  }
+
   public void closeWriters() {
     try {
       recordWriter.close();
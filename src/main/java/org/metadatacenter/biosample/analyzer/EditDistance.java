@@ -0,0 +1,90 @@
+package org.metadatacenter.biosample.analyzer;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Levenshtein edit distance bounded by a maximum of interest. Only the diagonal band of width 2*max+1 of the
+ * dynamic-programming matrix is computed, and computation stops as soon as every cell of a row exceeds the bound,
+ * so comparing dissimilar strings costs little more than checking their lengths.
+ */
+public final class EditDistance {
+
+  private EditDistance() {
+    // no instances
+  }
+
+  /**
+   * Get the edit distance between two strings if it is at most {@code max}, or {@code max + 1} otherwise
+   */
+  public static int boundedDistance(@Nonnull CharSequence a, @Nonnull CharSequence b, int max) {
+    // make a the shorter string
+    if(a.length() > b.length()) {
+      CharSequence t = a; a = b; b = t;
+    }
+    int n = a.length(), m = b.length();
+    if(m - n > max) {
+      return max + 1;
+    }
+    if(n == 0) {
+      return m;
+    }
+    int[] previous = new int[n + 1];
+    int[] current = new int[n + 1];
+    int outOfBand = max + 1;
+    for(int i = 0; i <= n; i++) {
+      previous[i] = (i <= max ? i : outOfBand);
+    }
+    for(int j = 1; j <= m; j++) {
+      char bj = b.charAt(j - 1);
+      int from = Math.max(1, j - max), to = Math.min(n, j + max);
+      current[0] = (j <= max ? j : outOfBand);
+      if(from > 1) {
+        current[from - 1] = outOfBand;
+      }
+      int rowMin = current[0];
+      for(int i = from; i <= to; i++) {
+        int cost = (a.charAt(i - 1) == bj ? 0 : 1);
+        int d = Math.min(Math.min(current[i - 1] + 1, previous[i] + 1), previous[i - 1] + cost);
+        current[i] = Math.min(d, outOfBand);
+        rowMin = Math.min(rowMin, current[i]);
+      }
+      if(to < n) {
+        current[to + 1] = outOfBand;
+      }
+      if(rowMin > max) {
+        return outOfBand;
+      }
+      int[] t = previous; previous = current; current = t;
+    }
+    return Math.min(previous[n], outOfBand);
+  }
+
+  /**
+   * Get all strings obtained by deleting at most {@code max} characters from the given one, including the string
+   * itself. Two strings are within {@code max} edits of each other only if their deletion sets intersect
+   */
+  @Nonnull
+  public static Set<String> deletes(@Nonnull String s, int max) {
+    Set<String> result = new HashSet<>();
+    result.add(s);
+    List<String> frontier = new ArrayList<>();
+    frontier.add(s);
+    for(int d = 0; d < max; d++) {
+      List<String> next = new ArrayList<>();
+      for(String str : frontier) {
+        for(int i = 0; i < str.length(); i++) {
+          String delete = str.substring(0, i) + str.substring(i + 1);
+          if(result.add(delete)) {
+            next.add(delete);
+          }
+        }
+      }
+      frontier = next;
+    }
+    return result;
+  }
+}
@@ -1,14 +1,23 @@
 package org.metadatacenter.biosample.analyzer;
 
+import com.google.common.base.Throwables;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -22,36 +31,144 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public final class GenericValidator implements Validator {
   @Nonnull private static final Logger logger = LoggerFactory.getLogger(GenericValidator.class.getName());
   @Nonnull private final TermValidator termValidator;
-  @Nonnull private final static Pattern p1 = Pattern.compile("\\["), p2 = Pattern.compile("]");
+  @Nullable private final Executor lookupExecutor;
+  @Nonnull private final static Map<AttributeType,Metrics.Timer> attributeTimers = new EnumMap<>(AttributeType.class);
+
+  static {
+    for(AttributeType type : AttributeType.values()) {
+      attributeTimers.put(type, Metrics.timer("attribute.validate." + type.name().toLowerCase()));
+    }
+  }
 
   public GenericValidator(@Nonnull TermValidator termValidator) {
     this.termValidator = checkNotNull(termValidator);
+    this.lookupExecutor = null;
+  }
+
+  /**
+   * Create a validator that looks up the ontology terms of each record concurrently on the given executor, so that
+   * validating a record takes about as long as its slowest lookup rather than the sum of them. The executor must
+   * not be the one that runs the validation of records, whose threads would otherwise wait on lookups queued behind
+   * them
+   */
+  public GenericValidator(@Nonnull TermValidator termValidator, @Nonnull Executor lookupExecutor) {
+    this.termValidator = checkNotNull(termValidator);
+    this.lookupExecutor = checkNotNull(lookupExecutor);
   }
 
   public RecordValidationReport validateBioSampleRecord(@Nonnull Record biosample) {
-    List<AttributeGroupValidationReport> attributeGroupValidationReports = new ArrayList<>();
     Map<String,Attribute> map = biosample.getAttributes();
-    // validate record against known attribute types
-    for(AttributeType attrType : BioSampleAttributes.getAttributeTypes()) {
-      List<AttributeValidationReport> reports = new ArrayList<>();
-      for (AttributeSchema schema : BioSampleAttributes.getAttributesOfType(attrType)) {
-        String attrName = schema.getName();
-        Attribute attribute = map.get(attrName);
-        AttributeValidationReport report;
-        if(attribute != null) {
-          report = validateAttribute(attribute, schema);
-        } else {
-          report = Utils.getMissingAttributeReport(attrName);
+    // the whole record is validated against one version of the schema, even if it is reloaded meanwhile
+    SchemaSnapshot snapshot = SchemaRegistry.current();
+    // only the attributes the record has are added; the rest are reported as missing
+    RecordValidationReportBuilder builder = new RecordValidationReportBuilder(biosample, snapshot.getReportLayout());
+    int attributeCount = snapshot.getReportLayout().getAttributeCount();
+    // start all the term lookups of the record at once, and collect their reports in order below
+    List<CompletableFuture<AttributeValidationReport>> lookups = null;
+    if(lookupExecutor != null) {
+      for(int id = 0; id < attributeCount; id++) {
+        AttributeSchema schema = snapshot.getAttribute(id);
+        Attribute attribute = map.get(schema.getName());
+        if(attribute != null && needsLookup(schema, attribute)) {
+          if(lookups == null) {
+            lookups = new ArrayList<>(Collections.nCopies(attributeCount, null));
+          }
+          lookups.set(id, CompletableFuture.supplyAsync(() -> validateAttribute(attribute, schema, snapshot),
+              lookupExecutor));
+        }
+      }
+    }
+    // validate record against known attribute types, in the order of the report layout
+    for(int id = 0; id < attributeCount; id++) {
+      AttributeSchema schema = snapshot.getAttribute(id);
+      Attribute attribute = map.get(schema.getName());
+      if(attribute != null) {
+        AttributeValidationReport report = (lookups != null && lookups.get(id) != null ? join(lookups.get(id)) :
+            validateAttribute(attribute, schema, snapshot));
+        // attributes of types without a validator get the same report as missing ones
+        if(report.getAttribute() == attribute) {
+          builder.add(id, report);
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  @Nonnull
+  private static AttributeValidationReport join(@Nonnull CompletableFuture<AttributeValidationReport> lookup) {
+    try {
+      return lookup.join();
+    } catch (CompletionException e) {
+      // rethrow what the lookup threw, as validating the attribute on this thread would have
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    }
+  }
+
+  /**
+   * Check whether validating the given attribute looks up its value in BioPortal
+   */
+  static boolean needsLookup(@Nonnull AttributeSchema schema, @Nonnull Attribute attribute) {
+    AttributeType type = schema.getType();
+    boolean lookedUp = (type == AttributeType.ONTOLOGY_TERM ||
+        (type == AttributeType.TERM && !schema.getValues().contains("GEOLOC")));
+    String value = attribute.getValue();
+    return lookedUp && !value.trim().isEmpty() && !Utils.isInvalidEntry(value);
+  }
+
+  /**
+   * Look up, concurrently on the given executor, the distinct ontology terms that validating the given records needs,
+   * so that validating the records afterwards finds every term in the term cache. Records validated together can
+   * then share one round of lookups instead of each waiting on its own, one term at a time
+   */
+  public void prefetchTerms(@Nonnull Collection<Record> records, @Nonnull Executor executor) {
+    startPrefetchingTerms(records, executor).join();
+  }
+
+  /**
+   * Start looking up, concurrently on the given executor, the distinct ontology terms that validating the given
+   * records needs, as {@link #prefetchTerms(Collection, Executor)} does, without waiting for the lookups
+   *
+   * @return A future that completes when all the lookups are done
+   */
+  @Nonnull
+  public CompletableFuture<Void> startPrefetchingTerms(@Nonnull Collection<Record> records,
+                                                      @Nonnull Executor executor) {
+    Map<String,Runnable> lookups = new LinkedHashMap<>();
+    SchemaSnapshot snapshot = SchemaRegistry.current();
+    for(Record record : records) {
+      Map<String,Attribute> attributes = record.getAttributes();
+      for(AttributeType type : snapshot.getAttributeTypes()) {
+        if(type != AttributeType.ONTOLOGY_TERM && type != AttributeType.TERM) {
+          continue;
+        }
+        for(AttributeSchema schema : snapshot.getAttributesOfType(type)) {
+          Attribute attribute = attributes.get(schema.getName());
+          if(attribute == null || !needsLookup(schema, attribute)) {
+            continue;
+          }
+          String term = TermCanonicalizer.canonicalize(attribute.getValue(), true);
+          String[] ontologies = (type == AttributeType.ONTOLOGY_TERM ?
+              schema.getValues().toArray(new String[schema.getValues().size()]) : new String[0]);
+          lookups.putIfAbsent(term + '\t' + String.join(",", ontologies),
+              () -> termValidator.validateTerm(term, true, ontologies));
         }
-        reports.add(report);
       }
-      attributeGroupValidationReports.add(new AttributeGroupValidationReport(attrType.name().toLowerCase(), reports));
     }
-    return new RecordValidationReport(biosample, attributeGroupValidationReports);
+    return CompletableFuture.allOf(lookups.values().stream()
+        .map(lookup -> CompletableFuture.runAsync(lookup, executor))
+        .toArray(CompletableFuture<?>[]::new));
   }
 
   public AttributeValidationReport validateAttribute(Attribute attribute, AttributeSchema schema) {
+    return validateAttribute(attribute, schema, SchemaRegistry.current());
+  }
+
+  @Nonnull
+  private AttributeValidationReport validateAttribute(@Nonnull Attribute attribute, @Nonnull AttributeSchema schema,
+                                                      @Nonnull SchemaSnapshot snapshot) {
     AttributeType type = schema.getType();
+    long start = System.nanoTime();
     AttributeValidationReport report;
     if(type.equals(AttributeType.BOOLEAN)) {
       report = validateBooleanAttribute(attribute);
@@ -60,14 +177,17 @@ public final class GenericValidator implements Validator {
       report = validateIntegerAttribute(attribute);
     }
     else if(type.equals(AttributeType.VALUE_SET)) {
-      report = validateValueSetAttribute(attribute, schema);
+      report = validateValueSetAttribute(attribute, schema, snapshot);
     }
     else if(type.equals(AttributeType.TERM)) {
-      report = validateTermAttribute(attribute, schema);
+      report = validateTermAttribute(attribute, schema, snapshot);
     }
     else if(type.equals(AttributeType.ONTOLOGY_TERM)) {
       report = validateOntologyTermAttribute(attribute, true,
           schema.getValues().toArray(new String[schema.getValues().size()]));
+      if(!report.isValid() && schema.getValues().contains("GEOLOC")) {
+        report = withSuggestion(report, suggestLocation(attribute.getValue(), snapshot));
+      }
     }
     else if(type.equals(AttributeType.TIMESTAMP)) {
       report = validateTimestampAttribute(attribute);
@@ -76,14 +196,16 @@ public final class GenericValidator implements Validator {
       report = Utils.getMissingAttributeReport(attribute.getName());
       logger.error("Missing functionality to handle attributes of type: " + type);
     }
+    attributeTimers.get(type).recordSince(start);
     return report;
   }
 
   @Nonnull
-  private AttributeValidationReport validateTermAttribute(@Nonnull Attribute attribute, @Nonnull AttributeSchema schema) {
+  private AttributeValidationReport validateTermAttribute(@Nonnull Attribute attribute, @Nonnull AttributeSchema schema,
+                                                          @Nonnull SchemaSnapshot snapshot) {
     AttributeValidationReport report;
     if(schema.getValues().contains("GEOLOC")) {
-      report = validateGeographicLocation(attribute);
+      report = validateGeographicLocation(attribute, snapshot);
     } else {
       report = validateOntologyTermAttribute(attribute, true);
     }
@@ -91,11 +213,13 @@ public final class GenericValidator implements Validator {
   }
 
   @Nonnull
-  private AttributeValidationReport validateValueSetAttribute(@Nonnull Attribute attribute, @Nonnull AttributeSchema schema) {
+  private AttributeValidationReport validateValueSetAttribute(@Nonnull Attribute attribute, @Nonnull AttributeSchema schema,
+                                                              @Nonnull SchemaSnapshot snapshot) {
     String value = attribute.getValue();
     boolean isFilledIn = isFilledIn(value);
     boolean isValidFormat = false;
     String match = null;
+    Optional<String> suggestion = Optional.empty();
     if(isFilledIn) {
       List<String> values = schema.getValues();
       for(String v : values) {
@@ -105,8 +229,21 @@ public final class GenericValidator implements Validator {
           break;
         }
       }
+      if(!isValidFormat && !Utils.isInvalidEntry(value)) {
+        suggestion = snapshot.getValueSetIndex(schema).suggest(value);
+      }
     }
-    return new AttributeValidationReport(attribute, isFilledIn, isValidFormat, Optional.ofNullable(match));
+    return new AttributeValidationReport(attribute, isFilledIn, isValidFormat, Optional.ofNullable(match), suggestion);
+  }
+
+  @Nonnull
+  private static AttributeValidationReport withSuggestion(@Nonnull AttributeValidationReport report,
+                                                          @Nonnull Optional<String> suggestion) {
+    if(!suggestion.isPresent()) {
+      return report;
+    }
+    return new AttributeValidationReport(report.getAttribute(), report.isFilledIn(), report.isValidFormat(),
+        report.getMatchValue(), suggestion);
   }
 
   @Nonnull
@@ -119,9 +256,9 @@ public final class GenericValidator implements Validator {
     if(isFilledIn && !Utils.isInvalidEntry(value)) {
       TermValidationReport report;
       if (ontologies.length > 0) {
-        report = termValidator.validateTerm(normalize(value), exactMatch, ontologies);
+        report = termValidator.validateTerm(TermCanonicalizer.canonicalize(value, true), exactMatch, ontologies);
       } else {
-        report = termValidator.validateTerm(normalize(value), exactMatch);
+        report = termValidator.validateTerm(TermCanonicalizer.canonicalize(value, true), exactMatch);
       }
       isValidFormat = report.isResolvableOntologyClass();
       match = report.getMatchValue();
@@ -169,26 +306,7 @@ public final class GenericValidator implements Validator {
    */
   @Override
   public boolean isValid(@Nonnull RecordValidationReport report) {
-    boolean isValid = true;
-    for(AttributeGroupValidationReport group : report.getAttributeGroupValidationReports()) {
-      for (AttributeValidationReport r : group.getValidationReports()) {
-        if (!r.isValid()) {
-          isValid = false;
-          break;
-        }
-      }
-    }
-    return isValid;
-  }
-
-  @Nonnull
-  private String normalize(@Nonnull String str) {
-    String r = p1.matcher(str).replaceAll("");
-    String result = p2.matcher(r).replaceAll("");
-    if (result.contains(":")) {
-      result = result.substring(result.indexOf(":")+1, result.length());
-    }
-    return result;
+    return report.isValid();
   }
 
   protected boolean isFilledIn(String value) {
@@ -196,11 +314,31 @@ public final class GenericValidator implements Validator {
   }
 
   @Nonnull
-  private AttributeValidationReport validateGeographicLocation(@Nonnull Attribute attribute) {
+  private AttributeValidationReport validateGeographicLocation(@Nonnull Attribute attribute,
+                                                               @Nonnull SchemaSnapshot snapshot) {
     String value = attribute.getValue();
     boolean isFilledIn = isFilledIn(value);
-    boolean isValidFormat = isValidGeographicLocation(value);
-    return new AttributeValidationReport(attribute, isFilledIn, isValidFormat, Optional.empty());
+    boolean isValidFormat = isValidGeographicLocation(value, snapshot);
+    Optional<String> suggestion = Optional.empty();
+    if(isFilledIn && !isValidFormat) {
+      suggestion = suggestLocation(value, snapshot);
+    }
+    return new AttributeValidationReport(attribute, isFilledIn, isValidFormat, Optional.empty(), suggestion);
+  }
+
+  /**
+   * Suggest a correction for a location whose main entry is not in the country list, by replacing the main entry
+   * with the closest country or ocean name and keeping any detailed location after the separator
+   */
+  @Nonnull
+  private Optional<String> suggestLocation(@Nonnull String location, @Nonnull SchemaSnapshot snapshot) {
+    if(!isFilledIn(location) || Utils.isInvalidEntry(location)) {
+      return Optional.empty();
+    }
+    int separator = location.indexOf(Utils.LOCATION_SEPARATOR);
+    String mainEntry = (separator != -1 ? location.substring(0, separator) : location);
+    String details = (separator != -1 ? location.substring(separator) : "");
+    return snapshot.getLocationIndex().suggest(mainEntry).map(country -> country + details).filter(s -> !s.equals(location));
   }
 
   /**
@@ -208,12 +346,12 @@ public final class GenericValidator implements Validator {
    * A colon is used to separate the country or ocean from more detailed information about the location,
    * eg "Canada: Vancouver" or "Germany: halfway down Zugspitze, Alps"
    */
-  private boolean isValidGeographicLocation(String location) {
+  private boolean isValidGeographicLocation(String location, @Nonnull SchemaSnapshot snapshot) {
     if(location.contains(Utils.LOCATION_SEPARATOR)) {
       String mainEntry = location.substring(0, location.indexOf(Utils.LOCATION_SEPARATOR));
-      return Utils.getValidLocations().contains(mainEntry);
+      return snapshot.isValidLocation(mainEntry);
     } else {
-      return Utils.getValidLocations().contains(location);
+      return snapshot.isValidLocation(location);
     }
   }
 
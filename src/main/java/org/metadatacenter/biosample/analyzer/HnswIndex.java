@@ -0,0 +1,370 @@
+package org.metadatacenter.biosample.analyzer;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Approximate nearest-neighbor index over unit-length vectors, using a hierarchical navigable small world graph
+ * (Malkov and Yashunin, 2016). Vectors are kept in an off-heap matrix, and similarity is the dot product (cosine
+ * similarity for unit vectors). Vectors must all be added before searching; searches may then run concurrently.
+ */
+public final class HnswIndex {
+  public static final int DEFAULT_M = 16;
+  public static final int DEFAULT_EF_CONSTRUCTION = 100;
+
+  @Nonnull private final FloatBuffer vectors;
+  private final int dimension;
+  private final int capacity;
+  private final int m;
+  private final int efConstruction;
+  private final double levelMultiplier;
+  @Nonnull private final Random random;
+  // links[node][level] holds the number of neighbors followed by the neighbor ids
+  @Nonnull private final int[][][] links;
+  @Nonnull private final ThreadLocal<Visited> visited;
+  private int size = 0;
+  private int entryPoint = -1;
+  private int maxLevel = -1;
+
+  public HnswIndex(int dimension, int capacity, int m, int efConstruction, long seed) {
+    checkArgument(dimension > 0 && capacity >= 0 && m > 1 && efConstruction > 0);
+    long bytes = (long) capacity * dimension * Float.BYTES;
+    checkArgument(bytes <= Integer.MAX_VALUE, "Index exceeds the 2GB limit of a single buffer");
+    this.vectors = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    this.dimension = dimension;
+    this.capacity = capacity;
+    this.m = m;
+    this.efConstruction = efConstruction;
+    this.levelMultiplier = 1 / Math.log(m);
+    this.random = new Random(seed);
+    this.links = new int[capacity][][];
+    this.visited = ThreadLocal.withInitial(() -> new Visited(capacity));
+  }
+
+  public HnswIndex(int dimension, int capacity) {
+    this(dimension, capacity, DEFAULT_M, DEFAULT_EF_CONSTRUCTION, 42);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Add a unit-length vector to the index
+   *
+   * @return The id of the vector, which is the number of vectors added before it
+   */
+  public int add(@Nonnull float[] vector) {
+    checkArgument(vector.length == dimension, "Expected a vector of dimension " + dimension);
+    checkArgument(size < capacity, "Index is full");
+    int id = size++;
+    int base = id * dimension;
+    for(int i = 0; i < dimension; i++) {
+      vectors.put(base + i, vector[i]);
+    }
+    int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+    links[id] = new int[level + 1][];
+    for(int l = 0; l <= level; l++) {
+      links[id][l] = new int[maxConnections(l) + 1];
+    }
+    if(entryPoint == -1) {
+      entryPoint = id;
+      maxLevel = level;
+      return id;
+    }
+    int current = entryPoint;
+    for(int l = maxLevel; l > level; l--) {
+      current = greedySearch(vector, current, l);
+    }
+    for(int l = Math.min(level, maxLevel); l >= 0; l--) {
+      long[] candidates = searchLayer(vector, current, efConstruction, l);
+      int[] neighbors = selectNeighbors(candidates, m);
+      for(int neighbor : neighbors) {
+        addLink(id, neighbor, l);
+        addLink(neighbor, id, l);
+      }
+      current = (int) candidates[0];
+    }
+    if(level > maxLevel) {
+      maxLevel = level;
+      entryPoint = id;
+    }
+    return id;
+  }
+
+  private int maxConnections(int level) {
+    return (level == 0 ? 2 * m : m);
+  }
+
+  /**
+   * Get the ids of the approximately {@code k} most similar vectors to the given one, most similar first
+   *
+   * @param ef Size of the dynamic candidate list; larger values give better recall at the cost of speed
+   */
+  @Nonnull
+  public int[] search(@Nonnull float[] query, int k, int ef) {
+    checkNotNull(query);
+    if(entryPoint == -1) {
+      return new int[0];
+    }
+    int current = entryPoint;
+    for(int l = maxLevel; l > 0; l--) {
+      current = greedySearch(query, current, l);
+    }
+    long[] candidates = searchLayer(query, current, Math.max(ef, k), 0);
+    int[] result = new int[Math.min(k, candidates.length)];
+    for(int i = 0; i < result.length; i++) {
+      result[i] = (int) candidates[i];
+    }
+    return result;
+  }
+
+  /**
+   * Get the similarity between the given vector and the vector with the given id
+   */
+  public float similarity(@Nonnull float[] query, int id) {
+    int base = id * dimension;
+    // independent partial sums let the loop run several multiply-adds at once
+    float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = 0;
+    for(; i + 3 < dimension; i += 4) {
+      s0 += query[i] * vectors.get(base + i);
+      s1 += query[i + 1] * vectors.get(base + i + 1);
+      s2 += query[i + 2] * vectors.get(base + i + 2);
+      s3 += query[i + 3] * vectors.get(base + i + 3);
+    }
+    for(; i < dimension; i++) {
+      s0 += query[i] * vectors.get(base + i);
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  private float similarity(int a, int b) {
+    int baseA = a * dimension, baseB = b * dimension;
+    float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = 0;
+    for(; i + 3 < dimension; i += 4) {
+      s0 += vectors.get(baseA + i) * vectors.get(baseB + i);
+      s1 += vectors.get(baseA + i + 1) * vectors.get(baseB + i + 1);
+      s2 += vectors.get(baseA + i + 2) * vectors.get(baseB + i + 2);
+      s3 += vectors.get(baseA + i + 3) * vectors.get(baseB + i + 3);
+    }
+    for(; i < dimension; i++) {
+      s0 += vectors.get(baseA + i) * vectors.get(baseB + i);
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /*
+   * Candidates are encoded as longs ordered by distance then id: the high half holds the bits of the distance
+   * 1 - similarity, which compare like the floats for non-negative values, and the low half holds the id
+   */
+  private static long encode(float similarity, int id) {
+    float distance = Math.max(0f, 1 - similarity);
+    return ((long) Float.floatToIntBits(distance) << 32) | id;
+  }
+
+  private static float distance(long candidate) {
+    return Float.intBitsToFloat((int) (candidate >>> 32));
+  }
+
+  private int greedySearch(@Nonnull float[] query, int start, int level) {
+    int current = start;
+    float best = similarity(query, current);
+    boolean improved = true;
+    while(improved) {
+      improved = false;
+      int[] neighbors = links[current][level];
+      for(int i = 1; i <= neighbors[0]; i++) {
+        float s = similarity(query, neighbors[i]);
+        if(s > best) {
+          best = s;
+          current = neighbors[i];
+          improved = true;
+        }
+      }
+    }
+    return current;
+  }
+
+  /*
+   * Best-first search of one layer, returning up to ef candidates sorted nearest first
+   */
+  @Nonnull
+  private long[] searchLayer(@Nonnull float[] query, int start, int ef, int level) {
+    Visited seen = visited.get();
+    seen.clear();
+    LongHeap candidates = new LongHeap(ef * 2);   // nearest first
+    LongHeap results = new LongHeap(ef + 1);      // farthest first, by storing negated keys
+    long first = encode(similarity(query, start), start);
+    seen.visit(start);
+    candidates.push(first);
+    results.push(-first);
+    while(!candidates.isEmpty()) {
+      long candidate = candidates.pop();
+      if(distance(candidate) > distance(-results.peek()) && results.size() >= ef) {
+        break;
+      }
+      int[] neighbors = links[(int) candidate][level];
+      for(int i = 1; i <= neighbors[0]; i++) {
+        int neighbor = neighbors[i];
+        if(!seen.visit(neighbor)) {
+          continue;
+        }
+        long e = encode(similarity(query, neighbor), neighbor);
+        if(results.size() < ef || distance(e) < distance(-results.peek())) {
+          candidates.push(e);
+          results.push(-e);
+          if(results.size() > ef) {
+            results.pop();
+          }
+        }
+      }
+    }
+    long[] sorted = new long[results.size()];
+    for(int i = sorted.length - 1; i >= 0; i--) {
+      sorted[i] = -results.pop();
+    }
+    return sorted;
+  }
+
+  /*
+   * Select up to max neighbors from candidates sorted nearest first, skipping candidates that are closer to an
+   * already selected neighbor than to the base element, so that links spread out in different directions
+   */
+  @Nonnull
+  private int[] selectNeighbors(@Nonnull long[] candidates, int max) {
+    int[] selected = new int[max];
+    int count = 0;
+    for(int i = 0; i < candidates.length && count < max; i++) {
+      int c = (int) candidates[i];
+      float distance = distance(candidates[i]);
+      boolean keep = true;
+      for(int j = 0; j < count && keep; j++) {
+        keep = (1 - similarity(c, selected[j])) >= distance;
+      }
+      if(keep) {
+        selected[count++] = c;
+      }
+    }
+    return Arrays.copyOf(selected, count);
+  }
+
+  private void addLink(int from, int to, int level) {
+    int[] neighbors = links[from][level];
+    int max = maxConnections(level);
+    if(neighbors[0] < max) {
+      neighbors[++neighbors[0]] = to;
+      return;
+    }
+    // full: re-select among the current neighbors and the new one
+    long[] candidates = new long[max + 1];
+    for(int i = 0; i < max; i++) {
+      candidates[i] = encode(similarity(from, neighbors[i + 1]), neighbors[i + 1]);
+    }
+    candidates[max] = encode(similarity(from, to), to);
+    Arrays.sort(candidates);
+    int[] selected = selectNeighbors(candidates, max);
+    neighbors[0] = selected.length;
+    System.arraycopy(selected, 0, neighbors, 1, selected.length);
+  }
+
+  /*
+   * Set of visited nodes that is cleared in constant time, by bumping a generation number
+   */
+  private static final class Visited {
+    @Nonnull private final int[] marks;
+    private int generation = 0;
+
+    Visited(int capacity) {
+      this.marks = new int[capacity];
+    }
+
+    void clear() {
+      if(++generation == Integer.MAX_VALUE) {
+        Arrays.fill(marks, 0);
+        generation = 1;
+      }
+    }
+
+    /**
+     * @return true if the node had not been visited yet
+     */
+    boolean visit(int node) {
+      if(marks[node] == generation) {
+        return false;
+      }
+      marks[node] = generation;
+      return true;
+    }
+  }
+
+  /*
+   * Binary min-heap of longs
+   */
+  private static final class LongHeap {
+    private long[] heap;
+    private int size = 0;
+
+    LongHeap(int capacity) {
+      this.heap = new long[Math.max(capacity, 4)];
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    int size() {
+      return size;
+    }
+
+    long peek() {
+      return heap[0];
+    }
+
+    void push(long value) {
+      if(size == heap.length) {
+        heap = Arrays.copyOf(heap, size * 2);
+      }
+      int i = size++;
+      while(i > 0) {
+        int parent = (i - 1) >>> 1;
+        if(heap[parent] <= value) {
+          break;
+        }
+        heap[i] = heap[parent];
+        i = parent;
+      }
+      heap[i] = value;
+    }
+
+    long pop() {
+      long top = heap[0];
+      long last = heap[--size];
+      int i = 0;
+      while(true) {
+        int child = 2 * i + 1;
+        if(child >= size) {
+          break;
+        }
+        if(child + 1 < size && heap[child + 1] < heap[child]) {
+          child++;
+        }
+        if(heap[child] >= last) {
+          break;
+        }
+        heap[i] = heap[child];
+        i = child;
+      }
+      heap[i] = last;
+      return top;
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Helpers for the embedded HTTP servers, which use the JDK's built-in server.
+ */
+final class HttpServers {
+
+  static {
+    // the server writes headers and body separately, which Nagle's algorithm would hold back for a delayed ACK
+    if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+  }
+
+  private HttpServers() {
+    // no instances
+  }
+
+  /**
+   * Create a server on the given address and port (0 for any free port) whose requests are handled by the given
+   * executor. The servers have no authentication, so callers bind to the loopback address unless told otherwise
+   */
+  @Nonnull
+  static HttpServer create(@Nonnull InetAddress address, int port, @Nonnull ExecutorService executor)
+      throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress(checkNotNull(address), port), 0);
+    server.setExecutor(executor);
+    return server;
+  }
+
+  /**
+   * Create a fixed pool of daemon threads with the given name, for handling requests
+   */
+  @Nonnull
+  static ExecutorService newThreadPool(int threads, @Nonnull String name) {
+    return Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, name);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  static void respond(@Nonnull HttpExchange exchange, int status, @Nonnull byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  @Nonnull
+  static byte[] error(@Nonnull String message) {
+    String quoted = new String(JsonStringEncoder.getInstance().quoteAsString(message));
+    return ("{\"error\":\"" + quoted + "\"}").getBytes(StandardCharsets.UTF_8);
+  }
+}
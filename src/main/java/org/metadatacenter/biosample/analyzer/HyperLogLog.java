@@ -0,0 +1,163 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Estimates the number of distinct strings in a stream in fixed memory (Flajolet et al., 2007). Until the stream
+ * has a few hundred distinct values their hashes are kept exactly, so small cardinalities are counted exactly and
+ * cost little memory; beyond that, the sketch switches to 2^precision one-byte registers, with a relative standard
+ * error of about 1.04 / sqrt(2^precision). Sketches of the same precision can be merged, e.g. to combine the
+ * sketches built by different threads or over different shards of a dump.
+ */
+public final class HyperLogLog {
+  public static final int DEFAULT_PRECISION = 14;
+  @Nonnull private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+  private final int precision;
+  // exact set of the hashes seen so far (open addressing, 0 marks an empty slot), or null once registers are used
+  private long[] hashes = new long[16];
+  private int hashCount = 0;
+  private byte[] registers;
+
+  public HyperLogLog(int precision) {
+    checkArgument(precision >= 4 && precision <= 18, "Precision must be between 4 and 18");
+    this.precision = precision;
+  }
+
+  public HyperLogLog() {
+    this(DEFAULT_PRECISION);
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  public void add(@Nonnull String value) {
+    addHash(hashFunction.hashString(checkNotNull(value), StandardCharsets.UTF_8).asLong());
+  }
+
+  /**
+   * Add a value given by its 64-bit hash, which must be uniformly distributed
+   */
+  public void addHash(long hash) {
+    if(registers != null) {
+      addToRegisters(hash);
+    } else {
+      addToHashes(hash == 0 ? 1 : hash);
+    }
+  }
+
+  private void addToRegisters(long hash) {
+    int index = (int) (hash >>> (64 - precision));
+    // the remaining bits, with a sentinel bit so that the rank is at most 64 - precision + 1
+    long rest = (hash << precision) | (1L << (precision - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+    if(rank > registers[index]) {
+      registers[index] = rank;
+    }
+  }
+
+  private void addToHashes(long hash) {
+    int mask = hashes.length - 1;
+    int slot = (int) (hash ^ (hash >>> 32)) & mask;
+    while(hashes[slot] != 0) {
+      if(hashes[slot] == hash) {
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    hashes[slot] = hash;
+    if(++hashCount * 2 > hashes.length) {
+      // switch to registers once the exact set would take as much memory as them
+      if(hashes.length * 2 * Long.BYTES > (1 << precision)) {
+        toRegisters();
+      } else {
+        long[] old = hashes;
+        hashes = new long[old.length * 2];
+        hashCount = 0;
+        for(long h : old) {
+          if(h != 0) {
+            addToHashes(h);
+          }
+        }
+      }
+    }
+  }
+
+  private void toRegisters() {
+    registers = new byte[1 << precision];
+    for(long h : hashes) {
+      if(h != 0) {
+        addToRegisters(h);
+      }
+    }
+    hashes = null;
+    hashCount = 0;
+  }
+
+  /**
+   * Add all values seen by the given sketch to this one
+   */
+  public void merge(@Nonnull HyperLogLog other) {
+    checkArgument(other.precision == precision, "Cannot merge sketches of different precisions");
+    if(other.registers == null) {
+      for(long h : other.hashes) {
+        if(h != 0) {
+          addHash(h);
+        }
+      }
+      return;
+    }
+    if(registers == null) {
+      toRegisters();
+    }
+    for(int i = 0; i < registers.length; i++) {
+      if(other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  /**
+   * Get the estimated number of distinct values added. This is exact for small numbers of values
+   */
+  public long getEstimate() {
+    if(registers == null) {
+      return hashCount;
+    }
+    int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for(byte r : registers) {
+      sum += 1.0 / (1L << r);
+      if(r == 0) {
+        zeros++;
+      }
+    }
+    double alpha = 0.7213 / (1 + 1.079 / m);
+    double estimate = alpha * m * m / sum;
+    if(estimate <= 2.5 * m && zeros > 0) {
+      estimate = m * Math.log((double) m / zeros); // linear counting for small ranges
+    }
+    return Math.round(estimate);
+  }
+
+  /**
+   * Get the number of bytes taken by the arrays of this sketch
+   */
+  public long getMemoryUsage() {
+    return (registers != null ? registers.length : (long) hashes.length * Long.BYTES);
+  }
+
+  @Override
+  public String toString() {
+    return "HyperLogLog{precision=" + precision + ", estimate=" + getEstimate() + "}";
+  }
+}
@@ -0,0 +1,220 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes validation results straight into a relational database (MySQL, or an embedded database such as H2),
+ * with the same columns as the files written by {@link CsvWriter}, plus an input_name column naming the input the
+ * rows came from. Attribute ids are numbered per input, so when several inputs are written into the same tables, as
+ * in batch mode, an attribute row is identified by its input name and attribute id. Rows are inserted through
+ * prepared multi-row INSERT statements, executed in JDBC batches, and committed in large transactions.
+ */
+public final class JdbcReportSink implements ReportSink {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(JdbcReportSink.class.getName());
+  @Nonnull public static final String RECORDS_TABLE = "biosample_records";
+  @Nonnull public static final String ATTRIBUTES_TABLE = "biosample_attributes";
+  private static final int ROWS_PER_INSERT = 100;
+  @Nonnull private static final String[] RECORD_COLUMNS = {"input_name", "id", "accession", "publication_date", "last_update",
+      "submission_date", "access", "organism_taxonomy_id", "organism_taxonomy_name", "organism_name", "owner_name",
+      "model_name", "package_display_name", "package_name", "status", "status_date", "is_valid"};
+  @Nonnull private static final String[] ATTRIBUTE_COLUMNS = {"input_name", "attribute_id", "record_id", "attribute_type", "name",
+      "attribute_name", "display_name", "attribute_value", "is_valid", "is_filled_in", "is_valid_format", "match_value",
+      "suggestion"};
+
+  @Nonnull private final Connection connection;
+  @Nonnull private final String inputName;
+  @Nonnull private final TableWriter recordTable;
+  @Nonnull private final TableWriter attributeTable;
+  private final int batchSize;
+  private final int commitInterval;
+  private long attributeCounter = 1;
+  private long recordsSinceCommit = 0;
+
+  /**
+   * @param connection     Database connection. This sink takes ownership of the connection and closes it
+   * @param inputName      Name of the input whose results are written, stored with every row
+   * @param createTables   Whether to create the output tables if they do not exist
+   * @param batchSize      Number of rows to send to the database in one JDBC batch
+   * @param commitInterval Number of records to write in one transaction
+   */
+  public JdbcReportSink(@Nonnull Connection connection, @Nonnull String inputName, boolean createTables,
+                        int batchSize, int commitInterval) throws SQLException {
+    checkArgument(batchSize > 0, "Batch size must be positive");
+    checkArgument(commitInterval > 0, "Commit interval must be positive");
+    this.connection = checkNotNull(connection);
+    this.inputName = checkNotNull(inputName);
+    this.batchSize = batchSize;
+    this.commitInterval = commitInterval;
+    // before creating the tables, whose commit some drivers reject in auto-commit mode
+    connection.setAutoCommit(false);
+    if(createTables) {
+      createTables();
+    }
+    this.recordTable = new TableWriter(RECORDS_TABLE, RECORD_COLUMNS);
+    this.attributeTable = new TableWriter(ATTRIBUTES_TABLE, ATTRIBUTE_COLUMNS);
+  }
+
+  private void createTables() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("CREATE TABLE IF NOT EXISTS " + RECORDS_TABLE + " (" +
+          "input_name VARCHAR(255), id VARCHAR(32), accession VARCHAR(32), publication_date VARCHAR(32), last_update VARCHAR(32), " +
+          "submission_date VARCHAR(32), access VARCHAR(32), organism_taxonomy_id VARCHAR(32), " +
+          "organism_taxonomy_name VARCHAR(512), organism_name VARCHAR(512), owner_name VARCHAR(512), " +
+          "model_name VARCHAR(255), package_display_name VARCHAR(512), package_name VARCHAR(255), " +
+          "status VARCHAR(32), status_date VARCHAR(32), is_valid BOOLEAN)");
+      statement.execute("CREATE TABLE IF NOT EXISTS " + ATTRIBUTES_TABLE + " (" +
+          "input_name VARCHAR(255), attribute_id BIGINT, record_id VARCHAR(32), attribute_type VARCHAR(32), name VARCHAR(255), " +
+          "attribute_name VARCHAR(255), display_name VARCHAR(255), attribute_value TEXT, is_valid BOOLEAN, " +
+          "is_filled_in BOOLEAN, is_valid_format BOOLEAN, match_value TEXT, suggestion TEXT)");
+    }
+    connection.commit();
+  }
+
+  @Override
+  public void write(@Nonnull RecordValidationReport report, boolean isValid) {
+    checkNotNull(report);
+    Record record = report.getMetadataRecord();
+    try {
+      recordTable.add(inputName, record.getId(), record.getAccession(), record.getPublicationDate(), record.getLastUpdate(),
+          record.getSubmissionDate(), record.getAccess(), record.getOrganismTaxonomyId(),
+          record.getOrganismTaxonomyName(), record.getOrganismName(), record.getOwnerName(), record.getModelName(),
+          record.getPackageDisplayName(), record.getPackageName(), record.getStatus(), record.getStatusDate(),
+          isValid);
+      ReportLayout layout = report.getLayout();
+      for(int id = 0; id < layout.getAttributeCount(); id++) {
+        Attribute attribute = report.getAttribute(id);
+        attributeTable.add(inputName, attributeCounter++, record.getId(),
+            layout.getGroupName(layout.getGroupOf(id)), attribute.getName(), attribute.getAttributeName(),
+            attribute.getDisplayName(), attribute.getValue(),
+            report.isValid(id), report.isFilledIn(id), report.isValidFormat(id),
+            report.getMatchValue(id).orElse(null), report.getSuggestion(id).orElse(null));
+      }
+      if(++recordsSinceCommit >= commitInterval) {
+        commit();
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not write record " + record.getId() + " to the database", e);
+    }
+  }
+
+  private void commit() throws SQLException {
+    recordTable.flush();
+    attributeTable.flush();
+    connection.commit();
+    Metrics.counter("jdbc.commits").increment();
+    recordsSinceCommit = 0;
+  }
+
+  @Override
+  public void close() {
+    try {
+      commit();
+      recordTable.close();
+      attributeTable.close();
+      connection.close();
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not complete writing to the database", e);
+    }
+  }
+
+  /*
+   * Buffers rows of one table. Full groups of ROWS_PER_INSERT rows go through a multi-row INSERT, added to a JDBC
+   * batch that is executed once it holds batchSize rows; rows left over at a flush go through a single-row INSERT.
+   */
+  private final class TableWriter {
+    @Nonnull private final String table;
+    @Nonnull private final String[] columns;
+    @Nonnull private final PreparedStatement multiRowInsert;
+    @Nonnull private final PreparedStatement singleRowInsert;
+    @Nonnull private final List<Object[]> pendingRows = new ArrayList<>(ROWS_PER_INSERT);
+    private int batchedRows = 0;
+
+    TableWriter(@Nonnull String table, @Nonnull String[] columns) throws SQLException {
+      this.table = table;
+      this.columns = columns;
+      this.multiRowInsert = connection.prepareStatement(insertSql(ROWS_PER_INSERT));
+      this.singleRowInsert = connection.prepareStatement(insertSql(1));
+    }
+
+    @Nonnull
+    private String insertSql(int rows) {
+      StringBuilder sb = new StringBuilder("INSERT INTO ").append(table).append(" (")
+          .append(String.join(", ", columns)).append(") VALUES ");
+      StringBuilder row = new StringBuilder("(");
+      for(int i = 0; i < columns.length; i++) {
+        row.append(i == 0 ? "?" : ", ?");
+      }
+      row.append(")");
+      for(int i = 0; i < rows; i++) {
+        sb.append(i == 0 ? "" : ", ").append(row);
+      }
+      return sb.toString();
+    }
+
+    void add(Object... row) throws SQLException {
+      pendingRows.add(row);
+      if(pendingRows.size() == ROWS_PER_INSERT) {
+        bind(multiRowInsert, pendingRows);
+        multiRowInsert.addBatch();
+        batchedRows += pendingRows.size();
+        pendingRows.clear();
+        if(batchedRows >= batchSize) {
+          executeBatch();
+        }
+      }
+    }
+
+    private void bind(@Nonnull PreparedStatement statement, @Nonnull List<Object[]> rows) throws SQLException {
+      int index = 1;
+      for(Object[] row : rows) {
+        for(Object value : row) {
+          statement.setObject(index++, value);
+        }
+      }
+    }
+
+    private void executeBatch() throws SQLException {
+      if(batchedRows > 0) {
+        long start = System.nanoTime();
+        multiRowInsert.executeBatch();
+        Metrics.timer("jdbc.batch").recordSince(start);
+        Metrics.counter("jdbc.rows").add(batchedRows);
+        batchedRows = 0;
+      }
+    }
+
+    void flush() throws SQLException {
+      executeBatch();
+      if(!pendingRows.isEmpty()) {
+        List<Object[]> single = new ArrayList<>(1);
+        for(Object[] row : pendingRows) {
+          single.add(row);
+          bind(singleRowInsert, single);
+          singleRowInsert.addBatch();
+          single.clear();
+        }
+        singleRowInsert.executeBatch();
+        Metrics.counter("jdbc.rows").add(pendingRows.size());
+        pendingRows.clear();
+      }
+    }
+
+    void close() throws SQLException {
+      multiRowInsert.close();
+      singleRowInsert.close();
+      logger.debug("Closed writer for table " + table);
+    }
+  }
+}
@@ -0,0 +1,273 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A persistent index from record links to the records that have them, written by a {@link LinkIndexWriter}. Links
+ * are looked up by namespace and id, e.g. ("bioproject", "PRJNA12345"), and give the ordinals of the records that
+ * have them, in increasing order, from which record accessions can be obtained. The index file is memory-mapped,
+ * and looking up a link is a binary search over the sorted keys followed by decoding a delta-encoded posting list,
+ * so lookups take microseconds to milliseconds without loading the index into memory. Lookups are thread-safe.
+ */
+public final class LinkIndex {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(LinkIndex.class.getName());
+  static final int MAGIC = 0x42534c58; // "BSLX"
+  static final int VERSION = 1;
+  // file sections, whose offsets follow the magic number, version, record count and key count in the header
+  static final int POSTINGS = 0, KEYS = 1, KEY_TABLE = 2, ACCESSION_TABLE = 3, ACCESSIONS = 4, SECTIONS = 5;
+  static final int HEADER_SIZE = 4 * Integer.BYTES + (SECTIONS + 1) * Long.BYTES;
+  // key offset, key length, posting list offset, posting list size
+  static final int KEY_ENTRY_SIZE = 2 * Long.BYTES + 2 * Integer.BYTES;
+  private static final char KEY_SEPARATOR = '\t';
+
+  @Nonnull private final ByteBuffer postings;
+  @Nonnull private final ByteBuffer keys;
+  @Nonnull private final ByteBuffer keyTable;
+  @Nonnull private final ByteBuffer accessionTable;
+  @Nonnull private final ByteBuffer accessions;
+  private final int recordCount;
+  private final int keyCount;
+
+  private LinkIndex(@Nonnull FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while(header.hasRemaining() && channel.read(header, header.position()) != -1) {
+      // keep reading
+    }
+    header.flip();
+    if(header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+      throw new IOException("Not a link index file");
+    }
+    int version = header.getInt();
+    if(version != VERSION) {
+      throw new IOException("Unsupported link index version: " + version);
+    }
+    this.recordCount = header.getInt();
+    this.keyCount = header.getInt();
+    long[] offsets = new long[SECTIONS + 1];
+    for(int i = 0; i <= SECTIONS; i++) {
+      offsets[i] = header.getLong();
+    }
+    this.postings = map(channel, offsets, POSTINGS);
+    this.keys = map(channel, offsets, KEYS);
+    this.keyTable = map(channel, offsets, KEY_TABLE);
+    this.accessionTable = map(channel, offsets, ACCESSION_TABLE);
+    this.accessions = map(channel, offsets, ACCESSIONS);
+  }
+
+  /**
+   * Open the given index file
+   */
+  @Nonnull
+  public static LinkIndex open(@Nonnull File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(checkNotNull(file).toPath(), StandardOpenOption.READ)) {
+      return new LinkIndex(channel);
+    }
+  }
+
+  /*
+   * Map one section of the file. Sections are mapped separately so that the 2GB limit of a buffer applies to each
+   * section rather than to the whole file
+   */
+  @Nonnull
+  private static ByteBuffer map(@Nonnull FileChannel channel, @Nonnull long[] offsets, int section)
+      throws IOException {
+    long size = offsets[section + 1] - offsets[section];
+    if(size > Integer.MAX_VALUE) {
+      throw new IOException("Link index section exceeds the 2GB limit of a mapped buffer");
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, offsets[section], size);
+  }
+
+  /**
+   * Get the namespace that a link is indexed under: its target (e.g. "bioproject") or, if it has none, its type
+   * (e.g. "url")
+   */
+  @Nonnull
+  public static String getNamespace(@Nonnull Link link) {
+    String target = link.getTarget().trim();
+    return (target.isEmpty() ? link.getType().trim() : target).toLowerCase(Locale.ROOT);
+  }
+
+  @Nonnull
+  static String getKey(@Nonnull String namespace, @Nonnull String id) {
+    return namespace.toLowerCase(Locale.ROOT) + KEY_SEPARATOR + id;
+  }
+
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  public int getKeyCount() {
+    return keyCount;
+  }
+
+  /**
+   * Get the ordinals of the records that have a link with the given namespace and id, in increasing order
+   */
+  @Nonnull
+  public int[] getRecordOrdinals(@Nonnull String namespace, @Nonnull String id) {
+    int entry = find(getKey(checkNotNull(namespace), checkNotNull(id).trim()).getBytes(StandardCharsets.UTF_8));
+    if(entry < 0) {
+      return new int[0];
+    }
+    int base = entry * KEY_ENTRY_SIZE;
+    long offset = keyTable.getLong(base + Long.BYTES + Integer.BYTES);
+    int[] ordinals = new int[keyTable.getInt(base + 2 * Long.BYTES + Integer.BYTES)];
+    int position = (int) offset, last = -1;
+    for(int i = 0; i < ordinals.length; i++) {
+      int gap = 0, shift = 0;
+      byte b;
+      do {
+        b = postings.get(position++);
+        gap |= (b & 0x7F) << shift;
+        shift += 7;
+      } while(b < 0);
+      last += gap;
+      ordinals[i] = last;
+    }
+    return ordinals;
+  }
+
+  /**
+   * Get the accessions of the records that have a link with the given namespace and id, in record order
+   */
+  @Nonnull
+  public List<String> getAccessions(@Nonnull String namespace, @Nonnull String id) {
+    int[] ordinals = getRecordOrdinals(namespace, id);
+    List<String> result = new ArrayList<>(ordinals.length);
+    for(int ordinal : ordinals) {
+      result.add(getAccession(ordinal));
+    }
+    return result;
+  }
+
+  /**
+   * Get the accession of the record with the given ordinal
+   */
+  @Nonnull
+  public String getAccession(int ordinal) {
+    checkElementIndex(ordinal, recordCount);
+    int start = accessionTable.getInt(ordinal * Integer.BYTES);
+    int end = accessionTable.getInt((ordinal + 1) * Integer.BYTES);
+    byte[] bytes = new byte[end - start];
+    for(int i = 0; i < bytes.length; i++) {
+      bytes[i] = accessions.get(start + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /*
+   * Binary search for the key table entry of the given key, comparing UTF-8 bytes as unsigned values
+   */
+  private int find(@Nonnull byte[] key) {
+    int low = 0, high = keyCount - 1;
+    while(low <= high) {
+      int mid = (low + high) >>> 1;
+      int c = compareKey(mid, key);
+      if(c < 0) {
+        low = mid + 1;
+      } else if(c > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private int compareKey(int entry, @Nonnull byte[] key) {
+    int base = entry * KEY_ENTRY_SIZE;
+    int offset = (int) keyTable.getLong(base);
+    int length = keyTable.getInt(base + Long.BYTES);
+    int n = Math.min(length, key.length);
+    for(int i = 0; i < n; i++) {
+      int c = (keys.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+      if(c != 0) {
+        return c;
+      }
+    }
+    return length - key.length;
+  }
+
+  public static void main(String[] args) throws IOException, ParseException {
+    Options options = new Options();
+    options.addOption("i", true, "BioSample XML dump to index (possibly compressed). If not given, the index is "
+        + "only queried");
+    options.addOption("x", true, "Link index file");
+    options.addOption("q", true, "Link to look up, as namespace:id (e.g. bioproject:PRJNA12345). If not given, "
+        + "links are read from standard input, one per line");
+    CommandLineParser parser = new DefaultParser();
+    CommandLine cmd = parser.parse(options, args);
+    File indexFile = new File(cmd.getOptionValue("x"));
+
+    if(cmd.hasOption("i")) {
+      File input = new File(cmd.getOptionValue("i"));
+      long start = System.currentTimeMillis();
+      RecordProjection projection = new RecordProjection(EnumSet.of(RecordProjection.Field.LINKS),
+          Collections.emptySet());
+      try (RecordStreamParser records = new RecordStreamParser(new BufferedInputStream(CompressedInputs.open(input)),
+          projection);
+           LinkIndexWriter writer = new LinkIndexWriter(indexFile)) {
+        while(records.hasNext()) {
+          writer.add(records.next());
+        }
+        logger.info("Indexed links of " + writer.getRecordCount() + " records");
+      }
+      logger.info("Wrote " + indexFile + " (" + indexFile.length() / 1024 + " KB) in "
+          + (System.currentTimeMillis() - start) + " ms");
+      if(!cmd.hasOption("q")) {
+        return;
+      }
+    }
+    LinkIndex index = LinkIndex.open(indexFile);
+    if(cmd.hasOption("q")) {
+      printRecords(index, cmd.getOptionValue("q"));
+    } else {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+      String line;
+      while((line = reader.readLine()) != null) {
+        printRecords(index, line);
+      }
+    }
+  }
+
+  private static void printRecords(@Nonnull LinkIndex index, @Nonnull String query) {
+    int colon = query.indexOf(':');
+    if(colon == -1) {
+      System.out.println(query + ": expected namespace:id");
+      return;
+    }
+    long start = System.nanoTime();
+    List<String> accessions = index.getAccessions(query.substring(0, colon), query.substring(colon + 1));
+    double millis = (System.nanoTime() - start) / 1e6;
+    System.out.println(query + " (" + accessions.size() + " records, " + String.format("%.3f", millis) + " ms)");
+    for(String accession : accessions) {
+      System.out.println("\t" + accession);
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.google.common.primitives.UnsignedBytes;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Builds a {@link LinkIndex} from records as they are parsed. Each record is given the next ordinal, starting at 0,
+ * and each of its links is indexed under the link's namespace (its target, such as "bioproject", or its type if it
+ * has no target) and both its label and its value, so that e.g. a BioProject can be looked up by accession or by
+ * numeric id. The index is written when the writer is closed.
+ */
+public final class LinkIndexWriter implements Closeable {
+  @Nonnull private final File outputFile;
+  @Nonnull private final Map<String,Postings> postings = new HashMap<>();
+  // accessions of all records, packed one after another
+  @Nonnull private byte[] accessions = new byte[1 << 16];
+  @Nonnull private int[] accessionEnds = new int[1024];
+  private int accessionsSize = 0;
+  private int records = 0;
+  private boolean closed = false;
+
+  public LinkIndexWriter(@Nonnull File outputFile) {
+    this.outputFile = checkNotNull(outputFile);
+  }
+
+  /**
+   * Add the given record, as the next record ordinal
+   *
+   * @return The ordinal of the record
+   */
+  public int add(@Nonnull Record record) {
+    checkState(!closed, "Link index writer is closed");
+    int ordinal = records++;
+    addAccession(record.getAccession());
+    for(Link link : record.getLinks()) {
+      String namespace = LinkIndex.getNamespace(link);
+      addPosting(namespace, link.getLabel(), ordinal);
+      addPosting(namespace, link.getValue(), ordinal);
+    }
+    return ordinal;
+  }
+
+  /**
+   * Get an iterator over the given records that adds each record to this index as it is returned
+   */
+  @Nonnull
+  public Iterator<Record> indexing(@Nonnull Iterator<Record> records) {
+    checkNotNull(records);
+    return new Iterator<Record>() {
+      @Override
+      public boolean hasNext() {
+        return records.hasNext();
+      }
+
+      @Override
+      public Record next() {
+        Record record = records.next();
+        add(record);
+        return record;
+      }
+    };
+  }
+
+  /**
+   * Get a sink that adds the record of each report to this index, in the order the reports are written, and writes
+   * the index when it is closed
+   */
+  @Nonnull
+  public ReportSink asSink() {
+    return new ReportSink() {
+      @Override
+      public void write(@Nonnull RecordValidationReport report, boolean isValid) {
+        add(report.getMetadataRecord());
+      }
+
+      @Override
+      public void close() {
+        try {
+          LinkIndexWriter.this.close();
+        } catch (IOException e) {
+          throw new UncheckedIOException("Could not write link index " + outputFile, e);
+        }
+      }
+    };
+  }
+
+  public int getRecordCount() {
+    return records;
+  }
+
+  private void addPosting(@Nonnull String namespace, @Nonnull String id, int ordinal) {
+    id = id.trim();
+    if(id.isEmpty()) {
+      return;
+    }
+    postings.computeIfAbsent(LinkIndex.getKey(namespace, id), k -> new Postings()).add(ordinal);
+  }
+
+  private void addAccession(@Nonnull String accession) {
+    byte[] bytes = accession.getBytes(StandardCharsets.UTF_8);
+    if(accessionsSize + bytes.length > accessions.length) {
+      long length = Math.max(2L * accessions.length, (long) accessionsSize + bytes.length);
+      checkState(length <= Integer.MAX_VALUE - 8, "Accessions exceed the 2GB limit of a single array");
+      accessions = Arrays.copyOf(accessions, (int) length);
+    }
+    System.arraycopy(bytes, 0, accessions, accessionsSize, bytes.length);
+    accessionsSize += bytes.length;
+    if(records > accessionEnds.length) {
+      accessionEnds = Arrays.copyOf(accessionEnds, accessionEnds.length * 2);
+    }
+    accessionEnds[records - 1] = accessionsSize;
+  }
+
+  /**
+   * Write the index file
+   */
+  @Override
+  public void close() throws IOException {
+    if(closed) {
+      return;
+    }
+    closed = true;
+    List<Map.Entry<byte[],Postings>> entries = new ArrayList<>(postings.size());
+    for(Map.Entry<String,Postings> e : postings.entrySet()) {
+      entries.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey().getBytes(StandardCharsets.UTF_8), e.getValue()));
+    }
+    postings.clear();
+    Comparator<byte[]> comparator = UnsignedBytes.lexicographicalComparator();
+    entries.sort((a, b) -> comparator.compare(a.getKey(), b.getKey()));
+
+    long[] sectionOffsets = new long[LinkIndex.SECTIONS + 1];
+    try (CountingOutput out = new CountingOutput(outputFile)) {
+      out.write(new byte[LinkIndex.HEADER_SIZE]);
+      // posting lists, as varint-encoded gaps between ordinals
+      sectionOffsets[LinkIndex.POSTINGS] = out.position;
+      long[] postingOffsets = new long[entries.size()];
+      for(int i = 0; i < entries.size(); i++) {
+        postingOffsets[i] = out.position - sectionOffsets[LinkIndex.POSTINGS];
+        entries.get(i).getValue().write(out);
+      }
+      // key bytes
+      sectionOffsets[LinkIndex.KEYS] = out.position;
+      for(Map.Entry<byte[],Postings> entry : entries) {
+        out.write(entry.getKey());
+      }
+      // key table
+      sectionOffsets[LinkIndex.KEY_TABLE] = out.position;
+      long keyOffset = 0;
+      for(int i = 0; i < entries.size(); i++) {
+        byte[] key = entries.get(i).getKey();
+        out.data.writeLong(keyOffset);
+        out.data.writeInt(key.length);
+        out.data.writeLong(postingOffsets[i]);
+        out.data.writeInt(entries.get(i).getValue().size);
+        out.position += LinkIndex.KEY_ENTRY_SIZE;
+        keyOffset += key.length;
+      }
+      // accession offsets and bytes
+      sectionOffsets[LinkIndex.ACCESSION_TABLE] = out.position;
+      out.data.writeInt(0);
+      for(int i = 0; i < records; i++) {
+        out.data.writeInt(accessionEnds[i]);
+      }
+      out.position += 4L * (records + 1);
+      sectionOffsets[LinkIndex.ACCESSIONS] = out.position;
+      out.write(Arrays.copyOf(accessions, accessionsSize));
+      sectionOffsets[LinkIndex.SECTIONS] = out.position;
+    }
+    try (RandomAccessFile file = new RandomAccessFile(outputFile, "rw")) {
+      file.writeInt(LinkIndex.MAGIC);
+      file.writeInt(LinkIndex.VERSION);
+      file.writeInt(records);
+      file.writeInt(entries.size());
+      for(long offset : sectionOffsets) {
+        file.writeLong(offset);
+      }
+    }
+  }
+
+  /*
+   * Sorted record ordinals, stored as varint-encoded gaps
+   */
+  private static final class Postings {
+    @Nonnull private byte[] bytes = new byte[4];
+    private int length = 0;
+    private int size = 0;
+    private int last = -1;
+
+    void add(int ordinal) {
+      if(ordinal == last) {
+        return; // the record has several links with this key
+      }
+      int gap = ordinal - last;
+      last = ordinal;
+      size++;
+      if(length + 5 > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+      }
+      while((gap & ~0x7F) != 0) {
+        bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+        gap >>>= 7;
+      }
+      bytes[length++] = (byte) gap;
+    }
+
+    void write(@Nonnull CountingOutput out) throws IOException {
+      out.data.write(bytes, 0, length);
+      out.position += length;
+    }
+  }
+
+  /*
+   * Buffered file output that keeps track of its position beyond the 2GB that DataOutputStream counts
+   */
+  private static final class CountingOutput implements Closeable {
+    @Nonnull final DataOutputStream data;
+    long position = 0;
+
+    CountingOutput(@Nonnull File file) throws IOException {
+      this.data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    void write(@Nonnull byte[] bytes) throws IOException {
+      data.write(bytes);
+      position += bytes.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+      data.close();
+    }
+  }
+}
@@ -1,11 +1,23 @@
 package org.metadatacenter.biosample.analyzer;
 
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionGroup;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
 
 /**
  * @author Rafael Gonçalves <br>
@@ -26,21 +38,174 @@ public class Main {
     }
   }
 
-  public static void main(String[] args) throws IOException {
-    String inputFilePath = args[0];
-    String outputFolderPath = args[1];
-    String bioPortalApiKey = args[2];
+  public static void main(String[] args) throws IOException, ParseException {
+    Options options = new Options();
+    options.addOption("metrics", true, "Path to a file to periodically append metrics snapshots (JSON lines) to");
+    options.addOption("metricsInterval", true, "Seconds between metrics snapshots. Default 60");
+    options.addOption("jmx", false, "Publish metrics over JMX");
+    options.addOption("progressInterval", true, "Seconds between progress reports. Default 30");
+    options.addOption("batch", false, "Treat the input as a directory of dumps or a manifest of dump paths, and "
+        + "process them concurrently with a shared term cache, writing each to its own subfolder of the output folder");
+    options.addOption("threads", true, "Number of inputs to process concurrently in batch mode. Default: nr of cores");
+    Option jdbc = new Option("jdbc", true, "JDBC URL of a database to write results to instead of CSV files, "
+        + "e.g. jdbc:mysql://localhost/biosample or jdbc:h2:./biosample");
+    options.addOption("jdbcUser", true, "Database user name");
+    options.addOption("jdbcPassword", true, "Database password");
+    options.addOption("jdbcBatchSize", true, "Number of rows per JDBC batch. Default 5000");
+    options.addOption("jdbcCommitInterval", true, "Number of records per database transaction. Default 10000");
+    options.addOption("project", true, "Comma-separated record fields and attribute names to read, skipping the rest "
+        + "of each record, e.g. schema,package for the attributes in attributes.csv plus the package. Must include "
+        + "every attribute in attributes.csv. Default: all record fields and the attributes in attributes.csv "
+        + "(all attributes with -schemaReload)");
+    options.addOption("linkIndex", true, "Path of a link index file to build while validating, for looking up records "
+        + "by their links with LinkIndex (e.g. all records linked to a BioProject). In batch mode, the file name is used "
+        + "for an index in each output subfolder");
+    options.addOption("store", true, "Path of a record store file to write while validating, holding each record and "
+        + "its validation results, for serving lookups by accession with RecordLookupServer. In batch mode, the file name "
+        + "is used for a store in each output subfolder");
+    options.addOption("schema", true, "Folder with attributes.csv and/or country-list.txt to use instead of the bundled "
+        + "schema files");
+    options.addOption("schemaReload", true, "Seconds between checks of the -schema folder for changes, which are "
+        + "picked up by records validated from then on. Default: no reloading");
+    options.addOption("lookupThreads", true, "Number of threads that look up the ontology terms of each record "
+        + "concurrently, instead of one after another on the validating thread. Default: lookups are not concurrent");
+    Option normalized = new Option("normalized", false, "Write results as CSV tables normalized against attribute and value "
+        + "dictionaries (attributes_dim.csv, values_dim.csv and attribute_validation_fact.csv), instead of "
+        + "repeating attribute names and values in every row");
+    Option aggregate = new Option("aggregate", true, "Write only a summary of validation counts, grouped by the given "
+        + "comma-separated keys, instead of per-attribute results. Keys: attribute, packageName, ownerName, "
+        + "organismTaxonomyName, modelName, status; join keys with + to group by several, e.g. "
+        + "attribute,packageName,packageName+attribute");
+    // each of these replaces the default CSV output, so only one can be given
+    options.addOptionGroup(new OptionGroup().addOption(jdbc).addOption(normalized).addOption(aggregate));
+    options.addOption("parseThreads", true, "Number of threads that parse chunks of the input concurrently, "
+        + "for uncompressed inputs outside batch mode. Default: 1");
+    CommandLineParser parser = new DefaultParser();
+    CommandLine cmd = parser.parse(options, args);
+    String[] positionalArgs = cmd.getArgs();
+
+    String inputFilePath = positionalArgs[0];
+    String outputFolderPath = positionalArgs[1];
+    String bioPortalApiKey = positionalArgs[2];
     logger.info("Input file: " + inputFilePath);
     logger.info("Output folder: " + outputFolderPath);
 
     File inputFile = getFile(inputFilePath);
     File outputFolder = getFile(outputFolderPath);
 
-    Validator validator = new GenericValidator(new TermValidator(new BioPortalAgent(bioPortalApiKey)));
-    BioSampleAnalyzer analyzer = new BioSampleAnalyzer(validator);
-    analyzer.parseDocument(inputFile).ifPresent(doc -> {
-      List<Record> records = analyzer.getBioSampleRecords(doc);
-      analyzer.validate(records, outputFolder);
-    });
+    File metricsFile = (cmd.hasOption("metrics") ? new File(cmd.getOptionValue("metrics")) : null);
+    long metricsInterval = Long.parseLong(cmd.getOptionValue("metricsInterval", "60"));
+    long progressInterval = Long.parseLong(cmd.getOptionValue("progressInterval",
+        String.valueOf(BioSampleAnalyzer.PROGRESS_INTERVAL_SECS)));
+    if(cmd.hasOption("schema")) {
+      SchemaRegistry.useFolder(new File(cmd.getOptionValue("schema")));
+      if(cmd.hasOption("schemaReload")) {
+        SchemaRegistry.watch(Long.parseLong(cmd.getOptionValue("schemaReload")));
+      }
+    }
+    RecordProjection projection;
+    if(cmd.hasOption("project")) {
+      projection = RecordProjection.parse(cmd.getOptionValue("project"));
+      // attributes that are not read would be reported as not filled in
+      Set<String> excluded = projection.getExcludedAttributes(SchemaRegistry.current().getAttributeNames());
+      if(!excluded.isEmpty()) {
+        throw new ParseException("-project leaves out attributes that are validated, which would be reported as "
+            + "not filled in: " + String.join(", ", excluded) + ". Add " + RecordProjection.SCHEMA
+            + " to the projection to read all of them");
+      }
+    } else if(cmd.hasOption("schemaReload")) {
+      // a reload may add attributes, which must still be read
+      projection = RecordProjection.ALL;
+    } else {
+      projection = RecordProjection.ofSchema(EnumSet.allOf(RecordProjection.Field.class));
+    }
+    ReportSink.Factory sinkFactory = CsvWriter::new;
+    if(cmd.hasOption("jdbc")) {
+      String url = cmd.getOptionValue("jdbc");
+      String user = cmd.getOptionValue("jdbcUser");
+      String password = cmd.getOptionValue("jdbcPassword");
+      int batchSize = Integer.parseInt(cmd.getOptionValue("jdbcBatchSize", "5000"));
+      int commitInterval = Integer.parseInt(cmd.getOptionValue("jdbcCommitInterval", "10000"));
+      boolean batch = cmd.hasOption("batch");
+      sinkFactory = folder -> {
+        // in batch mode each input has its own output folder, named after it
+        String inputName = (batch ? folder.getName() : inputFile.getName());
+        try {
+          return new JdbcReportSink(DriverManager.getConnection(url, user, password), inputName, true, batchSize,
+              commitInterval);
+        } catch (SQLException e) {
+          throw new IOException("Could not open database " + url, e);
+        }
+      };
+    } else if(cmd.hasOption("normalized")) {
+      sinkFactory = NormalizedReportSink::new;
+    } else if(cmd.hasOption("aggregate")) {
+      List<AggregatingReportSink.GroupBy> groupBys = AggregatingReportSink.parseGroupBys(
+          cmd.getOptionValue("aggregate"));
+      sinkFactory = folder -> new AggregatingReportSink(folder, groupBys);
+    }
+    if(cmd.hasOption("store")) {
+      File storeFile = new File(cmd.getOptionValue("store"));
+      boolean batch = cmd.hasOption("batch");
+      ReportSink.Factory resultsFactory = sinkFactory;
+      sinkFactory = folder -> ReportSink.both(resultsFactory.create(folder),
+          new RecordStoreSink(batch ? new File(folder, storeFile.getName()) : storeFile));
+    }
+    if(cmd.hasOption("linkIndex")) {
+      File linkIndexFile = new File(cmd.getOptionValue("linkIndex"));
+      boolean batch = cmd.hasOption("batch");
+      ReportSink.Factory resultsFactory = sinkFactory;
+      sinkFactory = folder -> ReportSink.both(resultsFactory.create(folder),
+          new LinkIndexWriter(batch ? new File(folder, linkIndexFile.getName()) : linkIndexFile).asSink());
+    }
+    int failedInputs = 0;
+    // reports metrics in the background until it is closed
+    MetricsReporter reporter = new MetricsReporter(metricsFile, metricsInterval, cmd.hasOption("jmx"));
+    try {
+      TermValidator termValidator = new TermValidator(new BioPortalAgent(bioPortalApiKey));
+      Validator validator;
+      if(cmd.hasOption("lookupThreads")) {
+        int lookupThreads = Integer.parseInt(cmd.getOptionValue("lookupThreads"));
+        validator = new GenericValidator(termValidator, Executors.newFixedThreadPool(lookupThreads, r -> {
+          Thread thread = new Thread(r, "term-lookup");
+          thread.setDaemon(true);
+          return thread;
+        }));
+      } else {
+        validator = new GenericValidator(termValidator);
+      }
+      if(cmd.hasOption("batch")) {
+        int threads = Integer.parseInt(cmd.getOptionValue("threads",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+        BatchRunner runner = new BatchRunner(validator, sinkFactory, threads, progressInterval, projection);
+        List<File> inputs = BatchRunner.getInputs(inputFile);
+        try {
+          failedInputs = runner.run(inputs, outputFolder);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          failedInputs = inputs.size();
+        }
+      } else {
+        BioSampleAnalyzer analyzer = new BioSampleAnalyzer(validator);
+        int parseThreads = Integer.parseInt(cmd.getOptionValue("parseThreads", "1"));
+        try (ProgressTracker tracker = new ProgressTracker(inputFile.length(), progressInterval)) {
+          if(parseThreads > 1 && !CompressedInputs.isCompressed(inputFile.getName())) {
+            try (ParallelRecordParser records = analyzer.parseRecords(inputFile, tracker, projection, parseThreads)) {
+              analyzer.validate(records, sinkFactory.create(outputFolder), tracker);
+            }
+          } else {
+            try (RecordStreamParser records = analyzer.parseRecords(inputFile, tracker, projection)) {
+              analyzer.validate(records, sinkFactory.create(outputFolder), tracker);
+            }
+          }
+        }
+      }
+    } finally {
+      reporter.close();
+    }
+    if(failedInputs > 0) {
+      // the failures have been logged; the exit status tells scripts that the run is incomplete
+      System.exit(1);
+    }
   }
 }
@@ -0,0 +1,313 @@
+package org.metadatacenter.biosample.analyzer;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Processes the lines of a large text file on several threads. The file is memory-mapped and split into chunks
+ * whose boundaries are moved forward to the next line break, the chunks are processed concurrently, and their
+ * results are handed over in file order. Lines are read straight from the mapped chunks, which are not copied to the
+ * heap. At most two chunks per thread are in flight, so memory use does not grow with the file size.
+ */
+public final class MappedLineEngine {
+  public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+  // chunk outputs start at this size and grow as needed, as most outputs are much smaller than their chunks
+  private static final int INITIAL_OUTPUT_CAPACITY = 64 * 1024;
+
+  private final int threads;
+  private final int chunkSize;
+
+  public MappedLineEngine(int threads, int chunkSize) {
+    checkArgument(threads > 0, "Number of threads must be positive");
+    checkArgument(chunkSize > 0, "Chunk size must be positive");
+    this.threads = threads;
+    this.chunkSize = chunkSize;
+  }
+
+  public MappedLineEngine() {
+    this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Computes the result of one chunk of lines. Called concurrently for different chunks
+   */
+  public interface ChunkProcessor<R> {
+    @Nonnull
+    R process(@Nonnull Chunk chunk) throws IOException;
+  }
+
+  /**
+   * Receives chunk results, one at a time and in file order
+   */
+  public interface ResultConsumer<R> {
+    void accept(@Nonnull R result) throws IOException;
+  }
+
+  /**
+   * Transforms one line into output text. Called concurrently for lines of different chunks
+   */
+  public interface LineHandler {
+    void handle(@Nonnull Chunk line, @Nonnull ChunkOutput output) throws IOException;
+  }
+
+  /**
+   * Process all lines of the given file
+   *
+   * @return The number of chunks processed
+   */
+  public <R> int process(@Nonnull File input, @Nonnull ChunkProcessor<R> processor,
+                         @Nonnull ResultConsumer<R> consumer) throws IOException {
+    checkNotNull(input); checkNotNull(processor); checkNotNull(consumer);
+    try (FileChannel channel = FileChannel.open(input.toPath(), StandardOpenOption.READ)) {
+      long[] boundaries = getChunkBoundaries(channel);
+      int chunks = boundaries.length - 1;
+      if(chunks == 0) {
+        return 0;
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, chunks));
+      try {
+        ArrayDeque<Future<R>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        while(next < chunks || !inFlight.isEmpty()) {
+          while(next < chunks && inFlight.size() < 2 * threads) {
+            long start = boundaries[next], end = boundaries[next + 1];
+            inFlight.add(executor.submit(() -> processor.process(new Chunk(map(channel, start, end)))));
+            next++;
+          }
+          consumer.accept(get(inFlight.poll()));
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+      return chunks;
+    }
+  }
+
+  /**
+   * Apply the given handler to every line of the given file, and write the output it produces to the given stream
+   * in the order of the input lines
+   *
+   * @return The number of lines processed
+   */
+  public long transform(@Nonnull File input, @Nonnull OutputStream output, @Nonnull LineHandler handler)
+      throws IOException {
+    checkNotNull(output); checkNotNull(handler);
+    long[] lines = {0};
+    process(input, chunk -> {
+      ChunkOutput out = new ChunkOutput(Math.min(chunk.size(), INITIAL_OUTPUT_CAPACITY));
+      while(chunk.nextLine()) {
+        handler.handle(chunk, out);
+        out.lines++;
+      }
+      return out;
+    }, out -> {
+      output.write(out.bytes, 0, out.size);
+      lines[0] += out.lines;
+    });
+    return lines[0];
+  }
+
+  /**
+   * Collect the values computed from every line of the given file, in file order. Lines for which the mapper
+   * returns null are skipped
+   */
+  @Nonnull
+  public <T> List<T> collect(@Nonnull File input, @Nonnull LineMapper<T> mapper) throws IOException {
+    checkNotNull(mapper);
+    List<T> values = new ArrayList<>();
+    process(input, chunk -> {
+      List<T> chunkValues = new ArrayList<>();
+      while(chunk.nextLine()) {
+        T value = mapper.map(chunk.getLine());
+        if(value != null) {
+          chunkValues.add(value);
+        }
+      }
+      return chunkValues;
+    }, values::addAll);
+    return values;
+  }
+
+  public interface LineMapper<T> {
+    T map(@Nonnull String line) throws IOException;
+  }
+
+  private static <R> R get(@Nonnull Future<R> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while processing lines", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if(cause instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) cause).getCause();
+      } else if(cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  @Nonnull
+  private static MappedByteBuffer map(@Nonnull FileChannel channel, long start, long end) throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+  }
+
+  /*
+   * Chunk start offsets followed by the file size. Each boundary after the first is moved to just after the first
+   * line break at or after its nominal offset, so that no line spans two chunks
+   */
+  @Nonnull
+  private long[] getChunkBoundaries(@Nonnull FileChannel channel) throws IOException {
+    long size = channel.size();
+    List<Long> boundaries = new ArrayList<>();
+    boundaries.add(0L);
+    ByteBuffer probe = ByteBuffer.allocate(4096);
+    long position = 0;
+    while(position < size) {
+      long candidate = position + chunkSize;
+      if(candidate >= size) {
+        break;
+      }
+      // find the next line break
+      long boundary = -1;
+      while(boundary == -1 && candidate < size) {
+        probe.clear();
+        int read = channel.read(probe, candidate);
+        if(read <= 0) {
+          break;
+        }
+        for(int i = 0; i < read; i++) {
+          if(probe.get(i) == '\n') {
+            boundary = candidate + i + 1;
+            break;
+          }
+        }
+        candidate += read;
+      }
+      if(boundary == -1 || boundary >= size) {
+        break;
+      }
+      boundaries.add(boundary);
+      position = boundary;
+    }
+    boundaries.add(size);
+    long[] result = new long[boundaries.size()];
+    for(int i = 0; i < result.length; i++) {
+      result[i] = boundaries.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * A chunk of whole lines, iterated one line at a time. Lines are found by scanning the mapped chunk in place, and
+   * the current line is copied into a small buffer that is reused from line to line: it is available as bytes of
+   * {@link #getBytes()} from {@link #getStart()} for {@link #getLength()} bytes, or decoded as a string. Line
+   * terminators ("\n" or "\r\n") are not included
+   */
+  public static final class Chunk {
+    @Nonnull private final ByteBuffer buffer;
+    @Nonnull private byte[] line = new byte[256];
+    private int length = 0, next = 0;
+
+    Chunk(@Nonnull ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    public int size() {
+      return buffer.limit();
+    }
+
+    public boolean nextLine() {
+      int limit = buffer.limit();
+      if(next >= limit) {
+        return false;
+      }
+      int start = next;
+      int i = start;
+      while(i < limit && buffer.get(i) != '\n') {
+        i++;
+      }
+      next = i + 1;
+      length = i - start;
+      if(length > 0 && buffer.get(start + length - 1) == '\r') {
+        length--;
+      }
+      if(length > line.length) {
+        line = new byte[Math.max(length, line.length * 2)];
+      }
+      buffer.position(start);
+      buffer.get(line, 0, length);
+      return true;
+    }
+
+    @Nonnull
+    public byte[] getBytes() {
+      return line;
+    }
+
+    public int getStart() {
+      return 0;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    @Nonnull
+    public String getLine() {
+      return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Output of one chunk, held in memory until all previous chunks have been written
+   */
+  public static final class ChunkOutput {
+    @Nonnull private byte[] bytes;
+    private int size = 0;
+    private long lines = 0;
+
+    ChunkOutput(int initialCapacity) {
+      this.bytes = new byte[Math.max(64, initialCapacity)];
+    }
+
+    public void write(@Nonnull byte[] b, int offset, int length) {
+      if(size + length > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+      }
+      System.arraycopy(b, offset, bytes, size, length);
+      size += length;
+    }
+
+    public void write(@Nonnull byte[] b) {
+      write(b, 0, b.length);
+    }
+
+    public void write(@Nonnull String s) {
+      write(s.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+}
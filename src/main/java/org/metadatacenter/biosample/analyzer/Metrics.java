@@ -0,0 +1,169 @@
+package org.metadatacenter.biosample.analyzer;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A process-wide registry of counters and latency timers for the validation pipeline. Metrics are created on first
+ * use and are safe to update concurrently; updates are lock-free so instrumentation can stay on in long runs.
+ */
+public final class Metrics {
+  @Nonnull private static final Map<String,Counter> counters = new ConcurrentHashMap<>();
+  @Nonnull private static final Map<String,Timer> timers = new ConcurrentHashMap<>();
+
+  private Metrics() {
+    // no instances
+  }
+
+  @Nonnull
+  public static Counter counter(@Nonnull String name) {
+    Counter counter = counters.get(checkNotNull(name));
+    if(counter == null) {
+      counter = counters.computeIfAbsent(name, n -> new Counter());
+    }
+    return counter;
+  }
+
+  @Nonnull
+  public static Timer timer(@Nonnull String name) {
+    Timer timer = timers.get(checkNotNull(name));
+    if(timer == null) {
+      timer = timers.computeIfAbsent(name, n -> new Timer());
+    }
+    return timer;
+  }
+
+  @Nonnull
+  public static SortedMap<String,Long> getCounterValues() {
+    SortedMap<String,Long> values = new TreeMap<>();
+    counters.forEach((name, counter) -> values.put(name, counter.get()));
+    return values;
+  }
+
+  @Nonnull
+  public static SortedMap<String,Timer> getTimers() {
+    return new TreeMap<>(timers);
+  }
+
+  /**
+   * A monotonically increasing count
+   */
+  public static final class Counter {
+    @Nonnull private final LongAdder adder = new LongAdder();
+
+    private Counter() { }
+
+    public void increment() {
+      adder.increment();
+    }
+
+    public void add(long amount) {
+      adder.add(amount);
+    }
+
+    public long get() {
+      return adder.sum();
+    }
+  }
+
+  /**
+   * A latency histogram. Durations are kept in log-linear buckets (8 sub-buckets per power of two), so
+   * percentiles are accurate to within about 12% while recording stays a couple of atomic increments.
+   */
+  public static final class Timer {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    @Nonnull private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    @Nonnull private final LongAdder count = new LongAdder();
+    @Nonnull private final LongAdder totalNanos = new LongAdder();
+    @Nonnull private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    private Timer() { }
+
+    public void record(long nanos) {
+      if(nanos < 0) {
+        nanos = 0;
+      }
+      buckets.incrementAndGet(bucketIndex(nanos));
+      count.increment();
+      totalNanos.add(nanos);
+      maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * Record the time elapsed since the given {@link System#nanoTime()} reading
+     */
+    public void recordSince(long startNanos) {
+      record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public double getMean(@Nonnull TimeUnit unit) {
+      long n = count.sum();
+      return n == 0 ? 0 : (double) totalNanos.sum() / n / unit.toNanos(1);
+    }
+
+    public double getMax(@Nonnull TimeUnit unit) {
+      return (double) maxNanos.get() / unit.toNanos(1);
+    }
+
+    public double getTotal(@Nonnull TimeUnit unit) {
+      return (double) totalNanos.sum() / unit.toNanos(1);
+    }
+
+    /**
+     * Get the (upper bound of the bucket holding the) given quantile, e.g. 0.99 for the 99th percentile
+     */
+    public double getPercentile(double quantile, @Nonnull TimeUnit unit) {
+      long[] snapshot = new long[buckets.length()];
+      long total = 0;
+      for(int i = 0; i < snapshot.length; i++) {
+        snapshot[i] = buckets.get(i);
+        total += snapshot[i];
+      }
+      if(total == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(quantile * total);
+      long seen = 0;
+      for(int i = 0; i < snapshot.length; i++) {
+        seen += snapshot[i];
+        if(seen >= rank) {
+          return (double) Math.min(bucketUpperBound(i), maxNanos.get()) / unit.toNanos(1);
+        }
+      }
+      return getMax(unit);
+    }
+
+    private static int bucketIndex(long nanos) {
+      if(nanos < SUB_BUCKETS) {
+        return (int) nanos;
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+      int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketUpperBound(int index) {
+      if(index < SUB_BUCKETS) {
+        return index;
+      }
+      int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      long subBucket = index % SUB_BUCKETS;
+      long lower = (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+      return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Periodically exports the {@link Metrics} registry as JSON lines to a local file, and optionally publishes it
+ * over JMX. A last snapshot is written when the reporter is closed.
+ */
+public final class MetricsReporter implements Closeable {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(MetricsReporter.class.getName());
+  @Nonnull private static final String JMX_NAME = "org.metadatacenter.biosample.analyzer:type=Metrics";
+  @Nonnull private final ObjectMapper mapper = new ObjectMapper();
+  @Nonnull private final ScheduledExecutorService scheduler;
+  @Nullable private final BufferedWriter writer;
+  private boolean jmxRegistered = false;
+
+  public MetricsReporter(@Nullable File outputFile, long intervalSeconds, boolean exportJmx) throws IOException {
+    this.writer = (outputFile != null ? new BufferedWriter(new FileWriter(outputFile, true)) : null);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "metrics-reporter");
+      t.setDaemon(true);
+      return t;
+    });
+    if(writer != null) {
+      scheduler.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+    if(exportJmx) {
+      registerMBean();
+    }
+  }
+
+  private void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(JMX_NAME);
+      if(!server.isRegistered(name)) {
+        server.registerMBean(new MetricsView(), name);
+        jmxRegistered = true;
+      }
+    } catch (JMException e) {
+      logger.error("Could not register metrics MBean", e);
+    }
+  }
+
+  @Nonnull
+  public static ObjectNode snapshot(@Nonnull ObjectMapper mapper) {
+    checkNotNull(mapper);
+    ObjectNode root = mapper.createObjectNode();
+    root.put("timestamp", System.currentTimeMillis());
+    ObjectNode counters = root.putObject("counters");
+    Metrics.getCounterValues().forEach(counters::put);
+    ObjectNode timers = root.putObject("timers");
+    for(Map.Entry<String,Metrics.Timer> e : Metrics.getTimers().entrySet()) {
+      Metrics.Timer timer = e.getValue();
+      ObjectNode node = timers.putObject(e.getKey());
+      node.put("count", timer.getCount());
+      node.put("totalSecs", timer.getTotal(TimeUnit.SECONDS));
+      node.put("meanMs", timer.getMean(TimeUnit.MILLISECONDS));
+      node.put("p50Ms", timer.getPercentile(0.5, TimeUnit.MILLISECONDS));
+      node.put("p99Ms", timer.getPercentile(0.99, TimeUnit.MILLISECONDS));
+      node.put("maxMs", timer.getMax(TimeUnit.MILLISECONDS));
+    }
+    return root;
+  }
+
+  private synchronized void report() {
+    if(writer == null) {
+      return;
+    }
+    try {
+      writer.write(mapper.writeValueAsString(snapshot(mapper)));
+      writer.write("\n");
+      writer.flush();
+    } catch (IOException e) {
+      logger.error("Could not write metrics snapshot", e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    scheduler.shutdownNow();
+    report();
+    if(writer != null) {
+      writer.close();
+    }
+    if(jmxRegistered) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(JMX_NAME));
+      } catch (JMException e) {
+        logger.error("Could not unregister metrics MBean", e);
+      }
+    }
+  }
+
+  public interface MetricsViewMXBean {
+
+    Map<String,Long> getCounters();
+
+    Map<String,Double> getTimerMeansMs();
+
+    Map<String,Double> getTimerP99sMs();
+
+  }
+
+  private static final class MetricsView implements MetricsViewMXBean {
+
+    @Override
+    public Map<String,Long> getCounters() {
+      return Metrics.getCounterValues();
+    }
+
+    @Override
+    public Map<String,Double> getTimerMeansMs() {
+      Map<String,Double> means = new TreeMap<>();
+      Metrics.getTimers().forEach((name, timer) -> means.put(name, timer.getMean(TimeUnit.MILLISECONDS)));
+      return means;
+    }
+
+    @Override
+    public Map<String,Double> getTimerP99sMs() {
+      Map<String,Double> p99s = new TreeMap<>();
+      Metrics.getTimers().forEach((name, timer) -> p99s.put(name, timer.getPercentile(0.99, TimeUnit.MILLISECONDS)));
+      return p99s;
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.google.common.base.Utf8;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A sink that writes validation results as CSV tables normalized against two dictionaries, for loading into a
+ * warehouse. Rather than repeating the attribute type, names and value text in every row, as {@link CsvWriter}
+ * does, each distinct attribute (type, harmonized name, attribute name and display name) and each distinct value
+ * text is written once, to {@value #ATTRIBUTES_FILE} and {@value #VALUES_FILE}, under an id assigned the first time
+ * it is seen. The fact table, {@value #FACTS_FILE}, then holds one row of ids and flags per attribute per record:
+ * record id, attribute id, value id, valid, filled in, valid format, and the value ids of the match and suggestion,
+ * if any. Records are written to {@value #RECORDS_FILE} with the same columns as {@link CsvWriter}.
+ * <p>
+ * Ids are assigned through concurrent maps, so the sink can be written to from several threads. Both dictionaries
+ * are kept in memory for the whole run.
+ */
+public final class NormalizedReportSink implements ReportSink {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(NormalizedReportSink.class.getName());
+  @Nonnull public static final String RECORDS_FILE = "records.csv", ATTRIBUTES_FILE = "attributes_dim.csv",
+      VALUES_FILE = "values_dim.csv", FACTS_FILE = "attribute_validation_fact.csv";
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int MAX_LAYOUTS = 16;
+  @Nonnull private static final Metrics.Counter bytesWritten = Metrics.counter("normalized.writer.bytes");
+
+  @Nonnull private final Writer recordWriter, attributeWriter, valueWriter, factWriter;
+  @Nonnull private final ConcurrentMap<String,Integer> attributeIds = new ConcurrentHashMap<>();
+  @Nonnull private final ConcurrentMap<String,Integer> valueIds = new ConcurrentHashMap<>();
+  @Nonnull private final AtomicInteger nextAttributeId = new AtomicInteger(), nextValueId = new AtomicInteger();
+  // the attribute ids of the missing attributes of each report layout, which are the same for every record
+  @Nonnull private final ConcurrentMap<ReportLayout,int[]> missingAttributeIds = new ConcurrentHashMap<>();
+
+  public NormalizedReportSink(@Nonnull File outputFolder) throws IOException {
+    checkNotNull(outputFolder);
+    recordWriter = open(new File(outputFolder, RECORDS_FILE), "id,accession,publication_date,last_update," +
+        "submission_date,access,organism_taxonomy_id,organism_taxonomy_name,organism_name,owner_name,model_name," +
+        "package_display_name,package_name,status,status_date,valid");
+    attributeWriter = open(new File(outputFolder, ATTRIBUTES_FILE),
+        "attribute_id,attribute_type,name,attribute_name,display_name");
+    valueWriter = open(new File(outputFolder, VALUES_FILE), "value_id,value");
+    factWriter = open(new File(outputFolder, FACTS_FILE),
+        "record_id,attribute_id,value_id,valid,filled_in,valid_format,match_value_id,suggestion_value_id");
+  }
+
+  @Nonnull
+  private static Writer open(@Nonnull File file, @Nonnull String header) throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+        BUFFER_SIZE);
+    writer.write(header);
+    writer.write('\n');
+    return writer;
+  }
+
+  @Override
+  public void write(@Nonnull RecordValidationReport report, boolean isValid) {
+    checkNotNull(report);
+    Record record = report.getMetadataRecord();
+    StringBuilder recordRow = new StringBuilder(256);
+    for(String cell : new String[]{record.getId(), record.getAccession(), record.getPublicationDate(),
+        record.getLastUpdate(), record.getSubmissionDate(), record.getAccess(), record.getOrganismTaxonomyId(),
+        record.getOrganismTaxonomyName(), record.getOrganismName(), record.getOwnerName(), record.getModelName(),
+        record.getPackageDisplayName(), record.getPackageName(), record.getStatus(), record.getStatusDate()}) {
+      appendCell(recordRow, cell).append(',');
+    }
+    recordRow.append(isValid).append('\n');
+
+    ReportLayout layout = report.getLayout();
+    int[] missingIds = getMissingAttributeIds(layout);
+    int emptyValueId = getValueId("");
+    StringBuilder factRows = new StringBuilder(layout.getAttributeCount() * 24);
+    for(int id = 0; id < layout.getAttributeCount(); id++) {
+      Attribute attribute = report.getAttribute(id);
+      boolean missing = (attribute == layout.getMissingReport(id).getAttribute());
+      int attributeId = (missing ? missingIds[id] : getAttributeId(layout.getGroupName(layout.getGroupOf(id)),
+          attribute));
+      int valueId = (missing ? emptyValueId : getValueId(attribute.getValue()));
+      factRows.append(record.getId()).append(',').append(attributeId).append(',').append(valueId).append(',')
+          .append(report.isValid(id) ? '1' : '0').append(',')
+          .append(report.isFilledIn(id) ? '1' : '0').append(',')
+          .append(report.isValidFormat(id) ? '1' : '0').append(',');
+      appendValueId(factRows, report.getMatchValue(id)).append(',');
+      appendValueId(factRows, report.getSuggestion(id)).append('\n');
+    }
+    write(recordWriter, recordRow);
+    write(factWriter, factRows);
+  }
+
+  @Nonnull
+  private StringBuilder appendValueId(@Nonnull StringBuilder row, @Nonnull Optional<String> value) {
+    return (value.isPresent() ? row.append(getValueId(value.get())) : row);
+  }
+
+  @Nonnull
+  private int[] getMissingAttributeIds(@Nonnull ReportLayout layout) {
+    int[] ids = missingAttributeIds.get(layout);
+    if(ids == null) {
+      ids = new int[layout.getAttributeCount()];
+      for(int id = 0; id < ids.length; id++) {
+        ids[id] = getAttributeId(layout.getGroupName(layout.getGroupOf(id)),
+            layout.getMissingReport(id).getAttribute());
+      }
+      // reports put together from group reports each have their own layout, which are not worth keeping
+      if(missingAttributeIds.size() < MAX_LAYOUTS) {
+        missingAttributeIds.put(layout, ids);
+      }
+    }
+    return ids;
+  }
+
+  private int getAttributeId(@Nonnull String type, @Nonnull Attribute attribute) {
+    String key = type + '\n' + attribute.getName() + '\n' + attribute.getAttributeName() + '\n' +
+        attribute.getDisplayName();
+    Integer id = attributeIds.get(key);
+    if(id != null) {
+      return id;
+    }
+    int newId = nextAttributeId.incrementAndGet();
+    id = attributeIds.putIfAbsent(key, newId);
+    if(id != null) {
+      return id;
+    }
+    StringBuilder row = new StringBuilder().append(newId).append(',');
+    appendCell(row, type).append(',');
+    appendCell(row, attribute.getName()).append(',');
+    appendCell(row, attribute.getAttributeName()).append(',');
+    appendCell(row, attribute.getDisplayName()).append('\n');
+    write(attributeWriter, row);
+    return newId;
+  }
+
+  private int getValueId(@Nonnull String value) {
+    Integer id = valueIds.get(value);
+    if(id != null) {
+      return id;
+    }
+    int newId = nextValueId.incrementAndGet();
+    id = valueIds.putIfAbsent(value, newId);
+    if(id != null) {
+      return id;
+    }
+    StringBuilder row = new StringBuilder().append(newId).append(',');
+    appendCell(row, value).append('\n');
+    write(valueWriter, row);
+    return newId;
+  }
+
+  @Nonnull
+  private static StringBuilder appendCell(@Nonnull StringBuilder row, @Nonnull String cell) {
+    // quotes in the cell text become single quotes, as in CsvWriter
+    return row.append('"').append(cell.replace('"', '\'')).append('"');
+  }
+
+  private void write(@Nonnull Writer writer, @Nonnull CharSequence rows) {
+    try {
+      synchronized (writer) {
+        writer.append(rows);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    bytesWritten.add(Utf8.encodedLength(rows));
+  }
+
+  @Override
+  public void close() {
+    IOException failure = null;
+    for(Writer writer : new Writer[]{recordWriter, attributeWriter, valueWriter, factWriter}) {
+      try {
+        synchronized (writer) {
+          writer.close();
+        }
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    if(failure != null) {
+      throw new UncheckedIOException(failure);
+    }
+    logger.info("Wrote " + attributeIds.size() + " distinct attributes and " + valueIds.size() + " distinct values");
+  }
+}
@@ -0,0 +1,292 @@
+package org.metadatacenter.biosample.analyzer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Parses an uncompressed BioSample XML dump on several threads, handing the records over in document order, as
+ * {@link RecordStreamParser} would. The file is split into chunks of about the given size whose boundaries are moved
+ * forward to the next {@code <BioSample} start tag, found by scanning the bytes. Each chunk is memory-mapped and
+ * parsed by its own {@link RecordStreamParser}, with the file's prolog (everything before the first record) put in
+ * front and the elements it opens closed after it, so that every chunk is a well-formed document. At most two chunks
+ * per thread are parsed or waiting to be handed over at a time, so memory use does not grow with the file size.
+ * <p>
+ * The byte scan assumes that {@code <BioSample} followed by white space or '>' only occurs as a start tag, which
+ * holds unless it appears in a comment or CDATA section.
+ */
+public final class ParallelRecordParser implements Iterator<Record>, Closeable {
+  public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+  @Nonnull private static final byte[] START_TAG = "<BioSample".getBytes(StandardCharsets.US_ASCII);
+
+  @Nonnull private final FileChannel channel;
+  @Nonnull private final RecordProjection projection;
+  @Nullable private final ProgressTracker tracker;
+  private final int threads;
+  @Nonnull private final long[] boundaries;
+  @Nonnull private final byte[] prolog, epilog;
+  @Nonnull private final ExecutorService executor;
+  @Nonnull private final Deque<Future<List<Record>>> inFlight = new ArrayDeque<>();
+  @Nonnull private Iterator<Record> current = Collections.emptyIterator();
+  private int nextChunk = 0;
+
+  public ParallelRecordParser(@Nonnull File input, @Nonnull RecordProjection projection, int threads, int chunkSize,
+                              @Nullable ProgressTracker tracker) throws IOException {
+    checkNotNull(input);
+    checkArgument(threads > 0, "Number of threads must be positive");
+    checkArgument(chunkSize > 0, "Chunk size must be positive");
+    this.projection = checkNotNull(projection);
+    this.tracker = tracker;
+    this.threads = threads;
+    this.channel = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+    try {
+      this.boundaries = getChunkBoundaries(channel, chunkSize);
+      this.prolog = (boundaries.length > 1 ? read(channel, 0, (int) boundaries[0]) : new byte[0]);
+      this.epilog = getEpilog(prolog);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    this.executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, boundaries.length - 1)), r -> {
+      Thread thread = new Thread(r, "record-parser");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public ParallelRecordParser(@Nonnull File input, @Nonnull RecordProjection projection, int threads)
+      throws IOException {
+    this(input, projection, threads, DEFAULT_CHUNK_SIZE, null);
+  }
+
+  @Override
+  public boolean hasNext() {
+    while(!current.hasNext()) {
+      while(nextChunk < boundaries.length - 1 && inFlight.size() < 2 * threads) {
+        int chunk = nextChunk++;
+        inFlight.add(executor.submit(() -> parse(chunk)));
+      }
+      if(inFlight.isEmpty()) {
+        return false;
+      }
+      current = get(inFlight.poll()).iterator();
+    }
+    return true;
+  }
+
+  @Override
+  @Nonnull
+  public Record next() {
+    if(!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return current.next();
+  }
+
+  @Nonnull
+  private List<Record> parse(int chunk) throws IOException {
+    long start = boundaries[chunk], end = boundaries[chunk + 1];
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    List<InputStream> parts = new ArrayList<>(3);
+    parts.add(new ByteArrayInputStream(prolog));
+    parts.add(new ByteBufferInputStream(buffer));
+    if(chunk < boundaries.length - 2) {
+      // the last chunk closes the elements of the prolog itself
+      parts.add(new ByteArrayInputStream(epilog));
+    }
+    List<Record> records = new ArrayList<>();
+    try (RecordStreamParser parser = new RecordStreamParser(new SequenceInputStream(
+        Collections.enumeration(parts)), projection)) {
+      while(parser.hasNext()) {
+        records.add(parser.next());
+      }
+    } catch (IllegalStateException e) {
+      throw new IllegalStateException("Malformed BioSample XML between bytes " + start + " and " + end, e);
+    }
+    if(tracker != null) {
+      tracker.addUnits(end - start + (chunk == 0 ? prolog.length : 0));
+    }
+    return records;
+  }
+
+  @Nonnull
+  private static List<Record> get(@Nonnull Future<List<Record>> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while parsing records", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof IOException) {
+        throw new UncheckedIOException((IOException) cause);
+      } else if(cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /*
+   * The offset of the first record, the start offsets of the chunks after the first, and the file size. Each chunk
+   * boundary is moved forward to the next record start tag at or after its nominal offset
+   */
+  @Nonnull
+  private static long[] getChunkBoundaries(@Nonnull FileChannel channel, int chunkSize) throws IOException {
+    long size = channel.size();
+    List<Long> boundaries = new ArrayList<>();
+    long first = findStartTag(channel, 0);
+    if(first == -1) {
+      return new long[]{size};
+    }
+    boundaries.add(first);
+    long position = first;
+    while(position + chunkSize < size) {
+      long boundary = findStartTag(channel, position + chunkSize);
+      if(boundary == -1) {
+        break;
+      }
+      boundaries.add(boundary);
+      position = boundary;
+    }
+    boundaries.add(size);
+    long[] result = new long[boundaries.size()];
+    for(int i = 0; i < result.length; i++) {
+      result[i] = boundaries.get(i);
+    }
+    return result;
+  }
+
+  /* Find the offset of the first record start tag at or after the given offset, or -1 if there is none */
+  private static long findStartTag(@Nonnull FileChannel channel, long from) throws IOException {
+    ByteBuffer probe = ByteBuffer.allocate(1 << 16);
+    long position = from;
+    while(true) {
+      probe.clear();
+      int read = channel.read(probe, position);
+      if(read <= START_TAG.length) {
+        return -1;
+      }
+      byte[] bytes = probe.array();
+      for(int i = 0; i + START_TAG.length < read; i++) {
+        if(bytes[i] == '<' && isStartTag(bytes, i)) {
+          return position + i;
+        }
+      }
+      // keep the bytes of a tag that straddles the end of the probe
+      position += read - START_TAG.length;
+    }
+  }
+
+  private static boolean isStartTag(@Nonnull byte[] bytes, int offset) {
+    for(int i = 1; i < START_TAG.length; i++) {
+      if(bytes[offset + i] != START_TAG[i]) {
+        return false;
+      }
+    }
+    byte next = bytes[offset + START_TAG.length];
+    return next == ' ' || next == '>' || next == '\t' || next == '\n' || next == '\r';
+  }
+
+  @Nonnull
+  private static byte[] read(@Nonnull FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while(buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) != -1) {
+      // keep reading
+    }
+    return buffer.array();
+  }
+
+  /* End tags for the elements that the prolog leaves open, innermost first */
+  @Nonnull
+  private static byte[] getEpilog(@Nonnull byte[] prolog) {
+    String text = new String(prolog, StandardCharsets.UTF_8);
+    Deque<String> open = new ArrayDeque<>();
+    int i = text.indexOf('<');
+    while(i != -1 && i + 1 < text.length()) {
+      char c = text.charAt(i + 1);
+      int end = text.indexOf('>', i);
+      if(end == -1) {
+        break;
+      }
+      if(c == '/') {
+        open.poll();
+      } else if(c != '?' && c != '!' && text.charAt(end - 1) != '/') {
+        int nameEnd = i + 1;
+        while(nameEnd < end && !Character.isWhitespace(text.charAt(nameEnd))) {
+          nameEnd++;
+        }
+        open.push(text.substring(i + 1, nameEnd));
+      }
+      i = text.indexOf('<', end);
+    }
+    StringBuilder epilog = new StringBuilder();
+    for(String name : open) {
+      epilog.append("</").append(name).append('>');
+    }
+    return epilog.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() throws IOException {
+    executor.shutdownNow();
+    inFlight.clear();
+    channel.close();
+  }
+
+  /**
+   * Reads a memory-mapped chunk without copying it
+   */
+  private static final class ByteBufferInputStream extends InputStream {
+    @Nonnull private final ByteBuffer buffer;
+
+    ByteBufferInputStream(@Nonnull ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return (buffer.hasRemaining() ? buffer.get() & 0xff : -1);
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) {
+      if(!buffer.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
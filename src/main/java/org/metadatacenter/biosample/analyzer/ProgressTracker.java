@@ -0,0 +1,154 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Tracks progress of a (possibly streaming) run and logs it at a fixed interval from a background thread.
+ * Progress is measured in work units whose total is known up front, typically input bytes consumed out of the file
+ * size, since the number of records in a stream is not known until it has been read. Processed records are counted
+ * separately to report throughput. All updates are lock-free and may come from any number of threads.
+ */
+public final class ProgressTracker implements Closeable {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(ProgressTracker.class.getName());
+  private static final double EWMA_WINDOW_SECS = 60.0;
+  @Nonnull private final LongAdder unitsDone = new LongAdder();
+  @Nonnull private final LongAdder recordsDone = new LongAdder();
+  @Nonnull private final ScheduledExecutorService scheduler;
+  @Nonnull private final String label;
+  private final long totalUnits;
+  private final long startNanos;
+  private final double alpha;
+  // only touched by the reporter thread
+  private long lastUnits = 0, lastRecords = 0, lastNanos;
+  private double unitRate = -1, recordRate = -1;
+
+  /**
+   * @param totalUnits      Total amount of work units (e.g. input bytes), or 0 if unknown
+   * @param intervalSeconds Seconds between progress log lines
+   */
+  public ProgressTracker(long totalUnits, long intervalSeconds) {
+    this("", totalUnits, intervalSeconds);
+  }
+
+  /**
+   * @param label           Prefix for progress log lines, to tell apart concurrent runs
+   * @param totalUnits      Total amount of work units (e.g. input bytes), or 0 if unknown
+   * @param intervalSeconds Seconds between progress log lines
+   */
+  public ProgressTracker(@Nonnull String label, long totalUnits, long intervalSeconds) {
+    checkArgument(intervalSeconds > 0, "Reporting interval must be positive");
+    this.label = checkNotNull(label);
+    this.totalUnits = totalUnits;
+    this.alpha = 1 - Math.exp(-intervalSeconds / EWMA_WINDOW_SECS);
+    this.startNanos = System.nanoTime();
+    this.lastNanos = startNanos;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "progress-tracker");
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Wrap an input stream so that every byte read from it counts as one unit of progress
+   */
+  @Nonnull
+  public InputStream track(@Nonnull InputStream inputStream) {
+    checkNotNull(inputStream);
+    return new FilterInputStream(inputStream) {
+      @Override
+      public int read() throws IOException {
+        int b = super.read();
+        if(b >= 0) {
+          unitsDone.increment();
+        }
+        return b;
+      }
+
+      @Override
+      public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if(n > 0) {
+          unitsDone.add(n);
+        }
+        return n;
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        unitsDone.add(skipped);
+        return skipped;
+      }
+    };
+  }
+
+  public void addUnits(long units) {
+    unitsDone.add(units);
+  }
+
+  public void recordProcessed() {
+    recordsDone.increment();
+  }
+
+  public long getRecordsProcessed() {
+    return recordsDone.sum();
+  }
+
+  private void report() {
+    long now = System.nanoTime();
+    long units = unitsDone.sum();
+    long records = recordsDone.sum();
+    double secs = (now - lastNanos) / 1e9;
+    if(secs <= 0) {
+      return;
+    }
+    double instantUnitRate = (units - lastUnits) / secs;
+    double instantRecordRate = (records - lastRecords) / secs;
+    unitRate = (unitRate < 0 ? instantUnitRate : unitRate + alpha * (instantUnitRate - unitRate));
+    recordRate = (recordRate < 0 ? instantRecordRate : recordRate + alpha * (instantRecordRate - recordRate));
+    lastUnits = units;
+    lastRecords = records;
+    lastNanos = now;
+
+    StringBuilder sb = new StringBuilder("\t").append(label);
+    if(totalUnits > 0) {
+      sb.append(String.format("%.1f%%  ", Math.min(100.0, 100.0 * units / totalUnits)));
+    }
+    sb.append(String.format("(%,d records)  %,.0f records/s  (ewma %,.0f records/s)",
+        records, instantRecordRate, recordRate));
+    if(totalUnits > 0 && unitRate > 0) {
+      sb.append("  ETA ").append(formatDuration((long) ((totalUnits - Math.min(units, totalUnits)) / unitRate)));
+    }
+    logger.info(sb.toString());
+  }
+
+  @Nonnull
+  private static String formatDuration(long seconds) {
+    return String.format("%d:%02d:%02d", seconds / 3600, (seconds % 3600) / 60, seconds % 60);
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+    double secs = (System.nanoTime() - startNanos) / 1e9;
+    long records = recordsDone.sum();
+    logger.info(String.format("\t%s%,d records in %.1f secs (%,.0f records/s)", label, records, secs,
+        secs > 0 ? records / secs : 0));
+  }
+}
@@ -0,0 +1,160 @@
+package org.metadatacenter.biosample.analyzer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reads a stream ahead of its consumer on a separate thread, through a fixed ring of buffers. This lets expensive
+ * stream decoding, such as decompression, run concurrently with the code consuming the stream (e.g. the XML parser)
+ * while holding at most {@code buffers * bufferSize} bytes that have been read but not consumed.
+ */
+public final class ReadAheadInputStream extends InputStream {
+  public static final int DEFAULT_BUFFERS = 8;
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+  @Nonnull private final InputStream source;
+  @Nonnull private final BlockingQueue<byte[]> free;
+  @Nonnull private final BlockingQueue<Block> filled;
+  @Nonnull private final Thread reader;
+  @Nullable private Block current;
+  private int position = 0;
+  private volatile boolean closed = false;
+
+  public ReadAheadInputStream(@Nonnull InputStream source, int buffers, int bufferSize) {
+    checkArgument(buffers > 1, "At least two buffers are needed to read ahead");
+    checkArgument(bufferSize > 0, "Buffer size must be positive");
+    this.source = checkNotNull(source);
+    this.free = new ArrayBlockingQueue<>(buffers);
+    this.filled = new ArrayBlockingQueue<>(buffers + 1);
+    for(int i = 0; i < buffers; i++) {
+      free.add(new byte[bufferSize]);
+    }
+    this.reader = new Thread(this::readAhead, "read-ahead");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  public ReadAheadInputStream(@Nonnull InputStream source) {
+    this(source, DEFAULT_BUFFERS, DEFAULT_BUFFER_SIZE);
+  }
+
+  private void readAhead() {
+    try {
+      while(!closed) {
+        byte[] buffer = free.take();
+        int length = 0, read = 0;
+        while(length < buffer.length && (read = source.read(buffer, length, buffer.length - length)) != -1) {
+          length += read;
+        }
+        if(length > 0) {
+          filled.put(new Block(buffer, length, null));
+        }
+        if(read == -1) {
+          filled.put(Block.END);
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      // closed by the consumer
+    } catch (IOException | RuntimeException e) {
+      filled.offer(new Block(null, 0, e));
+    }
+  }
+
+  /*
+   * Make a block with unread bytes current, waiting for the reader thread if necessary. Returns false at the end
+   * of the stream
+   */
+  private boolean ensureAvailable() throws IOException {
+    if(current != null && position < current.length) {
+      return true;
+    }
+    if(current == Block.END) {
+      return false;
+    }
+    if(current != null) {
+      free.add(current.bytes);
+    }
+    try {
+      current = filled.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for input");
+    }
+    position = 0;
+    if(current.error != null) {
+      Exception error = current.error;
+      current = Block.END;
+      if(error instanceof IOException) {
+        throw (IOException) error;
+      }
+      throw new IOException(error);
+    }
+    return current != Block.END;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if(!ensureAvailable()) {
+      return -1;
+    }
+    return current.bytes[position++] & 0xFF;
+  }
+
+  @Override
+  public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+    if(len == 0) {
+      return 0;
+    }
+    if(!ensureAvailable()) {
+      return -1;
+    }
+    int n = Math.min(len, current.length - position);
+    System.arraycopy(current.bytes, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return (current != null && current != Block.END ? current.length - position : 0);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if(closed) {
+      return;
+    }
+    closed = true;
+    reader.interrupt();
+    try {
+      reader.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      source.close();
+    }
+  }
+
+  private static final class Block {
+    static final Block END = new Block(null, 0, null);
+
+    @Nullable final byte[] bytes;
+    final int length;
+    @Nullable final Exception error;
+
+    Block(@Nullable byte[] bytes, int length, @Nullable Exception error) {
+      this.bytes = bytes;
+      this.length = length;
+      this.error = error;
+    }
+  }
+}
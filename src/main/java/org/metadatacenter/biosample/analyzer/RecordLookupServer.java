@@ -0,0 +1,133 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An embedded HTTP server that serves records and their validation results from a {@link RecordStore}. Records are
+ * looked up by accession with {@code GET /records/SAMN00000001} or by numeric id with {@code GET /records?id=1},
+ * and are returned as JSON; unknown records get a 404 response. Lookups read straight from the memory-mapped store,
+ * so requests are served by a fixed pool of threads without any per-request parsing or allocation beyond the
+ * response itself.
+ */
+public final class RecordLookupServer {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(RecordLookupServer.class.getName());
+  private static final String RECORDS_PATH = "/records";
+  @Nonnull private static final byte[] NOT_FOUND = HttpServers.error("record not found");
+  @Nonnull private static final byte[] BAD_REQUEST =
+      HttpServers.error("expected /records/<accession> or /records?id=<id>");
+
+  @Nonnull private final RecordStore store;
+  @Nonnull private final HttpServer server;
+  @Nonnull private final ExecutorService executor;
+
+  /**
+   * @param store   Store to serve records from
+   * @param address Address to listen on. The server has no authentication, so anything but the loopback address
+   *                serves the records to other hosts
+   * @param port    Port to listen on, or 0 for any free port
+   * @param threads Number of threads that handle requests
+   */
+  public RecordLookupServer(@Nonnull RecordStore store, @Nonnull InetAddress address, int port, int threads)
+      throws IOException {
+    checkArgument(threads > 0, "Number of threads must be positive");
+    this.store = checkNotNull(store);
+    this.executor = HttpServers.newThreadPool(threads, "record-lookup");
+    this.server = HttpServers.create(address, port, executor);
+    server.createContext(RECORDS_PATH, this::handle);
+  }
+
+  /**
+   * Create a server that listens on the loopback address only
+   */
+  public RecordLookupServer(@Nonnull RecordStore store, int port, int threads) throws IOException {
+    this(store, InetAddress.getLoopbackAddress(), port, threads);
+  }
+
+  public void start() {
+    server.start();
+    logger.info("Serving " + store.getRecordCount() + " records on " + server.getAddress());
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  private void handle(@Nonnull HttpExchange exchange) throws IOException {
+    try {
+      if(!"GET".equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().set("Allow", "GET");
+        HttpServers.respond(exchange, 405, BAD_REQUEST);
+        return;
+      }
+      String path = exchange.getRequestURI().getRawPath();
+      String query = exchange.getRequestURI().getRawQuery();
+      Optional<byte[]> record;
+      if(path.length() > RECORDS_PATH.length() + 1 && path.charAt(RECORDS_PATH.length()) == '/') {
+        record = store.getByAccession(decode(path.substring(RECORDS_PATH.length() + 1)));
+      } else if(path.length() <= RECORDS_PATH.length() + 1 && query != null && query.startsWith("id=")) {
+        record = store.getById(decode(query.substring(3)));
+      } else {
+        HttpServers.respond(exchange, 400, BAD_REQUEST);
+        return;
+      }
+      if(record.isPresent()) {
+        HttpServers.respond(exchange, 200, record.get());
+      } else {
+        HttpServers.respond(exchange, 404, NOT_FOUND);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  @Nonnull
+  private static String decode(@Nonnull String s) throws IOException {
+    return URLDecoder.decode(s, StandardCharsets.UTF_8.name());
+  }
+
+  public static void main(String[] args) throws IOException, ParseException {
+    Options options = new Options();
+    options.addOption("s", true, "Record store file, written with the -store option of Main");
+    options.addOption("host", true, "Address to listen on, e.g. 0.0.0.0 for all interfaces. Default: loopback address");
+    options.addOption("p", true, "Port to listen on. Default 8080");
+    options.addOption("threads", true, "Number of request threads. Default: 2 x nr of cores");
+    CommandLineParser parser = new DefaultParser();
+    CommandLine cmd = parser.parse(options, args);
+    File storeFile = new File(cmd.getOptionValue("s"));
+    InetAddress address = (cmd.hasOption("host") ? InetAddress.getByName(cmd.getOptionValue("host")) :
+        InetAddress.getLoopbackAddress());
+    int port = Integer.parseInt(cmd.getOptionValue("p", "8080"));
+    int threads = Integer.parseInt(cmd.getOptionValue("threads",
+        String.valueOf(2 * Runtime.getRuntime().availableProcessors())));
+
+    RecordStore store = RecordStore.open(storeFile);
+    RecordLookupServer server = new RecordLookupServer(store, address, port, threads);
+    Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    server.start();
+  }
+}
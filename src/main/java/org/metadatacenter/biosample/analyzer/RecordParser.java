@@ -21,12 +21,18 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class RecordParser implements Parser {
   @Nonnull private static final Logger logger = LoggerFactory.getLogger(RecordParser.class.getName());
   @Nonnull private final Document document;
+  @Nonnull private final RecordProjection projection;
   @Nonnull private RecordBuilder recordBuilder;
   @Nonnull private List<Record> records = new ArrayList<>();
 
 
-  public RecordParser(@Nonnull Document document) {
+  public RecordParser(@Nonnull Document document, @Nonnull RecordProjection projection) {
     this.document = checkNotNull(document);
+    this.projection = checkNotNull(projection);
+  }
+
+  public RecordParser(@Nonnull Document document) {
+    this(document, RecordProjection.ALL);
   }
 
   public void processDocument() {
@@ -54,24 +60,25 @@ public class RecordParser implements Parser {
         .setSubmissionDate(element.getAttribute("submission_date"))
         .setId(element.getAttribute("id"))
         .setAccession(element.getAttribute("accession"));
+    projection.setSkippedFields(recordBuilder);
 
     NodeList children = element.getChildNodes();
     for(int i = 0; i < children.getLength(); i++) {
       Node child = children.item(i);
       String nodeName = child.getNodeName();
-      if(nodeName.equalsIgnoreCase("description")) {
+      if(nodeName.equalsIgnoreCase("description") && projection.includes(RecordProjection.Field.ORGANISM)) {
         getOrganismDescription((Element) child);
-      } else if(nodeName.equalsIgnoreCase("owner")) {
+      } else if(nodeName.equalsIgnoreCase("owner") && projection.includes(RecordProjection.Field.OWNER)) {
         getOwner((Element) child);
-      } else if(nodeName.equalsIgnoreCase("models")) {
+      } else if(nodeName.equalsIgnoreCase("models") && projection.includes(RecordProjection.Field.MODEL)) {
         getModel((Element) child);
-      } else if(nodeName.equalsIgnoreCase("package")) {
+      } else if(nodeName.equalsIgnoreCase("package") && projection.includes(RecordProjection.Field.PACKAGE)) {
         getPackage((Element) child);
-      } else if(nodeName.equalsIgnoreCase("attributes")) {
+      } else if(nodeName.equalsIgnoreCase("attributes") && projection.includesAttributes()) {
         getAttributes((Element) child);
-      } else if(nodeName.equalsIgnoreCase("status")) {
+      } else if(nodeName.equalsIgnoreCase("status") && projection.includes(RecordProjection.Field.STATUS)) {
         getStatus((Element) child);
-      } else if(nodeName.equalsIgnoreCase("links")) {
+      } else if(nodeName.equalsIgnoreCase("links") && projection.includes(RecordProjection.Field.LINKS)) {
         getLinks((Element) child);
       }
     }
@@ -138,7 +145,7 @@ public class RecordParser implements Parser {
         String label = child.getAttribute("label");
         String target = child.getAttribute("target");
         String value = child.getTextContent();
-        recordBuilder.addLink(type, label, target, value);
+        recordBuilder.addLink(type, target, label, value);
       }
     }
   }
@@ -149,8 +156,11 @@ public class RecordParser implements Parser {
       Node childNode = children.item(i);
       if(childNode.getNodeName().equalsIgnoreCase("attribute")) {
         Element child = (Element) childNode;
-        String name = child.getAttribute("attribute_name");
         String harmonizedName = child.getAttribute("harmonized_name");
+        if(!projection.includesAttribute(harmonizedName)) {
+          continue;
+        }
+        String name = child.getAttribute("attribute_name");
         String displayName = child.getAttribute("display_name");
         String value = child.getTextContent();
         if(!name.isEmpty() && !harmonizedName.isEmpty() && !displayName.isEmpty()) {
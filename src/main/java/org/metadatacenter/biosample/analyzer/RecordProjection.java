@@ -0,0 +1,193 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The parts of a BioSample record that an analysis needs. Parsers skip the XML subtrees of fields and attributes
+ * that are not included, without reading their text, and leave those fields empty in the records they build. The
+ * attributes of the BioSample element itself (id, accession, dates and access) are always read.
+ */
+@Immutable
+public final class RecordProjection {
+  /**
+   * Name that stands for the attributes listed in attributes.csv, when parsing a projection
+   */
+  public static final String SCHEMA = "schema";
+
+  @Nonnull public static final RecordProjection ALL = new RecordProjection(EnumSet.allOf(Field.class), null);
+
+  /**
+   * Record fields that are read from their own subtree of a BioSample element
+   */
+  public enum Field {
+    /** Organism name, taxonomy id and taxonomy name, from the Description element */
+    ORGANISM,
+    /** Owner name */
+    OWNER,
+    /** Model name */
+    MODEL,
+    /** Package name and display name */
+    PACKAGE,
+    /** Status and status date */
+    STATUS,
+    /** Links */
+    LINKS
+  }
+
+  @Nonnull private final ImmutableSet<Field> fields;
+  @Nullable private final ImmutableSet<String> attributeNames;
+
+  /**
+   * @param fields         Record fields to read
+   * @param attributeNames Harmonized names of the attributes to read, or null to read all attributes
+   */
+  public RecordProjection(@Nonnull Collection<Field> fields, @Nullable Collection<String> attributeNames) {
+    this.fields = Sets.immutableEnumSet(checkNotNull(fields));
+    this.attributeNames = (attributeNames != null ? ImmutableSet.copyOf(attributeNames) : null);
+  }
+
+  /**
+   * Get a projection with the given record fields and the attributes listed in attributes.csv, which are all the
+   * attributes that the {@link GenericValidator} checks
+   */
+  @Nonnull
+  public static RecordProjection ofSchema(@Nonnull Collection<Field> fields) {
+    return new RecordProjection(fields, BioSampleAttributes.getAttributeNames());
+  }
+
+  /**
+   * Parse a comma-separated list of record field names (e.g. "organism" or "package", in any case), attribute
+   * harmonized names, and {@link #SCHEMA} for all attributes listed in attributes.csv. For example
+   * "geo_loc_name,collection_date" reads only those two attributes, and "schema,organism,package" reads the
+   * attributes needed for validation plus the organism and package fields
+   */
+  @Nonnull
+  public static RecordProjection parse(@Nonnull String list) {
+    Set<Field> fields = EnumSet.noneOf(Field.class);
+    Set<String> attributeNames = new HashSet<>();
+    for(String name : checkNotNull(list).split(",")) {
+      name = name.trim();
+      if(name.isEmpty()) {
+        continue;
+      }
+      Field field = getField(name);
+      if(field != null) {
+        fields.add(field);
+      } else if(name.equalsIgnoreCase(SCHEMA)) {
+        attributeNames.addAll(BioSampleAttributes.getAttributeNames());
+      } else {
+        attributeNames.add(name);
+      }
+    }
+    return new RecordProjection(fields, attributeNames);
+  }
+
+  @Nullable
+  private static Field getField(@Nonnull String name) {
+    for(Field field : Field.values()) {
+      if(field.name().equals(name.toUpperCase(Locale.ROOT))) {
+        return field;
+      }
+    }
+    return null;
+  }
+
+  public boolean includes(@Nonnull Field field) {
+    return fields.contains(field);
+  }
+
+  /**
+   * Check whether the attribute with the given harmonized name is included
+   */
+  public boolean includesAttribute(@Nonnull String harmonizedName) {
+    return attributeNames == null || attributeNames.contains(harmonizedName);
+  }
+
+  /**
+   * Get those of the given attribute harmonized names that are not included, in the order given
+   */
+  @Nonnull
+  public Set<String> getExcludedAttributes(@Nonnull Collection<String> harmonizedNames) {
+    Set<String> excluded = new LinkedHashSet<>();
+    for(String name : checkNotNull(harmonizedNames)) {
+      if(!includesAttribute(name)) {
+        excluded.add(name);
+      }
+    }
+    return excluded;
+  }
+
+  /**
+   * Check whether any attribute is included
+   */
+  public boolean includesAttributes() {
+    return attributeNames == null || !attributeNames.isEmpty();
+  }
+
+  /**
+   * Set the record fields that this projection leaves out to the empty string, since parsers will not read them
+   */
+  void setSkippedFields(@Nonnull RecordBuilder recordBuilder) {
+    if(!includes(Field.ORGANISM)) {
+      recordBuilder.setOrganismTaxonomyId("").setOrganismTaxonomyName("").setOrganismName("");
+    }
+    if(!includes(Field.OWNER)) {
+      recordBuilder.setOwnerName("");
+    }
+    if(!includes(Field.MODEL)) {
+      recordBuilder.setModelName("");
+    }
+    if(!includes(Field.PACKAGE)) {
+      recordBuilder.setPackageDisplayName("").setPackageName("");
+    }
+    if(!includes(Field.STATUS)) {
+      recordBuilder.setStatus("").setStatusDate("");
+    }
+  }
+
+  @Nonnull
+  public Set<Field> getFields() {
+    return fields;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if(this == o) {
+      return true;
+    }
+    if(o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    RecordProjection that = (RecordProjection) o;
+    return Objects.equal(fields, that.fields) &&
+        Objects.equal(attributeNames, that.attributeNames);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(fields, attributeNames);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("fields", fields)
+        .add("attributeNames", (attributeNames != null ? attributeNames : "all"))
+        .toString();
+  }
+}
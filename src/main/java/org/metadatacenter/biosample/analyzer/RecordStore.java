@@ -0,0 +1,209 @@
+package org.metadatacenter.biosample.analyzer;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A read-only store of records and their validation results, written by a {@link RecordStoreSink}, that looks up
+ * records by accession or by numeric id. Records are stored as JSON documents sorted by accession, and the file is
+ * memory-mapped. Only a sparse index, holding every {@value #SPARSE_INTERVAL}th accession, is kept on the heap: an
+ * accession lookup is a binary search of the sparse index followed by a scan of at most {@value #SPARSE_INTERVAL}
+ * entries. Id lookups are a binary search of a sorted table of (id, ordinal) pairs. Lookups are thread-safe.
+ */
+public final class RecordStore {
+  static final int MAGIC = 0x42535253; // "BSRS"
+  static final int VERSION = 1;
+  static final int SPARSE_INTERVAL = 64;
+  // file sections, whose offsets follow the magic number, version, record count and sparse index size in the header
+  static final int DATA = 0, OFFSETS = 1, IDS = 2, SPARSE = 3, SECTIONS = 4;
+  static final int HEADER_SIZE = 4 * Integer.BYTES + (SECTIONS + 1) * Long.BYTES;
+  // the data section may exceed the 2GB limit of a mapped buffer, so it is mapped in segments
+  private static final long SEGMENT_SIZE = 1L << 30;
+
+  @Nonnull private final ByteBuffer[] data;
+  @Nonnull private final ByteBuffer offsets;
+  @Nonnull private final ByteBuffer ids;
+  @Nonnull private final String[] sparseAccessions;
+  @Nonnull private final int[] sparseOrdinals;
+  private final int recordCount;
+  private final int idCount;
+
+  private RecordStore(@Nonnull FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while(header.hasRemaining() && channel.read(header, header.position()) != -1) {
+      // keep reading
+    }
+    header.flip();
+    if(header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+      throw new IOException("Not a record store file");
+    }
+    int version = header.getInt();
+    if(version != VERSION) {
+      throw new IOException("Unsupported record store version: " + version);
+    }
+    this.recordCount = header.getInt();
+    int sparseCount = header.getInt();
+    long[] sections = new long[SECTIONS + 1];
+    for(int i = 0; i <= SECTIONS; i++) {
+      sections[i] = header.getLong();
+    }
+    long dataSize = sections[DATA + 1] - sections[DATA];
+    this.data = new ByteBuffer[(int) ((dataSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+    for(int i = 0; i < data.length; i++) {
+      long start = i * SEGMENT_SIZE;
+      data[i] = channel.map(FileChannel.MapMode.READ_ONLY, sections[DATA] + start,
+          Math.min(SEGMENT_SIZE, dataSize - start));
+    }
+    this.offsets = map(channel, sections, OFFSETS);
+    this.ids = map(channel, sections, IDS);
+    this.idCount = ids.capacity() / Long.BYTES;
+    ByteBuffer sparse = map(channel, sections, SPARSE);
+    this.sparseAccessions = new String[sparseCount];
+    this.sparseOrdinals = new int[sparseCount];
+    for(int i = 0; i < sparseCount; i++) {
+      byte[] accession = new byte[sparse.getShort() & 0xFFFF];
+      sparse.get(accession);
+      sparseAccessions[i] = new String(accession, StandardCharsets.UTF_8);
+      sparseOrdinals[i] = sparse.getInt();
+    }
+  }
+
+  /**
+   * Open the given store file
+   */
+  @Nonnull
+  public static RecordStore open(@Nonnull File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(checkNotNull(file).toPath(), StandardOpenOption.READ)) {
+      return new RecordStore(channel);
+    }
+  }
+
+  @Nonnull
+  private static ByteBuffer map(@Nonnull FileChannel channel, @Nonnull long[] sections, int section)
+      throws IOException {
+    long size = sections[section + 1] - sections[section];
+    if(size > Integer.MAX_VALUE) {
+      throw new IOException("Record store section exceeds the 2GB limit of a mapped buffer");
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, sections[section], size);
+  }
+
+  /*
+   * Get the given record id as a number that fits the (id, ordinal) table, or -1 if it is not one
+   */
+  static long parseId(@Nonnull String id) {
+    String trimmed = id.trim();
+    if(trimmed.isEmpty() || trimmed.length() > 10) {
+      return -1;
+    }
+    long value = 0;
+    for(int i = 0; i < trimmed.length(); i++) {
+      char c = trimmed.charAt(i);
+      if(c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return (value <= Integer.MAX_VALUE ? value : -1);
+  }
+
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Get the JSON document of the record with the given accession, if any
+   */
+  @Nonnull
+  public Optional<byte[]> getByAccession(@Nonnull String accession) {
+    String key = checkNotNull(accession).trim();
+    int block = Arrays.binarySearch(sparseAccessions, key);
+    if(block >= 0) {
+      return Optional.of(getJson(sparseOrdinals[block]));
+    }
+    block = -block - 2; // the last sampled accession before the key
+    if(block < 0) {
+      return Optional.empty();
+    }
+    int end = (block + 1 < sparseOrdinals.length ? sparseOrdinals[block + 1] : recordCount);
+    for(int ordinal = sparseOrdinals[block] + 1; ordinal < end; ordinal++) {
+      int c = getAccession(ordinal).compareTo(key);
+      if(c == 0) {
+        return Optional.of(getJson(ordinal));
+      } else if(c > 0) {
+        break;
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Get the JSON document of the record with the given numeric id, if any
+   */
+  @Nonnull
+  public Optional<byte[]> getById(@Nonnull String id) {
+    long key = parseId(checkNotNull(id));
+    if(key < 0) {
+      return Optional.empty();
+    }
+    int low = 0, high = idCount - 1;
+    while(low <= high) {
+      int mid = (low + high) >>> 1;
+      long entry = ids.getLong(mid * Long.BYTES);
+      long midId = entry >>> 32;
+      if(midId < key) {
+        low = mid + 1;
+      } else if(midId > key) {
+        high = mid - 1;
+      } else {
+        return Optional.of(getJson((int) entry));
+      }
+    }
+    return Optional.empty();
+  }
+
+  @Nonnull
+  private String getAccession(int ordinal) {
+    long offset = offsets.getLong(ordinal * Long.BYTES);
+    byte[] length = read(offset, 2);
+    int accessionLength = ((length[0] & 0xFF) << 8) | (length[1] & 0xFF);
+    return new String(read(offset + 2, accessionLength), StandardCharsets.UTF_8);
+  }
+
+  @Nonnull
+  private byte[] getJson(int ordinal) {
+    long offset = offsets.getLong(ordinal * Long.BYTES);
+    long end = offsets.getLong((ordinal + 1) * Long.BYTES);
+    byte[] length = read(offset, 2);
+    int accessionLength = ((length[0] & 0xFF) << 8) | (length[1] & 0xFF);
+    long jsonOffset = offset + 2 + accessionLength + Integer.BYTES;
+    return read(jsonOffset, (int) (end - jsonOffset));
+  }
+
+  /*
+   * Read bytes of the data section, which may span two segments
+   */
+  @Nonnull
+  private byte[] read(long offset, int length) {
+    byte[] bytes = new byte[length];
+    int copied = 0;
+    while(copied < length) {
+      long position = offset + copied;
+      ByteBuffer segment = data[(int) (position / SEGMENT_SIZE)].duplicate();
+      segment.position((int) (position % SEGMENT_SIZE));
+      int n = Math.min(length - copied, segment.remaining());
+      segment.get(bytes, copied, n);
+      copied += n;
+    }
+    return bytes;
+  }
+}
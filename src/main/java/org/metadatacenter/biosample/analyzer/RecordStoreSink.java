@@ -0,0 +1,313 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes records and their validation results to a {@link RecordStore} file, for serving lookups by accession or id
+ * (see {@link RecordLookupServer}). Each record is stored as a JSON document written by {@link ReportJson}. Records
+ * arrive in dump order and are sorted by accession with an external merge sort: they are buffered up to a memory
+ * budget, spilled to temporary files as sorted runs, and the runs are merged into the store when the sink is closed.
+ */
+public final class RecordStoreSink implements ReportSink {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(RecordStoreSink.class.getName());
+  public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+  // rough heap cost of a buffered entry besides its JSON bytes
+  private static final int ENTRY_OVERHEAD = 128;
+
+  @Nonnull private final File storeFile;
+  @Nonnull private final JsonFactory jsonFactory = new JsonFactory();
+  private final long memoryBudget;
+  @Nonnull private final List<Entry> buffer = new ArrayList<>();
+  @Nonnull private final List<File> runs = new ArrayList<>();
+  @Nullable private File runDirectory;
+  private long bufferedBytes = 0;
+
+  public RecordStoreSink(@Nonnull File storeFile, long memoryBudget) {
+    checkArgument(memoryBudget > 0, "Memory budget must be positive");
+    this.storeFile = checkNotNull(storeFile);
+    this.memoryBudget = memoryBudget;
+  }
+
+  public RecordStoreSink(@Nonnull File storeFile) {
+    this(storeFile, DEFAULT_MEMORY_BUDGET);
+  }
+
+  @Override
+  public void write(@Nonnull RecordValidationReport report, boolean isValid) {
+    checkNotNull(report);
+    Record record = report.getMetadataRecord();
+    try {
+      Entry entry = new Entry(record.getAccession(), record.getId(), toJson(report, isValid));
+      buffer.add(entry);
+      bufferedBytes += entry.json.length + ENTRY_OVERHEAD;
+      if(bufferedBytes >= memoryBudget) {
+        spill();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not store record " + record.getAccession(), e);
+    }
+  }
+
+  @Nonnull
+  private byte[] toJson(@Nonnull RecordValidationReport report, boolean isValid) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(2048);
+    try (JsonGenerator json = jsonFactory.createGenerator(bytes, JsonEncoding.UTF8)) {
+      ReportJson.write(json, report, isValid);
+    }
+    return bytes.toByteArray();
+  }
+
+  /*
+   * Write the buffered entries, sorted by accession, to a new run file
+   */
+  private void spill() throws IOException {
+    if(runDirectory == null) {
+      runDirectory = Files.createTempDirectory("record-store").toFile();
+    }
+    File run = new File(runDirectory, "run-" + runs.size());
+    buffer.sort(null);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+      for(Entry entry : buffer) {
+        entry.write(out);
+      }
+    }
+    runs.add(run);
+    logger.debug("Spilled " + buffer.size() + " records to " + run);
+    buffer.clear();
+    bufferedBytes = 0;
+  }
+
+  @Override
+  public void close() {
+    try {
+      long start = System.currentTimeMillis();
+      long count;
+      if(runs.isEmpty()) {
+        buffer.sort(null);
+        count = writeStore(new EntrySource() {
+          private int next = 0;
+
+          @Nullable
+          @Override
+          public Entry next() {
+            return (next < buffer.size() ? buffer.get(next++) : null);
+          }
+        });
+        buffer.clear();
+      } else {
+        if(!buffer.isEmpty()) {
+          spill();
+        }
+        count = mergeRuns();
+      }
+      logger.info("Stored " + count + " records in " + storeFile + " in " + (System.currentTimeMillis() - start)
+          + " ms");
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write record store " + storeFile, e);
+    } finally {
+      deleteRuns();
+    }
+  }
+
+  private long mergeRuns() throws IOException {
+    List<RunReader> readers = new ArrayList<>();
+    try {
+      PriorityQueue<RunReader> queue = new PriorityQueue<>((a, b) -> a.current.compareTo(b.current));
+      for(File run : runs) {
+        RunReader reader = new RunReader(run);
+        readers.add(reader);
+        if(reader.advance()) {
+          queue.add(reader);
+        }
+      }
+      return writeStore(() -> {
+        RunReader reader = queue.poll();
+        if(reader == null) {
+          return null;
+        }
+        Entry entry = reader.current;
+        if(reader.advance()) {
+          queue.add(reader);
+        }
+        return entry;
+      });
+    } finally {
+      for(RunReader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  /*
+   * Write the store file from entries sorted by accession. See RecordStore for the layout
+   */
+  private long writeStore(@Nonnull EntrySource entries) throws IOException {
+    File offsetsFile = File.createTempFile("record-store", ".offsets");
+    long[] ids = new long[1024];
+    int idCount = 0;
+    List<Entry> sparse = new ArrayList<>();
+    List<Integer> sparseOrdinals = new ArrayList<>();
+    long[] sections = new long[RecordStore.SECTIONS + 1];
+    int count = 0;
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(storeFile),
+          1 << 16));
+           DataOutputStream offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsFile),
+               1 << 16))) {
+        out.write(new byte[RecordStore.HEADER_SIZE]);
+        long position = RecordStore.HEADER_SIZE;
+        sections[RecordStore.DATA] = position;
+        Entry entry;
+        while((entry = entries.next()) != null) {
+          offsets.writeLong(position - sections[RecordStore.DATA]);
+          if(count % RecordStore.SPARSE_INTERVAL == 0) {
+            sparse.add(new Entry(entry.accession, "", new byte[0]));
+            sparseOrdinals.add(count);
+          }
+          long id = RecordStore.parseId(entry.id);
+          if(id >= 0) {
+            if(idCount == ids.length) {
+              ids = Arrays.copyOf(ids, ids.length * 2);
+            }
+            ids[idCount++] = (id << 32) | count;
+          }
+          byte[] accession = entry.accession.getBytes(StandardCharsets.UTF_8);
+          out.writeShort(accession.length);
+          out.write(accession);
+          out.writeInt(entry.json.length);
+          out.write(entry.json);
+          position += 2 + accession.length + 4 + entry.json.length;
+          count++;
+        }
+        offsets.writeLong(position - sections[RecordStore.DATA]);
+        sections[RecordStore.OFFSETS] = position;
+        // the stream is closed with the others; flushing it is enough for the copy to see all the offsets
+        offsets.flush();
+        Files.copy(offsetsFile.toPath(), out);
+        position += 8L * (count + 1);
+        sections[RecordStore.IDS] = position;
+        Arrays.sort(ids, 0, idCount);
+        for(int i = 0; i < idCount; i++) {
+          out.writeLong(ids[i]);
+        }
+        position += 8L * idCount;
+        sections[RecordStore.SPARSE] = position;
+        for(int i = 0; i < sparse.size(); i++) {
+          byte[] accession = sparse.get(i).accession.getBytes(StandardCharsets.UTF_8);
+          out.writeShort(accession.length);
+          out.write(accession);
+          out.writeInt(sparseOrdinals.get(i));
+          position += 2 + accession.length + 4;
+        }
+        sections[RecordStore.SECTIONS] = position;
+      }
+      try (RandomAccessFile file = new RandomAccessFile(storeFile, "rw")) {
+        file.writeInt(RecordStore.MAGIC);
+        file.writeInt(RecordStore.VERSION);
+        file.writeInt(count);
+        file.writeInt(sparse.size());
+        for(long section : sections) {
+          file.writeLong(section);
+        }
+      }
+    } finally {
+      offsetsFile.delete();
+    }
+    return count;
+  }
+
+  private void deleteRuns() {
+    for(File run : runs) {
+      run.delete();
+    }
+    runs.clear();
+    if(runDirectory != null) {
+      runDirectory.delete();
+    }
+  }
+
+  private interface EntrySource {
+    @Nullable
+    Entry next() throws IOException;
+  }
+
+  private static final class Entry implements Comparable<Entry> {
+    @Nonnull final String accession;
+    @Nonnull final String id;
+    @Nonnull final byte[] json;
+
+    Entry(@Nonnull String accession, @Nonnull String id, @Nonnull byte[] json) {
+      this.accession = accession;
+      this.id = id;
+      this.json = json;
+    }
+
+    void write(@Nonnull DataOutputStream out) throws IOException {
+      out.writeUTF(accession);
+      out.writeUTF(id);
+      out.writeInt(json.length);
+      out.write(json);
+    }
+
+    @Override
+    public int compareTo(@Nonnull Entry o) {
+      return accession.compareTo(o.accession);
+    }
+  }
+
+  private static final class RunReader {
+    @Nonnull private final DataInputStream in;
+    Entry current;
+
+    RunReader(@Nonnull File run) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+    }
+
+    boolean advance() throws IOException {
+      String accession;
+      try {
+        accession = in.readUTF();
+      } catch (EOFException e) {
+        current = null;
+        return false;
+      }
+      String id = in.readUTF();
+      byte[] json = new byte[in.readInt()];
+      in.readFully(json);
+      current = new Entry(accession, id, json);
+      return true;
+    }
+
+    void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,291 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A streaming counterpart of {@link RecordParser}. Records are read one at a time from a StAX reader instead of
+ * from a fully materialized DOM, so a dump of any size can be processed in constant memory. Element handling
+ * mirrors {@link RecordParser#processBioSample}, including skipping records that cannot be built. Given a
+ * {@link RecordProjection}, the subtrees of fields and attributes that are not needed are skipped without reading
+ * their text, and the skipped fields are left empty.
+ */
+public class RecordStreamParser implements Iterator<Record>, Closeable {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(RecordStreamParser.class.getName());
+  @Nonnull private final InputStream inputStream;
+  @Nonnull private final XMLStreamReader reader;
+  @Nonnull private final RecordProjection projection;
+  @Nonnull private final Metrics.Counter parsedCounter = Metrics.counter("records.parsed");
+  @Nonnull private RecordBuilder recordBuilder = new RecordBuilder();
+  @Nullable private Record next;
+  private boolean finished = false;
+
+  public RecordStreamParser(@Nonnull InputStream inputStream, @Nonnull RecordProjection projection)
+      throws IOException {
+    this.inputStream = checkNotNull(inputStream);
+    this.projection = checkNotNull(projection);
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    try {
+      this.reader = factory.createXMLStreamReader(inputStream);
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+  }
+
+  public RecordStreamParser(@Nonnull InputStream inputStream) throws IOException {
+    this(inputStream, RecordProjection.ALL);
+  }
+
+  @Override
+  public boolean hasNext() {
+    while(next == null && !finished) {
+      try {
+        next = readNextRecord();
+      } catch (XMLStreamException e) {
+        throw new IllegalStateException("Malformed BioSample XML at " + reader.getLocation(), e);
+      }
+    }
+    return next != null;
+  }
+
+  @Override
+  @Nonnull
+  public Record next() {
+    if(!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Record record = next;
+    next = null;
+    return record;
+  }
+
+  /* Advance to the next BioSample element and parse it. Returns null if the record could not be built */
+  @Nullable
+  private Record readNextRecord() throws XMLStreamException {
+    while(reader.hasNext()) {
+      if(reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("BioSample")) {
+        recordBuilder = new RecordBuilder();
+        Record record = null;
+        try {
+          record = processBioSample();
+          parsedCounter.increment();
+        } catch(XMLStreamException e) {
+          throw e;
+        } catch(Exception e) {
+          e.printStackTrace();
+          logger.debug("Failing record at: " + reader.getLocation());
+        }
+        return record;
+      }
+    }
+    finished = true;
+    return null;
+  }
+
+  @Nonnull
+  private Record processBioSample() throws XMLStreamException {
+    recordBuilder.setAccess(attribute("access"))
+        .setPublicationDate(attribute("publication_date"))
+        .setLastUpdate(attribute("last_update"))
+        .setSubmissionDate(attribute("submission_date"))
+        .setId(attribute("id"))
+        .setAccession(attribute("accession"));
+    projection.setSkippedFields(recordBuilder);
+
+    while(nextChildElement()) {
+      String nodeName = reader.getLocalName();
+      if(nodeName.equalsIgnoreCase("description") && projection.includes(RecordProjection.Field.ORGANISM)) {
+        getOrganismDescription();
+      } else if(nodeName.equalsIgnoreCase("owner") && projection.includes(RecordProjection.Field.OWNER)) {
+        getOwner();
+      } else if(nodeName.equalsIgnoreCase("models") && projection.includes(RecordProjection.Field.MODEL)) {
+        getModel();
+      } else if(nodeName.equalsIgnoreCase("package") && projection.includes(RecordProjection.Field.PACKAGE)) {
+        getPackage();
+      } else if(nodeName.equalsIgnoreCase("attributes") && projection.includesAttributes()) {
+        getAttributes();
+      } else if(nodeName.equalsIgnoreCase("status") && projection.includes(RecordProjection.Field.STATUS)) {
+        getStatus();
+      } else if(nodeName.equalsIgnoreCase("links") && projection.includes(RecordProjection.Field.LINKS)) {
+        getLinks();
+      } else {
+        skipElement();
+      }
+    }
+    return recordBuilder.build();
+  }
+
+  private void getOrganismDescription() throws XMLStreamException {
+    while(nextChildElement()) {
+      if(reader.getLocalName().equalsIgnoreCase("organism")) {
+        recordBuilder.setOrganismTaxonomyId(attribute("taxonomy_id"))
+            .setOrganismTaxonomyName(attribute("taxonomy_name"));
+        while(nextChildElement()) {
+          if(reader.getLocalName().equalsIgnoreCase("OrganismName")) {
+            recordBuilder.setOrganismName(readText());
+          } else {
+            skipElement();
+          }
+        }
+      } else {
+        skipElement();
+      }
+    }
+  }
+
+  private void getOwner() throws XMLStreamException {
+    while(nextChildElement()) {
+      if(reader.getLocalName().equalsIgnoreCase("name")) {
+        recordBuilder.setOwnerName(readText());
+      } else {
+        skipElement();
+      }
+    }
+  }
+
+  private void getModel() throws XMLStreamException {
+    while(nextChildElement()) {
+      if(reader.getLocalName().equalsIgnoreCase("model")) {
+        recordBuilder.setModelName(readText());
+      } else {
+        skipElement();
+      }
+    }
+  }
+
+  private void getPackage() throws XMLStreamException {
+    recordBuilder.setPackageDisplayName(attribute("display_name"))
+        .setPackageName(readText());
+  }
+
+  private void getStatus() throws XMLStreamException {
+    recordBuilder.setStatus(attribute("status"))
+        .setStatusDate(attribute("when"));
+    skipElement();
+  }
+
+  private void getLinks() throws XMLStreamException {
+    while(nextChildElement()) {
+      if(reader.getLocalName().equalsIgnoreCase("link")) {
+        String type = attribute("type");
+        String label = attribute("label");
+        String target = attribute("target");
+        String value = readText();
+        recordBuilder.addLink(type, target, label, value);
+      } else {
+        skipElement();
+      }
+    }
+  }
+
+  private void getAttributes() throws XMLStreamException {
+    while(nextChildElement()) {
+      if(reader.getLocalName().equalsIgnoreCase("attribute")) {
+        String harmonizedName = attribute("harmonized_name");
+        if(!projection.includesAttribute(harmonizedName)) {
+          skipElement();
+          continue;
+        }
+        String name = attribute("attribute_name");
+        String displayName = attribute("display_name");
+        String value = readText();
+        if(!name.isEmpty() && !harmonizedName.isEmpty() && !displayName.isEmpty()) {
+          recordBuilder.addAttribute(harmonizedName, name, displayName, value);
+        }
+      } else {
+        skipElement();
+      }
+    }
+  }
+
+  /* Get an attribute of the current element, or the empty string if absent (as Element.getAttribute does) */
+  @Nonnull
+  private String attribute(@Nonnull String name) {
+    String value = reader.getAttributeValue(null, name);
+    return value != null ? value : "";
+  }
+
+  /*
+   * Move to the next child element of the current element. Returns false, positioned on the end tag of the
+   * current element, when there are no more children.
+   */
+  private boolean nextChildElement() throws XMLStreamException {
+    while(reader.hasNext()) {
+      int event = reader.next();
+      if(event == XMLStreamConstants.START_ELEMENT) {
+        return true;
+      } else if(event == XMLStreamConstants.END_ELEMENT) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /* Concatenate all text inside the current element, as Node.getTextContent does, and move to its end tag */
+  @Nonnull
+  private String readText() throws XMLStreamException {
+    StringBuilder sb = null;
+    String text = "";
+    int depth = 1;
+    while(depth > 0) {
+      int event = reader.next();
+      if(event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+          || event == XMLStreamConstants.SPACE) {
+        if(text.isEmpty() && sb == null) {
+          text = reader.getText();
+        } else {
+          if(sb == null) {
+            sb = new StringBuilder(text);
+          }
+          sb.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        }
+      } else if(event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if(event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+    return sb != null ? sb.toString() : text;
+  }
+
+  /* Skip the current element and all its descendants, leaving the reader on its end tag */
+  private void skipElement() throws XMLStreamException {
+    int depth = 1;
+    while(depth > 0) {
+      int event = reader.next();
+      if(event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if(event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      reader.close();
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    } finally {
+      inputStream.close();
+    }
+  }
+}
@@ -5,12 +5,21 @@ import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
+ * The validation results of one record, one per attribute of a {@link ReportLayout}. The results are kept compactly:
+ * bitsets, indexed by attribute id, of which attributes the record has, which are filled in and which have a valid
+ * format, plus the match value and suggestion of only the attributes the record has. Missing attributes, usually
+ * most of them, take no space beyond their bits. {@link #getAttributeGroupValidationReports()} builds the
+ * group-by-group view on demand, while the per-attribute accessors read the bitsets directly.
+ *
  * @author Rafael Gonçalves <br>
  * Center for Biomedical Informatics Research <br>
  * Stanford University
@@ -18,12 +27,67 @@ import static com.google.common.base.Preconditions.checkNotNull;
 @Immutable
 public final class RecordValidationReport {
   @Nonnull private final Record record;
-  @Nonnull private final List<AttributeGroupValidationReport> attributeGroupValidationReports;
+  @Nonnull private final ReportLayout layout;
+  @Nonnull private final long[] present, filledIn, validFormat;
+  // indexed by the rank of an attribute among those the record has
+  @Nonnull private final String[] matchValues;
+  @Nullable private final String[] suggestions;
+  // the group reports given to the public constructor, if the report was built from them
+  @Nullable private final List<AttributeGroupValidationReport> attributeGroupValidationReports;
+  @Nullable private final AttributeValidationReport[] reports;
 
   public RecordValidationReport(@Nonnull Record record,
                                 @Nonnull List<AttributeGroupValidationReport> attributeGroupValidationReports) {
     this.record = checkNotNull(record);
     this.attributeGroupValidationReports = ImmutableList.copyOf(checkNotNull(attributeGroupValidationReports));
+    this.layout = ReportLayout.of(this.attributeGroupValidationReports);
+    this.reports = new AttributeValidationReport[layout.getAttributeCount()];
+    int words = words(layout.getAttributeCount());
+    this.present = new long[words];
+    this.filledIn = new long[words];
+    this.validFormat = new long[words];
+    int id = 0;
+    for(AttributeGroupValidationReport group : this.attributeGroupValidationReports) {
+      for(AttributeValidationReport report : group.getValidationReports()) {
+        reports[id] = report;
+        set(present, id);
+        if(report.isFilledIn()) {
+          set(filledIn, id);
+        }
+        if(report.isValidFormat()) {
+          set(validFormat, id);
+        }
+        id++;
+      }
+    }
+    this.matchValues = new String[0];
+    this.suggestions = null;
+  }
+
+  RecordValidationReport(@Nonnull Record record, @Nonnull ReportLayout layout, @Nonnull long[] present,
+                         @Nonnull long[] filledIn, @Nonnull long[] validFormat, @Nonnull String[] matchValues,
+                         @Nullable String[] suggestions) {
+    this.record = checkNotNull(record);
+    this.layout = checkNotNull(layout);
+    this.present = checkNotNull(present);
+    this.filledIn = checkNotNull(filledIn);
+    this.validFormat = checkNotNull(validFormat);
+    this.matchValues = checkNotNull(matchValues);
+    this.suggestions = suggestions;
+    this.attributeGroupValidationReports = null;
+    this.reports = null;
+  }
+
+  static int words(int bits) {
+    return (bits + 63) >>> 6;
+  }
+
+  static void set(@Nonnull long[] bits, int index) {
+    bits[index >>> 6] |= 1L << index;
+  }
+
+  private static boolean get(@Nonnull long[] bits, int index) {
+    return (bits[index >>> 6] & (1L << index)) != 0;
   }
 
   @Nonnull
@@ -31,9 +95,136 @@ public final class RecordValidationReport {
     return record;
   }
 
+  @Nonnull
+  public ReportLayout getLayout() {
+    return layout;
+  }
+
+  /**
+   * Get the reports of each group of attributes. Unless the report was built from them, these are put together on
+   * each call; code that goes through many reports should prefer the per-attribute accessors
+   */
   @Nonnull
   public List<AttributeGroupValidationReport> getAttributeGroupValidationReports() {
-    return attributeGroupValidationReports;
+    if(attributeGroupValidationReports != null) {
+      return attributeGroupValidationReports;
+    }
+    List<AttributeGroupValidationReport> groups = new ArrayList<>(layout.getGroupCount());
+    for(int g = 0; g < layout.getGroupCount(); g++) {
+      List<AttributeValidationReport> reports = new ArrayList<>(layout.getGroupEnd(g) - layout.getGroupStart(g));
+      for(int id = layout.getGroupStart(g); id < layout.getGroupEnd(g); id++) {
+        reports.add(getAttributeValidationReport(id));
+      }
+      groups.add(new AttributeGroupValidationReport(layout.getGroupName(g), reports));
+    }
+    return groups;
+  }
+
+  /**
+   * Get the report of the attribute with the given id
+   */
+  @Nonnull
+  public AttributeValidationReport getAttributeValidationReport(int id) {
+    if(reports != null) {
+      return reports[id];
+    }
+    if(!get(present, id)) {
+      return layout.getMissingReport(id);
+    }
+    return new AttributeValidationReport(getAttribute(id), isFilledIn(id), isValidFormat(id), getMatchValue(id),
+        getSuggestion(id));
+  }
+
+  /**
+   * Get the attribute with the given id as the record has it, or, if the record does not have it, an attribute with
+   * that name and an empty value
+   */
+  @Nonnull
+  public Attribute getAttribute(int id) {
+    if(reports != null) {
+      return reports[id].getAttribute();
+    }
+    if(!get(present, id)) {
+      return layout.getMissingReport(id).getAttribute();
+    }
+    return record.getAttributes().get(layout.getAttributeName(id));
+  }
+
+  public boolean isFilledIn(int id) {
+    return get(filledIn, id);
+  }
+
+  public boolean isValidFormat(int id) {
+    return get(validFormat, id);
+  }
+
+  public boolean isValid(int id) {
+    return !isFilledIn(id) || isValidFormat(id);
+  }
+
+  @Nonnull
+  public Optional<String> getMatchValue(int id) {
+    if(reports != null) {
+      return reports[id].getMatchValue();
+    }
+    return (get(present, id) ? Optional.ofNullable(matchValues[rank(id)]) : Optional.empty());
+  }
+
+  @Nonnull
+  public Optional<String> getSuggestion(int id) {
+    if(reports != null) {
+      return reports[id].getSuggestion();
+    }
+    if(suggestions == null || !get(present, id)) {
+      return Optional.empty();
+    }
+    int rank = rank(id);
+    return (rank < suggestions.length ? Optional.ofNullable(suggestions[rank]) : Optional.empty());
+  }
+
+  /**
+   * Get the number of attributes the record has below the given id
+   */
+  private int rank(int id) {
+    int word = id >>> 6, rank = 0;
+    for(int w = 0; w < word; w++) {
+      rank += Long.bitCount(present[w]);
+    }
+    return rank + Long.bitCount(present[word] & ((1L << id) - 1));
+  }
+
+  /**
+   * Check whether every attribute that is filled in has a valid format
+   */
+  public boolean isValid() {
+    for(int w = 0; w < filledIn.length; w++) {
+      if((filledIn[w] & ~validFormat[w]) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the number of attributes that are filled in
+   */
+  public int getFilledInCount() {
+    int count = 0;
+    for(long word : filledIn) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+
+  /**
+   * Get the number of attributes that are filled in but do not have a valid format
+   */
+  public int getInvalidCount() {
+    int count = 0;
+    for(int w = 0; w < filledIn.length; w++) {
+      count += Long.bitCount(filledIn[w] & ~validFormat[w]);
+    }
+    return count;
   }
 
   @Override
@@ -46,19 +237,19 @@ public final class RecordValidationReport {
     }
     RecordValidationReport that = (RecordValidationReport) o;
     return Objects.equal(record, that.record) &&
-        Objects.equal(attributeGroupValidationReports, that.attributeGroupValidationReports);
+        Objects.equal(getAttributeGroupValidationReports(), that.getAttributeGroupValidationReports());
   }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(record, attributeGroupValidationReports);
+    return Objects.hashCode(record, getAttributeGroupValidationReports());
   }
 
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this)
         .add("bioSampleRecord", record)
-        .add("attributeGroupValidationReports", attributeGroupValidationReports)
+        .add("attributeGroupValidationReports", getAttributeGroupValidationReports())
         .toString();
   }
 }
@@ -0,0 +1,66 @@
+package org.metadatacenter.biosample.analyzer;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Builds a {@link RecordValidationReport} from the reports of the attributes a record has, added in increasing
+ * order of attribute id; every attribute that is not added is reported as missing. A builder builds one report.
+ */
+public class RecordValidationReportBuilder {
+  @Nonnull private final Record record;
+  @Nonnull private final ReportLayout layout;
+  @Nonnull private final long[] present, filledIn, validFormat;
+  @Nonnull private String[] matchValues;
+  private String[] suggestions;
+  private int size, lastId = -1;
+  private boolean built;
+
+  public RecordValidationReportBuilder(@Nonnull Record record, @Nonnull ReportLayout layout) {
+    this.record = checkNotNull(record);
+    this.layout = checkNotNull(layout);
+    int words = RecordValidationReport.words(layout.getAttributeCount());
+    this.present = new long[words];
+    this.filledIn = new long[words];
+    this.validFormat = new long[words];
+    this.matchValues = new String[Math.min(record.getAttributes().size(), layout.getAttributeCount())];
+  }
+
+  public RecordValidationReportBuilder add(int id, @Nonnull AttributeValidationReport report) {
+    checkState(!built, "Report already built");
+    checkArgument(id > lastId && id < layout.getAttributeCount(), "Attribute ids must increase: " + id);
+    checkNotNull(report);
+    lastId = id;
+    RecordValidationReport.set(present, id);
+    if(report.isFilledIn()) {
+      RecordValidationReport.set(filledIn, id);
+    }
+    if(report.isValidFormat()) {
+      RecordValidationReport.set(validFormat, id);
+    }
+    if(size == matchValues.length) {
+      matchValues = Arrays.copyOf(matchValues, Math.max(4, size * 2));
+    }
+    matchValues[size] = report.getMatchValue().orElse(null);
+    if(report.getSuggestion().isPresent()) {
+      if(suggestions == null) {
+        suggestions = new String[matchValues.length];
+      } else if(suggestions.length < matchValues.length) {
+        suggestions = Arrays.copyOf(suggestions, matchValues.length);
+      }
+      suggestions[size] = report.getSuggestion().get();
+    }
+    size++;
+    return this;
+  }
+
+  @Nonnull
+  public RecordValidationReport build() {
+    built = true;
+    return new RecordValidationReport(record, layout, present, filledIn, validFormat, matchValues, suggestions);
+  }
+}
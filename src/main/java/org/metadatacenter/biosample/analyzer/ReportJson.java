@@ -0,0 +1,152 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Converts records and their validation results to and from JSON. A record is written as an object with its fields
+ * (accession, id, organismName, packageName, etc.), its attributes and links as arrays of objects, a "valid" flag
+ * and a "validation" object holding the attribute validation reports of each attribute group. Records are read
+ * from the same shape, with any missing field left empty.
+ */
+public final class ReportJson {
+
+  private ReportJson() {
+    // no instances
+  }
+
+  /**
+   * Write a record and its validation results as a JSON object
+   */
+  public static void write(@Nonnull JsonGenerator json, @Nonnull RecordValidationReport report, boolean isValid)
+      throws IOException {
+    Record record = report.getMetadataRecord();
+    json.writeStartObject();
+    writeRecordFields(json, record);
+    json.writeBooleanField("valid", isValid);
+    json.writeObjectFieldStart("validation");
+    ReportLayout layout = report.getLayout();
+    for(int g = 0; g < layout.getGroupCount(); g++) {
+      json.writeArrayFieldStart(layout.getGroupName(g));
+      for(int id = layout.getGroupStart(g); id < layout.getGroupEnd(g); id++) {
+        Attribute attribute = report.getAttribute(id);
+        json.writeStartObject();
+        json.writeStringField("name", attribute.getName());
+        json.writeStringField("value", attribute.getValue());
+        json.writeBooleanField("valid", report.isValid(id));
+        json.writeBooleanField("filledIn", report.isFilledIn(id));
+        json.writeBooleanField("validFormat", report.isValidFormat(id));
+        Optional<String> match = report.getMatchValue(id), suggestion = report.getSuggestion(id);
+        if(match.isPresent()) {
+          json.writeStringField("match", match.get());
+        }
+        if(suggestion.isPresent()) {
+          json.writeStringField("suggestion", suggestion.get());
+        }
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+    }
+    json.writeEndObject();
+    json.writeEndObject();
+  }
+
+  private static void writeRecordFields(@Nonnull JsonGenerator json, @Nonnull Record record) throws IOException {
+    json.writeStringField("accession", record.getAccession());
+    json.writeStringField("id", record.getId());
+    json.writeStringField("access", record.getAccess());
+    json.writeStringField("publicationDate", record.getPublicationDate());
+    json.writeStringField("lastUpdate", record.getLastUpdate());
+    json.writeStringField("submissionDate", record.getSubmissionDate());
+    json.writeStringField("organismTaxonomyId", record.getOrganismTaxonomyId());
+    json.writeStringField("organismTaxonomyName", record.getOrganismTaxonomyName());
+    json.writeStringField("organismName", record.getOrganismName());
+    json.writeStringField("ownerName", record.getOwnerName());
+    json.writeStringField("modelName", record.getModelName());
+    json.writeStringField("packageDisplayName", record.getPackageDisplayName());
+    json.writeStringField("packageName", record.getPackageName());
+    json.writeStringField("status", record.getStatus());
+    json.writeStringField("statusDate", record.getStatusDate());
+    json.writeArrayFieldStart("attributes");
+    for(Attribute attribute : record.getAttributes().values()) {
+      json.writeStartObject();
+      json.writeStringField("name", attribute.getName());
+      json.writeStringField("attributeName", attribute.getAttributeName());
+      json.writeStringField("displayName", attribute.getDisplayName());
+      json.writeStringField("value", attribute.getValue());
+      json.writeEndObject();
+    }
+    json.writeEndArray();
+    json.writeArrayFieldStart("links");
+    for(Link link : record.getLinks()) {
+      json.writeStartObject();
+      json.writeStringField("type", link.getType());
+      json.writeStringField("target", link.getTarget());
+      json.writeStringField("label", link.getLabel());
+      json.writeStringField("value", link.getValue());
+      json.writeEndObject();
+    }
+    json.writeEndArray();
+  }
+
+  /**
+   * Read a record from a JSON object. Attributes may be given as an array of objects with a name and a value (and
+   * optionally an attributeName and displayName), or as an object mapping attribute names to values
+   *
+   * @throws IllegalArgumentException if the given node is not an object
+   */
+  @Nonnull
+  public static Record readRecord(@Nonnull JsonNode node) {
+    checkArgument(checkNotNull(node).isObject(), "Expected a JSON object for a record");
+    RecordBuilder builder = new RecordBuilder()
+        .setAccession(text(node, "accession"))
+        .setId(text(node, "id"))
+        .setAccess(text(node, "access"))
+        .setPublicationDate(text(node, "publicationDate"))
+        .setLastUpdate(text(node, "lastUpdate"))
+        .setSubmissionDate(text(node, "submissionDate"))
+        .setOrganismTaxonomyId(text(node, "organismTaxonomyId"))
+        .setOrganismTaxonomyName(text(node, "organismTaxonomyName"))
+        .setOrganismName(text(node, "organismName"))
+        .setOwnerName(text(node, "ownerName"))
+        .setModelName(text(node, "modelName"))
+        .setPackageDisplayName(text(node, "packageDisplayName"))
+        .setPackageName(text(node, "packageName"))
+        .setStatus(text(node, "status"))
+        .setStatusDate(text(node, "statusDate"));
+    JsonNode attributes = node.path("attributes");
+    if(attributes.isObject()) {
+      Iterator<Map.Entry<String,JsonNode>> fields = attributes.fields();
+      while(fields.hasNext()) {
+        Map.Entry<String,JsonNode> field = fields.next();
+        builder.addAttribute(field.getKey(), field.getKey(), field.getKey(), field.getValue().asText(""));
+      }
+    } else {
+      for(JsonNode attribute : attributes) {
+        String name = text(attribute, "name");
+        String attributeName = attribute.has("attributeName") ? text(attribute, "attributeName") : name;
+        String displayName = attribute.has("displayName") ? text(attribute, "displayName") : name;
+        builder.addAttribute(name, attributeName, displayName, text(attribute, "value"));
+      }
+    }
+    for(JsonNode link : node.path("links")) {
+      builder.addLink(text(link, "type"), text(link, "target"), text(link, "label"), text(link, "value"));
+    }
+    return builder.build();
+  }
+
+  @Nonnull
+  private static String text(@Nonnull JsonNode node, @Nonnull String field) {
+    JsonNode value = node.get(field);
+    return (value == null || value.isNull() ? "" : value.asText(""));
+  }
+}
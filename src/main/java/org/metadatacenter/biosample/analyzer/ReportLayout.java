@@ -0,0 +1,136 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The attributes a {@link RecordValidationReport} covers, numbered from 0 group by group, so that a report can keep
+ * its per-attribute results in bitsets indexed by attribute id. Every report validated against one
+ * {@link SchemaSnapshot} shares that snapshot's layout, along with the report of each attribute when it is missing
+ * from a record.
+ */
+@Immutable
+public final class ReportLayout {
+  @Nonnull private final String[] attributeNames;
+  @Nonnull private final String[] groupNames;
+  @Nonnull private final int[] groupStarts;
+  @Nonnull private final int[] attributeGroups;
+  @Nonnull private final AttributeValidationReport[] missingReports;
+
+  private ReportLayout(@Nonnull List<String> groupNames, @Nonnull List<Integer> groupStarts,
+                       @Nonnull List<String> attributeNames) {
+    this.attributeNames = attributeNames.toArray(new String[attributeNames.size()]);
+    this.groupNames = groupNames.toArray(new String[groupNames.size()]);
+    this.groupStarts = new int[groupStarts.size() + 1];
+    for(int g = 0; g < groupStarts.size(); g++) {
+      this.groupStarts[g] = groupStarts.get(g);
+    }
+    this.groupStarts[groupStarts.size()] = this.attributeNames.length;
+    this.attributeGroups = new int[this.attributeNames.length];
+    this.missingReports = new AttributeValidationReport[this.attributeNames.length];
+    for(int g = 0; g < this.groupNames.length; g++) {
+      for(int id = this.groupStarts[g]; id < this.groupStarts[g + 1]; id++) {
+        attributeGroups[id] = g;
+        missingReports[id] = Utils.getMissingAttributeReport(this.attributeNames[id]);
+      }
+    }
+  }
+
+  /**
+   * Get the layout of the given schema, with one group per attribute type, in the order the validator goes through
+   * them
+   */
+  @Nonnull
+  static ReportLayout of(@Nonnull SchemaSnapshot snapshot) {
+    List<String> groupNames = new ArrayList<>();
+    List<Integer> groupStarts = new ArrayList<>();
+    List<String> attributeNames = new ArrayList<>();
+    for(AttributeType type : snapshot.getAttributeTypes()) {
+      groupNames.add(type.name().toLowerCase());
+      groupStarts.add(attributeNames.size());
+      for(AttributeSchema schema : snapshot.getAttributesOfType(type)) {
+        attributeNames.add(schema.getName());
+      }
+    }
+    return new ReportLayout(groupNames, groupStarts, attributeNames);
+  }
+
+  /**
+   * Get the layout of the given list of group reports, for reports that were put together group by group
+   */
+  @Nonnull
+  static ReportLayout of(@Nonnull List<AttributeGroupValidationReport> groups) {
+    List<String> groupNames = new ArrayList<>();
+    List<Integer> groupStarts = new ArrayList<>();
+    List<String> attributeNames = new ArrayList<>();
+    for(AttributeGroupValidationReport group : checkNotNull(groups)) {
+      groupNames.add(group.getGroupName());
+      groupStarts.add(attributeNames.size());
+      for(AttributeValidationReport report : group.getValidationReports()) {
+        attributeNames.add(report.getAttribute().getName());
+      }
+    }
+    return new ReportLayout(groupNames, groupStarts, attributeNames);
+  }
+
+  public int getAttributeCount() {
+    return attributeNames.length;
+  }
+
+  @Nonnull
+  public String getAttributeName(int id) {
+    return attributeNames[id];
+  }
+
+  public int getGroupCount() {
+    return groupNames.length;
+  }
+
+  @Nonnull
+  public String getGroupName(int group) {
+    return groupNames[group];
+  }
+
+  /**
+   * Get the id of the first attribute of the given group
+   */
+  public int getGroupStart(int group) {
+    return groupStarts[group];
+  }
+
+  /**
+   * Get the id after that of the last attribute of the given group
+   */
+  public int getGroupEnd(int group) {
+    return groupStarts[group + 1];
+  }
+
+  /**
+   * Get the group that the attribute with the given id belongs to
+   */
+  public int getGroupOf(int id) {
+    return attributeGroups[id];
+  }
+
+  /**
+   * Get the report of the attribute with the given id when a record does not have that attribute
+   */
+  @Nonnull
+  AttributeValidationReport getMissingReport(int id) {
+    return missingReports[id];
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("groups", groupNames.length)
+        .add("attributes", attributeNames.length)
+        .toString();
+  }
+}
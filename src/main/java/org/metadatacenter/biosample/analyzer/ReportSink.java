@@ -0,0 +1,61 @@
+package org.metadatacenter.biosample.analyzer;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A destination for record validation results, such as CSV files or a database.
+ */
+public interface ReportSink {
+
+  /**
+   * Write a record and the validation reports of its attributes
+   *
+   * @param report  Validation report of the record
+   * @param isValid Whether the record is valid overall
+   */
+  void write(@Nonnull RecordValidationReport report, boolean isValid);
+
+  /**
+   * Flush any pending output and release the resources held by this sink
+   */
+  void close();
+
+  /**
+   * Get a sink that writes to both of the given sinks, in order, and closes both
+   */
+  @Nonnull
+  static ReportSink both(@Nonnull ReportSink first, @Nonnull ReportSink second) {
+    checkNotNull(first); checkNotNull(second);
+    return new ReportSink() {
+      @Override
+      public void write(@Nonnull RecordValidationReport report, boolean isValid) {
+        first.write(report, isValid);
+        second.write(report, isValid);
+      }
+
+      @Override
+      public void close() {
+        try {
+          first.close();
+        } finally {
+          second.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * Creates the sink for a run, given the output folder of that run
+   */
+  interface Factory {
+
+    @Nonnull
+    ReportSink create(@Nonnull File outputFolder) throws IOException;
+
+  }
+
+}
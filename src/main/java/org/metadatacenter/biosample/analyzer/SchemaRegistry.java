@@ -0,0 +1,156 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Holds the current {@link SchemaSnapshot}, and reloads it without restarting. The schema is loaded from the
+ * {@code attributes.csv} and {@code country-list.txt} bundled with the tool, or from a folder of files with those
+ * names given with {@link #useFolder(File)}; a file missing from the folder falls back to the bundled one. A reload
+ * builds a complete new snapshot and then swaps it in atomically, so readers never take a lock and never see a
+ * partially loaded schema, and a reload that fails leaves the current snapshot in place.
+ */
+public final class SchemaRegistry {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(SchemaRegistry.class.getName());
+  @Nonnull public static final String ATTRIBUTES_FILE = "attributes.csv", LOCATIONS_FILE = "country-list.txt";
+  @Nonnull private static final AtomicLong versions = new AtomicLong();
+  @Nonnull private static final Metrics.Counter reloads = Metrics.counter("schema.reloads");
+  @Nonnull private static final AtomicReference<SchemaSnapshot> current = new AtomicReference<>(loadBundled());
+  @Nullable private static File folder;
+  @Nullable private static ScheduledExecutorService watcher;
+  private static long loadedModified;
+
+  private SchemaRegistry() {
+    // no instances
+  }
+
+  /**
+   * Get the current schema. Callers that need a consistent view, such as the validation of one record, should get
+   * the snapshot once and use it throughout
+   */
+  @Nonnull
+  public static SchemaSnapshot current() {
+    return current.get();
+  }
+
+  @Nonnull
+  private static SchemaSnapshot loadBundled() {
+    try (InputStream attributes = openBundled(ATTRIBUTES_FILE); InputStream locations = openBundled(LOCATIONS_FILE)) {
+      return SchemaSnapshot.load(versions.incrementAndGet(), attributes, locations);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not load the bundled attribute schema", e);
+    }
+  }
+
+  @Nonnull
+  private static InputStream openBundled(@Nonnull String name) throws IOException {
+    InputStream inputStream = SchemaRegistry.class.getClassLoader().getResourceAsStream(name);
+    if(inputStream == null) {
+      throw new IOException("Missing resource: " + name);
+    }
+    return inputStream;
+  }
+
+  @Nonnull
+  private static InputStream open(@Nullable File folder, @Nonnull String name) throws IOException {
+    if(folder != null) {
+      File file = new File(folder, name);
+      if(file.exists()) {
+        return new FileInputStream(file);
+      }
+    }
+    return openBundled(name);
+  }
+
+  /**
+   * Load the schema from the given folder, and reload from there from now on
+   *
+   * @return The new snapshot
+   * @throws IOException if the schema cannot be loaded, in which case the current schema is kept
+   */
+  @Nonnull
+  public static synchronized SchemaSnapshot useFolder(@Nonnull File folder) throws IOException {
+    checkArgument(checkNotNull(folder).isDirectory(), "Not a folder: " + folder);
+    SchemaSnapshot snapshot = load(folder);
+    SchemaRegistry.folder = folder;
+    return snapshot;
+  }
+
+  /**
+   * Reload the schema from its folder, or from the bundled files if no folder was given
+   *
+   * @return The new snapshot
+   * @throws IOException if the schema cannot be loaded, in which case the current schema is kept
+   */
+  @Nonnull
+  public static synchronized SchemaSnapshot reload() throws IOException {
+    return load(folder);
+  }
+
+  @Nonnull
+  private static SchemaSnapshot load(@Nullable File folder) throws IOException {
+    long modified = lastModified(folder);
+    SchemaSnapshot snapshot;
+    try (InputStream attributes = open(folder, ATTRIBUTES_FILE); InputStream locations = open(folder, LOCATIONS_FILE)) {
+      snapshot = SchemaSnapshot.load(versions.incrementAndGet(), attributes, locations);
+    }
+    current.set(snapshot);
+    loadedModified = modified;
+    reloads.increment();
+    logger.info("Loaded attribute schema " + snapshot + (folder != null ? " from " + folder : ""));
+    return snapshot;
+  }
+
+  private static long lastModified(@Nullable File folder) {
+    if(folder == null) {
+      return 0;
+    }
+    return Math.max(new File(folder, ATTRIBUTES_FILE).lastModified(), new File(folder, LOCATIONS_FILE).lastModified());
+  }
+
+  /**
+   * Check the schema folder for changes at the given interval, reloading the schema when a file is modified
+   */
+  public static synchronized void watch(long intervalSeconds) {
+    checkArgument(intervalSeconds > 0, "Interval must be positive");
+    if(watcher != null) {
+      watcher.shutdownNow();
+    }
+    watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "schema-watcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    watcher.scheduleWithFixedDelay(SchemaRegistry::reloadIfModified, intervalSeconds, intervalSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  private static synchronized void reloadIfModified() {
+    if(folder == null || lastModified(folder) == loadedModified) {
+      return;
+    }
+    try {
+      reload();
+    } catch (IOException | RuntimeException e) {
+      // keep the current schema; the next change to the files triggers another attempt
+      loadedModified = lastModified(folder);
+      logger.error("Could not reload the attribute schema from " + folder, e);
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * One version of the attribute schema: the attributes of {@code attributes.csv}, grouped by type, and the valid
+ * locations of {@code country-list.txt}, together with the suggestion indexes compiled from them. A snapshot never
+ * changes once loaded; reloading the schema publishes a new snapshot through {@link SchemaRegistry}, and anything
+ * that holds on to a snapshot, such as a record being validated, keeps seeing the version it started with.
+ */
+@Immutable
+public final class SchemaSnapshot {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(SchemaSnapshot.class.getName());
+
+  private final long version;
+  @Nonnull private final ImmutableMap<AttributeType,ImmutableList<AttributeSchema>> attributesByType;
+  @Nonnull private final ImmutableMap<String,AttributeType> attributeTypes;
+  // all attributes, type by type, so that the position of an attribute is its id in the report layout
+  @Nonnull private final ImmutableList<AttributeSchema> attributesById;
+  @Nonnull private final ImmutableList<String> validLocations;
+  @Nonnull private final ImmutableSet<String> validLocationSet;
+  @Nonnull private final SuggestionIndex locationIndex;
+  @Nonnull private final ReportLayout reportLayout;
+  // value set indexes are built on first use, as most value sets never see a misspelled value
+  @Nonnull private final Map<AttributeSchema,SuggestionIndex> valueSetIndexes = new ConcurrentHashMap<>();
+
+  private SchemaSnapshot(long version, @Nonnull List<AttributeSchema> attributes, @Nonnull List<String> locations) {
+    this.version = version;
+    Map<AttributeType,ImmutableList.Builder<AttributeSchema>> byType = new LinkedHashMap<>();
+    Map<String,AttributeType> types = new LinkedHashMap<>();
+    for(AttributeSchema schema : attributes) {
+      byType.computeIfAbsent(schema.getType(), t -> ImmutableList.builder()).add(schema);
+      types.put(schema.getName(), schema.getType());
+    }
+    ImmutableMap.Builder<AttributeType,ImmutableList<AttributeSchema>> attributesByType = ImmutableMap.builder();
+    for(Map.Entry<AttributeType,ImmutableList.Builder<AttributeSchema>> e : byType.entrySet()) {
+      attributesByType.put(e.getKey(), e.getValue().build());
+    }
+    this.attributesByType = attributesByType.build();
+    ImmutableList.Builder<AttributeSchema> attributesById = ImmutableList.builder();
+    for(ImmutableList<AttributeSchema> ofType : this.attributesByType.values()) {
+      attributesById.addAll(ofType);
+    }
+    this.attributesById = attributesById.build();
+    this.attributeTypes = ImmutableMap.copyOf(types);
+    this.validLocations = ImmutableList.copyOf(locations);
+    this.validLocationSet = ImmutableSet.copyOf(locations);
+    this.locationIndex = new SuggestionIndex(validLocations);
+    this.reportLayout = ReportLayout.of(this);
+  }
+
+  /**
+   * Load a snapshot from the contents of an attributes file, with one "name,type[,value|value...]" line per
+   * attribute, and a locations file, with one location per line
+   *
+   * @throws IOException if either file cannot be read or has a malformed line
+   */
+  @Nonnull
+  static SchemaSnapshot load(long version, @Nonnull InputStream attributesFile, @Nonnull InputStream locationsFile)
+      throws IOException {
+    List<AttributeSchema> attributes = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(attributesFile, StandardCharsets.UTF_8))) {
+      String line;
+      int lineNumber = 0;
+      while((line = reader.readLine()) != null) {
+        lineNumber++;
+        if(line.trim().isEmpty()) {
+          continue;
+        }
+        String[] tokens = line.split(",");
+        if(tokens.length < 2) {
+          throw new IOException("Malformed attribute on line " + lineNumber + ": " + line);
+        }
+        List<String> values = (tokens.length > 2 ? Arrays.asList(tokens[2].split("\\|")) : Collections.emptyList());
+        attributes.add(new AttributeSchema(tokens[0], getAttributeType(tokens[1]), values));
+      }
+    }
+    List<String> locations = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(locationsFile, StandardCharsets.UTF_8))) {
+      String line;
+      while((line = reader.readLine()) != null) {
+        locations.add(line.trim());
+      }
+    }
+    return new SchemaSnapshot(version, attributes, locations);
+  }
+
+  @Nonnull
+  private static AttributeType getAttributeType(@Nonnull String type) {
+    try {
+      return AttributeType.valueOf(type.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      logger.warn("Unknown attribute type '" + type + "', using " + AttributeType.OTHER);
+      return AttributeType.OTHER;
+    }
+  }
+
+  /**
+   * Get the version of this snapshot, which increases each time the schema is loaded
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  @Nonnull
+  public Set<AttributeType> getAttributeTypes() {
+    return attributesByType.keySet();
+  }
+
+  @Nonnull
+  public List<AttributeSchema> getAttributesOfType(@Nonnull AttributeType type) {
+    List<AttributeSchema> attributes = attributesByType.get(checkNotNull(type));
+    return (attributes != null ? attributes : Collections.emptyList());
+  }
+
+  /**
+   * Get the attribute with the given id in the {@link #getReportLayout() report layout}
+   */
+  @Nonnull
+  public AttributeSchema getAttribute(int id) {
+    return attributesById.get(id);
+  }
+
+  @Nonnull
+  public Set<String> getAttributeNames() {
+    return attributeTypes.keySet();
+  }
+
+  /**
+   * Get the type of the attribute with the given name, or null if there is no such attribute
+   */
+  public AttributeType getAttributeTypeForName(@Nonnull String attribute) {
+    return attributeTypes.get(checkNotNull(attribute));
+  }
+
+  @Nonnull
+  public List<String> getValidLocations() {
+    return validLocations;
+  }
+
+  public boolean isValidLocation(@Nonnull String location) {
+    return validLocationSet.contains(location);
+  }
+
+  /**
+   * Get the layout shared by the reports of records validated against this snapshot
+   */
+  @Nonnull
+  public ReportLayout getReportLayout() {
+    return reportLayout;
+  }
+
+  @Nonnull
+  SuggestionIndex getLocationIndex() {
+    return locationIndex;
+  }
+
+  @Nonnull
+  SuggestionIndex getValueSetIndex(@Nonnull AttributeSchema schema) {
+    return valueSetIndexes.computeIfAbsent(schema, s -> new SuggestionIndex(s.getValues()));
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("version", version)
+        .add("attributes", attributeTypes.size())
+        .add("locations", validLocations.size())
+        .toString();
+  }
+}
@@ -0,0 +1,163 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.google.common.base.MoreObjects;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Finds the known terms (e.g. ontology labels, or the distinct values of an attribute) most similar in meaning to a
+ * given text, by comparing word-vector embeddings through an approximate nearest-neighbor index. This replaces the
+ * one-by-one comparisons of stringclusters.py's get_similar_terms, and can be used to map free-text values to
+ * likely ontology labels before validating them with the {@link TermValidator}.
+ */
+public final class SimilarTermIndex {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(SimilarTermIndex.class.getName());
+  public static final int DEFAULT_EF_SEARCH = 64;
+
+  @Nonnull private final WordVectors wordVectors;
+  @Nonnull private final HnswIndex index;
+  @Nonnull private final List<String> terms = new ArrayList<>();
+  private final int efSearch;
+
+  /**
+   * Index the given terms. Terms none of whose words have a vector are left out
+   */
+  public SimilarTermIndex(@Nonnull WordVectors wordVectors, @Nonnull Collection<String> terms, int efSearch) {
+    this.wordVectors = checkNotNull(wordVectors);
+    this.efSearch = efSearch;
+    this.index = new HnswIndex(wordVectors.getDimension(), terms.size());
+    long start = System.nanoTime();
+    for(String term : terms) {
+      Optional<float[]> vector = wordVectors.getVector(term);
+      if(vector.isPresent()) {
+        index.add(vector.get());
+        this.terms.add(term);
+      }
+    }
+    logger.info("Indexed " + this.terms.size() + " of " + terms.size() + " terms in "
+        + (System.nanoTime() - start) / 1000000 + " ms");
+  }
+
+  public SimilarTermIndex(@Nonnull WordVectors wordVectors, @Nonnull Collection<String> terms) {
+    this(wordVectors, terms, DEFAULT_EF_SEARCH);
+  }
+
+  /**
+   * Get the (approximately) k indexed terms most similar to the given text, most similar first
+   */
+  @Nonnull
+  public List<SimilarTerm> getSimilarTerms(@Nonnull String text, int k) {
+    Optional<float[]> vector = wordVectors.getVector(text);
+    if(!vector.isPresent()) {
+      return Collections.emptyList();
+    }
+    List<SimilarTerm> result = new ArrayList<>(k);
+    for(int id : index.search(vector.get(), k, efSearch)) {
+      result.add(new SimilarTerm(terms.get(id), index.similarity(vector.get(), id)));
+    }
+    return result;
+  }
+
+  public int size() {
+    return terms.size();
+  }
+
+  @Immutable
+  public static final class SimilarTerm {
+    @Nonnull private final String term;
+    private final float similarity;
+
+    public SimilarTerm(@Nonnull String term, float similarity) {
+      this.term = checkNotNull(term);
+      this.similarity = similarity;
+    }
+
+    @Nonnull
+    public String getTerm() {
+      return term;
+    }
+
+    /**
+     * Get the cosine similarity between the term and the query, between -1 and 1
+     */
+    public float getSimilarity() {
+      return similarity;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("term", term)
+          .add("similarity", similarity)
+          .toString();
+    }
+  }
+
+  public static void main(String[] args) throws IOException, ParseException {
+    Options options = new Options();
+    options.addOption("v", true, "Word vectors file, in GloVe or word2vec text format");
+    options.addOption("t", true, "Terms to index: a list of terms (one per line), or a BioSample XML dump if -a is given");
+    options.addOption("a", true, "Name of the attribute whose distinct values to index, when the terms file is a dump");
+    options.addOption("q", true, "Query text. If not given, queries are read from standard input, one per line");
+    options.addOption("k", true, "Number of similar terms to get. Default 10");
+    CommandLineParser parser = new DefaultParser();
+    CommandLine cmd = parser.parse(options, args);
+    int k = Integer.parseInt(cmd.getOptionValue("k", "10"));
+
+    WordVectors wordVectors = WordVectors.load(new File(cmd.getOptionValue("v")));
+    File termsFile = new File(cmd.getOptionValue("t"));
+    Collection<String> terms;
+    if(cmd.hasOption("a")) {
+      RecordProjection projection = new RecordProjection(EnumSet.noneOf(RecordProjection.Field.class),
+          Collections.singleton(cmd.getOptionValue("a")));
+      try (RecordStreamParser records = new RecordStreamParser(new BufferedInputStream(CompressedInputs.open(termsFile)),
+          projection)) {
+        terms = StringClusterer.countDistinct(StringClusterer.getAttributeValues(records, cmd.getOptionValue("a")))
+            .keySet();
+      }
+    } else {
+      terms = Utils.parseFile(termsFile);
+    }
+    SimilarTermIndex index = new SimilarTermIndex(wordVectors, terms);
+    if(cmd.hasOption("q")) {
+      printSimilarTerms(index, cmd.getOptionValue("q"), k);
+    } else {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+      String line;
+      while((line = reader.readLine()) != null) {
+        printSimilarTerms(index, line, k);
+      }
+    }
+  }
+
+  private static void printSimilarTerms(@Nonnull SimilarTermIndex index, @Nonnull String query, int k) {
+    long start = System.nanoTime();
+    List<SimilarTerm> similarTerms = index.getSimilarTerms(query, k);
+    double millis = (System.nanoTime() - start) / 1e6;
+    System.out.println(query + " (" + String.format("%.3f", millis) + " ms)");
+    for(SimilarTerm t : similarTerms) {
+      System.out.println("\t" + t.getTerm() + "\t" + String.format("%.4f", t.getSimilarity()));
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Finds the most frequent strings in a stream using a fixed number of counters, with the Space-Saving algorithm
+ * (Metwally et al., 2005). When a new string arrives and all counters are taken, the string replaces the least
+ * frequent one and inherits its count, which is then recorded as the maximum overestimation of the new string's
+ * count. Any string occurring more than n / capacity times in a stream of n strings is guaranteed to be kept.
+ * Summaries can be merged (Agarwal et al., 2012) to combine those built by different threads or over different
+ * shards of a dump.
+ */
+public final class SpaceSaving {
+  private final int capacity;
+  @Nonnull private final Map<String,Integer> slots = new HashMap<>();
+  @Nonnull private final String[] items;
+  @Nonnull private final long[] counts;
+  @Nonnull private final long[] errors;
+  // min-heap of slots ordered by count, and the heap position of each slot
+  @Nonnull private final int[] heap;
+  @Nonnull private final int[] positions;
+  private int size = 0;
+
+  public SpaceSaving(int capacity) {
+    checkArgument(capacity > 0, "Capacity must be positive");
+    this.capacity = capacity;
+    this.items = new String[capacity];
+    this.counts = new long[capacity];
+    this.errors = new long[capacity];
+    this.heap = new int[capacity];
+    this.positions = new int[capacity];
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void add(@Nonnull String item) {
+    add(item, 1, 0);
+  }
+
+  private void add(@Nonnull String item, long count, long error) {
+    Integer slot = slots.get(checkNotNull(item));
+    if(slot != null) {
+      counts[slot] += count;
+      errors[slot] += error;
+      siftDown(positions[slot]);
+    } else if(size < capacity) {
+      int s = size++;
+      items[s] = item;
+      counts[s] = count;
+      errors[s] = error;
+      slots.put(item, s);
+      heap[s] = s;
+      positions[s] = s;
+      siftUp(s);
+    } else {
+      int s = heap[0];
+      slots.remove(items[s]);
+      items[s] = item;
+      errors[s] = counts[s] + error;
+      counts[s] += count;
+      slots.put(item, s);
+      siftDown(0);
+    }
+  }
+
+  /*
+   * The count that any string not in the summary may have had, which is 0 unless strings have been evicted
+   */
+  private long getMinCount() {
+    return (size < capacity ? 0 : counts[heap[0]]);
+  }
+
+  /**
+   * Add all strings counted by the given summary to this one. The result keeps the error guarantees of a summary
+   * of this capacity built over both streams
+   */
+  public void merge(@Nonnull SpaceSaving other) {
+    long min = getMinCount(), otherMin = other.getMinCount();
+    Map<String,long[]> merged = new HashMap<>();
+    for(int s = 0; s < size; s++) {
+      merged.put(items[s], new long[]{counts[s] + otherMin, errors[s] + otherMin});
+    }
+    for(int s = 0; s < other.size; s++) {
+      long[] entry = merged.get(other.items[s]);
+      if(entry == null) {
+        merged.put(other.items[s], new long[]{other.counts[s] + min, other.errors[s] + min});
+      } else {
+        // the item was counted by both summaries, so undo the allowance for it being missing from the other one
+        entry[0] += other.counts[s] - otherMin;
+        entry[1] += other.errors[s] - otherMin;
+      }
+    }
+    List<Map.Entry<String,long[]>> entries = new ArrayList<>(merged.entrySet());
+    entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+    slots.clear();
+    size = 0;
+    for(int i = 0; i < entries.size() && i < capacity; i++) {
+      long[] entry = entries.get(i).getValue();
+      add(entries.get(i).getKey(), entry[0], entry[1]);
+    }
+  }
+
+  /**
+   * Get up to k of the most frequent strings, most frequent first
+   */
+  @Nonnull
+  public List<Counter> getTop(int k) {
+    List<Counter> top = new ArrayList<>(size);
+    for(int s = 0; s < size; s++) {
+      top.add(new Counter(items[s], counts[s], errors[s]));
+    }
+    top.sort((a, b) -> Long.compare(b.getCount(), a.getCount()));
+    return (top.size() > k ? new ArrayList<>(top.subList(0, k)) : top);
+  }
+
+  private void siftUp(int i) {
+    int slot = heap[i];
+    while(i > 0) {
+      int parent = (i - 1) >>> 1;
+      if(counts[heap[parent]] <= counts[slot]) {
+        break;
+      }
+      move(heap[parent], i);
+      i = parent;
+    }
+    move(slot, i);
+  }
+
+  private void siftDown(int i) {
+    int slot = heap[i];
+    while(true) {
+      int child = 2 * i + 1;
+      if(child >= size) {
+        break;
+      }
+      if(child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+        child++;
+      }
+      if(counts[heap[child]] >= counts[slot]) {
+        break;
+      }
+      move(heap[child], i);
+      i = child;
+    }
+    move(slot, i);
+  }
+
+  private void move(int slot, int position) {
+    heap[position] = slot;
+    positions[slot] = position;
+  }
+
+  /**
+   * A frequent string with its estimated count. The true count is between {@code count - error} and {@code count}
+   */
+  @Immutable
+  public static final class Counter {
+    @Nonnull private final String item;
+    private final long count;
+    private final long error;
+
+    public Counter(@Nonnull String item, long count, long error) {
+      this.item = checkNotNull(item);
+      this.count = count;
+      this.error = error;
+    }
+
+    @Nonnull
+    public String getItem() {
+      return item;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getError() {
+      return error;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("item", item)
+          .add("count", count)
+          .add("error", error)
+          .toString();
+    }
+  }
+}
@@ -0,0 +1,467 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Clusters distinct strings, such as the distinct values of one BioSample attribute, by edit distance. Two strings
+ * end up in the same cluster when they are connected by a chain of strings each within {@code maxDistance} edits of
+ * the next. This replaces the all-pairs distance matrix of stringclusters.py with:
+ * <ul>
+ *   <li>length bucketing: strings are sorted by length, and only strings whose lengths differ by at most
+ *   {@code maxDistance} are compared,</li>
+ *   <li>trigram blocking: a pair is only compared if it shares enough distinct trigrams to possibly be within
+ *   {@code maxDistance} edits (each edit destroys at most three trigrams). Candidates are found through an index of
+ *   only the rarest trigrams of each string (prefix filtering). Strings too short for trigrams to rule anything out
+ *   are instead blocked by their deletion neighbourhoods, as in {@link SuggestionIndex},</li>
+ *   <li>a banded edit distance that stops as soon as the bound is exceeded ({@link EditDistance}), and</li>
+ *   <li>fork-join parallelism over ranges of strings.</li>
+ * </ul>
+ * Each cluster is represented by its most frequent member, and clusters are written as a JSON object mapping each
+ * representative to the sorted list of cluster members, like stringclusters.py does.
+ */
+public final class StringClusterer {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(StringClusterer.class.getName());
+  @Nonnull private static final Pattern nonAlphanumeric = Pattern.compile("([^\\s\\w]|_)+");
+  @Nonnull private static final Pattern whitespace = Pattern.compile("\\s+");
+  private static final int GRAM_SIZE = 3;
+  private static final int LEAF_SIZE = 256;
+  private static final int MAX_DELETES_LENGTH = 10;
+
+  private final int maxDistance, threads;
+
+  public StringClusterer(int maxDistance, int threads) {
+    checkArgument(maxDistance >= 0, "Maximum edit distance must not be negative");
+    checkArgument(threads > 0, "Number of threads must be positive");
+    this.maxDistance = maxDistance;
+    this.threads = threads;
+  }
+
+  /**
+   * Replace all non-alphanumeric characters with spaces, and trim all extra white spaces and tabs
+   */
+  @Nonnull
+  public static String normalize(@Nonnull String value) {
+    String s = nonAlphanumeric.matcher(value).replaceAll(" ");
+    return whitespace.matcher(s).replaceAll(" ").trim();
+  }
+
+  /**
+   * Count the distinct normalized values in the given stream of values, ignoring empty ones
+   */
+  @Nonnull
+  public static Map<String,Long> countDistinct(@Nonnull Iterator<String> values) {
+    Map<String,Long> counts = new HashMap<>();
+    while(values.hasNext()) {
+      String value = normalize(values.next());
+      if(!value.isEmpty()) {
+        counts.merge(value, 1L, Long::sum);
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Get the values of the given attribute in all records of the given stream
+   */
+  @Nonnull
+  public static Iterator<String> getAttributeValues(@Nonnull Iterator<Record> records, @Nonnull String attributeName) {
+    checkNotNull(records); checkNotNull(attributeName);
+    return new Iterator<String>() {
+      private String next = advance();
+
+      private String advance() {
+        while(records.hasNext()) {
+          Attribute attribute = records.next().getAttributes().get(attributeName);
+          if(attribute != null) {
+            return attribute.getValue();
+          }
+        }
+        return null;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      @Override
+      public String next() {
+        if(next == null) {
+          throw new NoSuchElementException();
+        }
+        String value = next;
+        next = advance();
+        return value;
+      }
+    };
+  }
+
+  /**
+   * Cluster the given distinct values
+   *
+   * @param counts Map of each distinct value to the number of times it occurs, used to choose the representative
+   *               of each cluster
+   * @return Clusters, largest first, each given as its list of members with the representative first
+   */
+  @Nonnull
+  public List<List<String>> cluster(@Nonnull Map<String,Long> counts) {
+    String[] strings = counts.keySet().toArray(new String[counts.size()]);
+    Arrays.sort(strings, Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+    int n = strings.length;
+    long start = System.nanoTime();
+    Index index = new Index(strings);
+    int[] parent = new int[n];
+    for(int i = 0; i < n; i++) {
+      parent[i] = i;
+    }
+    long[] edges;
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      edges = pool.invoke(new PairTask(index, 0, n));
+    } finally {
+      pool.shutdown();
+    }
+    for(long edge : edges) {
+      union(parent, (int) (edge >>> 32), (int) edge);
+    }
+    logger.info("Found " + edges.length + " similar pairs among " + n + " values in "
+        + (System.nanoTime() - start) / 1000000 + " ms");
+
+    Map<Integer,List<String>> clusters = new HashMap<>();
+    for(int i = 0; i < n; i++) {
+      clusters.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(strings[i]);
+    }
+    List<List<String>> result = new ArrayList<>(clusters.size());
+    for(List<String> members : clusters.values()) {
+      String representative = members.get(0);
+      for(String member : members) {
+        long c = counts.get(member), best = counts.get(representative);
+        if(c > best || (c == best && member.compareTo(representative) < 0)) {
+          representative = member;
+        }
+      }
+      members.remove(representative);
+      members.sort(Comparator.naturalOrder());
+      members.add(0, representative);
+      result.add(members);
+    }
+    result.sort(Comparator.<List<String>>comparingInt(List::size).reversed()
+        .thenComparing(members -> members.get(0)));
+    return result;
+  }
+
+  private static int find(@Nonnull int[] parent, int i) {
+    while(parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+  private static void union(@Nonnull int[] parent, int a, int b) {
+    int ra = find(parent, a), rb = find(parent, b);
+    if(ra != rb) {
+      parent[Math.max(ra, rb)] = Math.min(ra, rb);
+    }
+  }
+
+  /**
+   * Write the given clusters as a JSON object mapping each cluster representative to the cluster members
+   */
+  public static void writeClusters(@Nonnull List<List<String>> clusters, @Nonnull File outputFile) throws IOException {
+    try (JsonGenerator json = new JsonFactory().createGenerator(outputFile, JsonEncoding.UTF8)) {
+      json.useDefaultPrettyPrinter();
+      json.writeStartObject();
+      for(List<String> members : clusters) {
+        json.writeArrayFieldStart(members.get(0));
+        for(String member : members) {
+          json.writeString(member);
+        }
+        json.writeEndArray();
+      }
+      json.writeEndObject();
+    }
+  }
+
+  /*
+   * Strings sorted by length, the start offset of each length, and the ids of the strings having each trigram among
+   * their rarest ones
+   */
+  private final class Index {
+    @Nonnull private final String[] strings;
+    @Nonnull private final int[][] grams;
+    @Nonnull private final int[][] sortedGrams;
+    @Nonnull private final Map<Integer,int[]> postings;
+    @Nonnull private final int[] lengthEnd;
+    // (hash of deletion << 32 | string id) for all strings up to MAX_DELETES_LENGTH + maxDistance long, sorted
+    @Nonnull private final long[] shortDeletes;
+    // per-thread candidate marks and candidate list, reset after each string
+    @Nonnull private final ThreadLocal<int[][]> scratch;
+
+    Index(@Nonnull String[] strings) {
+      this.strings = strings;
+      int n = strings.length;
+      this.scratch = ThreadLocal.withInitial(() -> new int[][] {new int[n], new int[n]});
+      this.grams = new int[n][];
+      this.sortedGrams = new int[n][];
+      Map<Integer,Integer> frequencies = new HashMap<>();
+      for(int i = 0; i < n; i++) {
+        grams[i] = distinctGrams(strings[i]);
+        sortedGrams[i] = grams[i].clone();
+        for(int g : grams[i]) {
+          frequencies.merge(g, 1, Integer::sum);
+        }
+      }
+      // order the trigrams of each string rarest first, and index each string only by its first 3*maxDistance+1
+      Map<Integer,int[]> lists = new HashMap<>();
+      Map<Integer,Integer> sizes = new HashMap<>();
+      int prefixLength = GRAM_SIZE * maxDistance + 1;
+      for(int i = 0; i < n; i++) {
+        long[] ordered = new long[grams[i].length];
+        for(int k = 0; k < ordered.length; k++) {
+          ordered[k] = ((long) frequencies.get(grams[i][k]) << 32) | grams[i][k];
+        }
+        Arrays.sort(ordered);
+        for(int k = 0; k < ordered.length; k++) {
+          grams[i][k] = (int) ordered[k];
+        }
+        for(int k = 0; k < Math.min(prefixLength, grams[i].length); k++) {
+          int g = grams[i][k];
+          int size = sizes.getOrDefault(g, 0);
+          int[] list = lists.get(g);
+          if(list == null || list.length == size) {
+            list = (list == null ? new int[4] : Arrays.copyOf(list, size * 2));
+            lists.put(g, list);
+          }
+          list[size] = i;
+          sizes.put(g, size + 1);
+        }
+      }
+      for(Map.Entry<Integer,int[]> e : lists.entrySet()) {
+        e.setValue(Arrays.copyOf(e.getValue(), sizes.get(e.getKey())));
+      }
+      this.postings = lists;
+      int maxLength = (n == 0 ? 0 : strings[n - 1].length());
+      this.lengthEnd = new int[maxLength + maxDistance + 2];
+      for(int len = 0, i = 0; len < lengthEnd.length; len++) {
+        while(i < n && strings[i].length() <= len) {
+          i++;
+        }
+        lengthEnd[len] = i;
+      }
+      int nrShort = lengthEnd[Math.min(MAX_DELETES_LENGTH + maxDistance, lengthEnd.length - 1)];
+      long[] entries = new long[Math.max(16, nrShort)];
+      int size = 0;
+      for(int j = 0; j < nrShort; j++) {
+        for(String delete : EditDistance.deletes(strings[j], maxDistance)) {
+          if(size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+          }
+          entries[size++] = ((long) delete.hashCode() << 32) | j;
+        }
+      }
+      this.shortDeletes = Arrays.copyOf(entries, size);
+      Arrays.sort(shortDeletes);
+    }
+
+    @Nonnull
+    private int[] distinctGrams(@Nonnull String s) {
+      if(s.length() < GRAM_SIZE) {
+        return new int[0];
+      }
+      // n-grams are hashed; a collision only merges two n-grams, which can let through more candidates but never
+      // rule out a similar pair
+      int[] g = new int[s.length() - GRAM_SIZE + 1];
+      for(int i = 0; i < g.length; i++) {
+        int h = 0;
+        for(int k = i; k < i + GRAM_SIZE; k++) {
+          h = 31 * h + s.charAt(k);
+        }
+        g[i] = h;
+      }
+      return Arrays.stream(g).sorted().distinct().toArray();
+    }
+
+    /*
+     * Number of trigrams shared by two strings
+     */
+    private int overlap(int i, int j) {
+      int[] a = sortedGrams[i], b = sortedGrams[j];
+      int count = 0;
+      for(int x = 0, y = 0; x < a.length && y < b.length; ) {
+        if(a[x] == b[y]) {
+          count++; x++; y++;
+        } else if(a[x] < b[y]) {
+          x++;
+        } else {
+          y++;
+        }
+      }
+      return count;
+    }
+
+    /*
+     * Add to the given edge list all pairs (i, j), j > i, within maxDistance edits
+     */
+    void findPairs(int i, @Nonnull int[] seen, @Nonnull int[] candidates, @Nonnull EdgeList edges) {
+      String s = strings[i];
+      int end = lengthEnd[s.length() + maxDistance];
+      int threshold = grams[i].length - GRAM_SIZE * maxDistance;
+      int nrCandidates = 0;
+      if(threshold <= 0 && s.length() > MAX_DELETES_LENGTH) {
+        // too short for trigrams to rule anything out, and too long to enumerate deletions of
+        for(int j = i + 1; j < end; j++) {
+          if(EditDistance.boundedDistance(s, strings[j], maxDistance) <= maxDistance) {
+            edges.add(i, j);
+          }
+        }
+        return;
+      } else if(threshold <= 0) {
+        for(String delete : EditDistance.deletes(s, maxDistance)) {
+          long key = (long) delete.hashCode() << 32;
+          int k = Arrays.binarySearch(shortDeletes, key);
+          for(k = (k < 0 ? -k - 1 : k); k < shortDeletes.length && (shortDeletes[k] & ~0xFFFFFFFFL) == key; k++) {
+            int j = (int) shortDeletes[k];
+            if(j > i && j < end && seen[j]++ == 0) {
+              candidates[nrCandidates++] = j;
+            }
+          }
+        }
+      } else {
+        // strings within maxDistance edits share at least max(threshold_i, threshold_j) trigrams, so by the prefix
+        // filtering principle they share one of the 3*maxDistance+1 rarest trigrams of each
+        for(int p = 0; p < GRAM_SIZE * maxDistance + 1; p++) {
+          int[] list = postings.get(grams[i][p]);
+          int from = Arrays.binarySearch(list, i + 1);
+          for(int k = (from < 0 ? -from - 1 : from); k < list.length && list[k] < end; k++) {
+            if(seen[list[k]]++ == 0) {
+              candidates[nrCandidates++] = list[k];
+            }
+          }
+        }
+      }
+      for(int c = 0; c < nrCandidates; c++) {
+        int j = candidates[c];
+        if((threshold <= 0 || overlap(i, j) >= Math.max(threshold, sortedGrams[j].length - GRAM_SIZE * maxDistance))
+            && EditDistance.boundedDistance(s, strings[j], maxDistance) <= maxDistance) {
+          edges.add(i, j);
+        }
+        seen[j] = 0;
+      }
+    }
+  }
+
+  private final class PairTask extends RecursiveTask<long[]> {
+    private static final long serialVersionUID = 1L;
+    @Nonnull private final Index index;
+    private final int from, to;
+
+    PairTask(@Nonnull Index index, int from, int to) {
+      this.index = index;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected long[] compute() {
+      if(to - from > LEAF_SIZE) {
+        int mid = (from + to) >>> 1;
+        PairTask left = new PairTask(index, from, mid);
+        left.fork();
+        long[] right = new PairTask(index, mid, to).compute();
+        long[] l = left.join();
+        long[] all = Arrays.copyOf(l, l.length + right.length);
+        System.arraycopy(right, 0, all, l.length, right.length);
+        return all;
+      }
+      int[][] scratch = index.scratch.get();
+      int[] seen = scratch[0], candidates = scratch[1];
+      EdgeList edges = new EdgeList();
+      for(int i = from; i < to; i++) {
+        index.findPairs(i, seen, candidates, edges);
+      }
+      return edges.toArray();
+    }
+  }
+
+  private static final class EdgeList {
+    private long[] edges = new long[16];
+    private int size = 0;
+
+    void add(int i, int j) {
+      if(size == edges.length) {
+        edges = Arrays.copyOf(edges, size * 2);
+      }
+      edges[size++] = ((long) i << 32) | j;
+    }
+
+    long[] toArray() {
+      return Arrays.copyOf(edges, size);
+    }
+  }
+
+  public static void main(String[] args) throws IOException, ParseException {
+    Options options = new Options();
+    options.addOption("i", true, "Input file: a list of strings (one per line), or a BioSample XML dump if -a is given");
+    options.addOption("o", true, "Output JSON file");
+    options.addOption("a", true, "Name of the attribute whose distinct values to cluster, when the input is a dump");
+    options.addOption("d", true, "Maximum edit distance between similar strings. Default 2");
+    options.addOption("threads", true, "Number of threads. Default: nr of cores");
+    CommandLineParser parser = new DefaultParser();
+    CommandLine cmd = parser.parse(options, args);
+    File input = new File(cmd.getOptionValue("i"));
+    File output = new File(cmd.getOptionValue("o"));
+    int maxDistance = Integer.parseInt(cmd.getOptionValue("d", "2"));
+    int threads = Integer.parseInt(cmd.getOptionValue("threads",
+        String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+    Map<String,Long> counts;
+    if(cmd.hasOption("a")) {
+      RecordProjection projection = new RecordProjection(EnumSet.noneOf(RecordProjection.Field.class),
+          Collections.singleton(cmd.getOptionValue("a")));
+      try (RecordStreamParser records = new RecordStreamParser(new BufferedInputStream(CompressedInputs.open(input)),
+          projection)) {
+        counts = countDistinct(getAttributeValues(records, cmd.getOptionValue("a")));
+      }
+    } else {
+      counts = countDistinct(Utils.parseFile(input).iterator());
+    }
+    logger.info("Clustering " + counts.size() + " distinct values");
+    List<List<String>> clusters = new StringClusterer(maxDistance, threads).cluster(counts);
+    logger.info("Found " + clusters.size() + " clusters");
+    if(output.getParentFile() != null) {
+      output.getParentFile().mkdirs();
+    }
+    writeClusters(clusters, output);
+  }
+}
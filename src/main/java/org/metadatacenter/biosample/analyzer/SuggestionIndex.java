@@ -0,0 +1,97 @@
+package org.metadatacenter.biosample.analyzer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Suggests the closest known value for a misspelled one, using the symmetric-delete approach: every known value is
+ * indexed under all the strings obtained by deleting up to {@code maxDistance} characters from it, so candidates
+ * for a query are found by looking up the query's own deletions rather than by comparing against every value.
+ * Candidates are then checked with a bounded edit distance. Matching is case-insensitive.
+ */
+@Immutable
+public final class SuggestionIndex {
+  public static final int DEFAULT_MAX_DISTANCE = 2;
+  private static final int MAX_QUERY_LENGTH = 64;
+  private static final int[] NO_CANDIDATES = new int[0];
+
+  @Nonnull private final String[] values;
+  @Nonnull private final String[] keys;
+  @Nonnull private final Map<String,int[]> deletes;
+  private final int maxDistance;
+
+  public SuggestionIndex(@Nonnull Collection<String> values, int maxDistance) {
+    checkNotNull(values);
+    checkArgument(maxDistance >= 0, "Maximum edit distance must not be negative");
+    this.maxDistance = maxDistance;
+    List<String> valueList = new ArrayList<>(), keyList = new ArrayList<>();
+    Map<String,List<Integer>> candidates = new HashMap<>();
+    Set<String> seen = new HashSet<>();
+    for(String value : values) {
+      String key = toKey(value);
+      if(key.isEmpty() || !seen.add(key)) {
+        continue;
+      }
+      int id = valueList.size();
+      valueList.add(value.trim());
+      keyList.add(key);
+      for(String delete : EditDistance.deletes(key, maxDistance)) {
+        candidates.computeIfAbsent(delete, k -> new ArrayList<>(1)).add(id);
+      }
+    }
+    this.values = valueList.toArray(new String[valueList.size()]);
+    this.keys = keyList.toArray(new String[keyList.size()]);
+    this.deletes = new HashMap<>(candidates.size() * 2);
+    for(Map.Entry<String,List<Integer>> e : candidates.entrySet()) {
+      this.deletes.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+    }
+  }
+
+  public SuggestionIndex(@Nonnull Collection<String> values) {
+    this(values, DEFAULT_MAX_DISTANCE);
+  }
+
+  /**
+   * Get the known value closest to the given one, if any is within the maximum edit distance. Ties are broken in
+   * favour of the value that comes first in the collection the index was built from
+   */
+  @Nonnull
+  public Optional<String> suggest(@Nonnull String value) {
+    String query = toKey(value);
+    if(query.isEmpty() || query.length() > MAX_QUERY_LENGTH) {
+      return Optional.empty();
+    }
+    int best = -1, bestDistance = maxDistance + 1;
+    for(String delete : EditDistance.deletes(query, maxDistance)) {
+      for(int id : deletes.getOrDefault(delete, NO_CANDIDATES)) {
+        int d = EditDistance.boundedDistance(query, keys[id], Math.min(maxDistance, bestDistance));
+        if(d < bestDistance || (d == bestDistance && id < best)) {
+          best = id;
+          bestDistance = d;
+        }
+      }
+    }
+    return (best == -1 ? Optional.empty() : Optional.of(values[best]));
+  }
+
+  public int size() {
+    return values.length;
+  }
+
+  @Nonnull
+  private static String toKey(@Nonnull String value) {
+    return value.trim().toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,156 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Turns a term into the search string that is sent to BioPortal and used as its key in the term cache, so that
+ * variants of the same term, such as "Soil", "soil " and "SOIL", share one lookup. Canonicalizing a term applies
+ * Unicode NFKC normalization (only to terms that are not plain ASCII), optionally drops a CURIE prefix such as
+ * "ENVO:", drops square brackets, '%' and '.', folds case, and replaces each run of white space inside the term by a
+ * single '+', dropping leading and trailing white space. All of this is done in a single pass over the term, and a
+ * term that is already canonical is returned as is. Canonicalizing a canonical term gives the same term.
+ */
+public final class TermCanonicalizer {
+  // how terms were turned into search strings before this class, for comparing the two in main()
+  @Nonnull private static final Pattern brackets = Pattern.compile("[\\[\\]]"), spaces = Pattern.compile(" "),
+      dropped = Pattern.compile("[%.]");
+
+  private TermCanonicalizer() {
+    // no instances
+  }
+
+  /**
+   * Get the canonical search string of the given term
+   *
+   * @param term        Term
+   * @param stripPrefix Whether to drop everything up to the first ':' in the term, which is how attribute values
+   *                    given as CURIEs (e.g. "ENVO:soil") are looked up
+   */
+  @Nonnull
+  public static String canonicalize(@Nonnull String term, boolean stripPrefix) {
+    String s = (isAscii(checkNotNull(term)) ? term : Normalizer.normalize(term, Normalizer.Form.NFKC));
+    int start = 0;
+    if(stripPrefix) {
+      int colon = s.indexOf(':');
+      if(colon >= 0) {
+        start = colon + 1;
+      }
+    }
+    // the output is only built once it first differs from the input
+    StringBuilder out = (start > 0 ? new StringBuilder(s.length() - start) : null);
+    boolean pendingSpace = false;
+    int length = 0;
+    for(int i = start; i < s.length(); i++) {
+      char c = s.charAt(i);
+      char mapped;
+      if(c == '[' || c == ']' || c == '%' || c == '.') {
+        mapped = 0;
+      } else if(Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+        mapped = 0;
+        pendingSpace = (length > 0);
+      } else {
+        mapped = Character.toLowerCase(c);
+      }
+      if(mapped == 0) {
+        if(out == null) {
+          out = new StringBuilder(s.length()).append(s, start, i);
+        }
+        continue;
+      }
+      if(pendingSpace) {
+        if(out == null) {
+          out = new StringBuilder(s.length()).append(s, start, i);
+        }
+        out.append('+');
+        length++;
+        pendingSpace = false;
+      }
+      if(out == null && mapped != c) {
+        out = new StringBuilder(s.length()).append(s, start, i);
+      }
+      if(out != null) {
+        out.append(mapped);
+      }
+      length++;
+    }
+    return (out != null ? out.toString() : s);
+  }
+
+  private static boolean isAscii(@Nonnull String s) {
+    for(int i = 0; i < s.length(); i++) {
+      if(s.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Nonnull
+  private static String previousSearchString(@Nonnull String term) {
+    String s = brackets.matcher(term).replaceAll("");
+    if(s.contains(":")) {
+      s = s.substring(s.indexOf(':') + 1);
+    }
+    return dropped.matcher(spaces.matcher(s).replaceAll("+")).replaceAll("");
+  }
+
+  /**
+   * Report, for the term lookups that validating a dump needs, how many distinct lookups there are with canonical
+   * search strings and with the search strings used before, and so the share of lookups that the term cache
+   * could answer with either
+   */
+  public static void main(String[] args) throws IOException, ParseException {
+    Options options = new Options();
+    options.addOption("i", true, "Input BioSample XML dump");
+    CommandLineParser parser = new DefaultParser();
+    CommandLine cmd = parser.parse(options, args);
+    File input = new File(cmd.getOptionValue("i"));
+
+    SchemaSnapshot snapshot = SchemaRegistry.current();
+    Set<String> previousKeys = new HashSet<>(), canonicalKeys = new HashSet<>();
+    long lookups = 0;
+    try (RecordStreamParser records = new RecordStreamParser(new BufferedInputStream(CompressedInputs.open(input),
+        1 << 16), RecordProjection.parse(RecordProjection.SCHEMA))) {
+      while(records.hasNext()) {
+        Record record = records.next();
+        for(int id = 0; id < snapshot.getReportLayout().getAttributeCount(); id++) {
+          AttributeSchema schema = snapshot.getAttribute(id);
+          Attribute attribute = record.getAttributes().get(schema.getName());
+          if(attribute == null || !GenericValidator.needsLookup(schema, attribute)) {
+            continue;
+          }
+          String ontologies = (schema.getType() == AttributeType.ONTOLOGY_TERM ?
+              String.join(",", schema.getValues()) : "");
+          lookups++;
+          previousKeys.add(previousSearchString(attribute.getValue()) + '\t' + ontologies);
+          canonicalKeys.add(canonicalize(attribute.getValue(), true) + '\t' + ontologies);
+        }
+      }
+    }
+    System.out.println("Term lookups: " + lookups);
+    System.out.println("Distinct lookups, previous search strings: " + previousKeys.size() + " (cache hit rate " +
+        hitRate(lookups, previousKeys.size()) + ")");
+    System.out.println("Distinct lookups, canonical search strings: " + canonicalKeys.size() + " (cache hit rate " +
+        hitRate(lookups, canonicalKeys.size()) + ")");
+  }
+
+  @Nonnull
+  private static String hitRate(long lookups, long distinct) {
+    return String.format("%.2f%%", (lookups > 0 ? 100.0 * (lookups - distinct) / lookups : 0));
+  }
+}
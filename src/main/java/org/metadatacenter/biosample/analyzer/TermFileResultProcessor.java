@@ -1,19 +1,38 @@
 package org.metadatacenter.biosample.analyzer;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Finds the values of a complete list of terms that appear in a list of tested terms ("term,isValid" lines), and
+ * writes them with their validity. The join streams the complete list against an in-memory map of the tested list
+ * when that map fits in the memory budget. Otherwise both lists are first split by hash into partitions on disk
+ * (a Grace hash join), and each pair of partitions is joined in turn, splitting further if needed. The complete
+ * list (or partition) is probed against the map on all cores with a {@link MappedLineEngine}. When the lists are
+ * partitioned, matches are written grouped by partition rather than in the order of the complete list.
+ *
  * @author Rafael Gonçalves <br>
  * Center for Biomedical Informatics Research <br>
  * Stanford University
  */
 public class TermFileResultProcessor {
+  private static final int MAX_PARTITION_LEVELS = 6;
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final byte[] TRUE = ",true\n".getBytes(), FALSE = ",false\n".getBytes();
   File completeList, testedList;
+  private final MappedLineEngine engine;
+  private long duplicates = 0, malformed = 0;
 
-  public TermFileResultProcessor(File completeList, File testedList) {
+  public TermFileResultProcessor(File completeList, File testedList, MappedLineEngine engine) {
     this.completeList = completeList;
     this.testedList = testedList;
+    this.engine = engine;
+  }
+
+  public TermFileResultProcessor(File completeList, File testedList) {
+    this(completeList, testedList, new MappedLineEngine());
   }
 
   public Map<String,Boolean> parseTestedList() throws IOException {
@@ -65,29 +84,250 @@ public class TermFileResultProcessor {
       writer.write(",");
       writer.write(String.valueOf(r.getValue()));
       writer.write("\n");
-      writer.flush();
     }
     writer.close();
   }
 
+  /**
+   * Join the complete list with the tested list, appending matches to the given file
+   *
+   * @param memoryBudget Maximum number of bytes to use for the in-memory map of (a partition of) the tested list,
+   *                     counting the copies of its arrays made while it grows. Budgets above
+   *                     {@link CompactStringBooleanMap#MAX_MEMORY_USAGE}, the most a single map can address, are
+   *                     lowered to it, so larger lists are partitioned
+   * @return The number of matches
+   */
+  public long join(File outputFile, long memoryBudget) throws IOException {
+    long budget = Math.min(memoryBudget, CompactStringBooleanMap.MAX_MEMORY_USAGE);
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile, true), BUFFER_SIZE)) {
+      duplicates = malformed = 0;
+      long matches = join(testedList, completeList, out, budget, 0);
+      if(duplicates > 0 || malformed > 0) {
+        System.out.println("Tested list has " + duplicates + " duplicate values and " + malformed
+            + " lines without a validity value");
+      }
+      System.out.println("Found matches for " + matches + " terms");
+      return matches;
+    }
+  }
+
+  private long join(File tested, File complete, OutputStream out, long memoryBudget, int level) throws IOException {
+    BuildResult build = buildMap(tested, memoryBudget);
+    if(build.map != null) {
+      return probe(complete, build.map, out);
+    }
+    if(level == MAX_PARTITION_LEVELS) {
+      throw new IOException("Could not partition " + tested + " to fit in " + memoryBudget + " bytes");
+    }
+    // size the partitions from the peak memory per input byte that made the build give up
+    double estimate = build.memoryPerByte * tested.length() * 1.5;
+    int partitions = Integer.highestOneBit((int) Math.min(1 << 16, Math.ceil(estimate / memoryBudget)) * 2 - 1);
+    partitions = Math.max(2, partitions);
+    System.out.println("Tested list " + tested.getName() + " does not fit in memory; splitting into " + partitions
+        + " partitions");
+    File directory = Files.createTempDirectory("term-join").toFile();
+    try {
+      File[] testedPartitions = partition(tested, directory, "tested", partitions, level + 1, true);
+      File[] completePartitions = partition(complete, directory, "complete", partitions, level + 1, false);
+      long matches = 0;
+      for(int i = 0; i < partitions; i++) {
+        matches += join(testedPartitions[i], completePartitions[i], out, memoryBudget, level + 1);
+        testedPartitions[i].delete();
+        completePartitions[i].delete();
+      }
+      return matches;
+    } finally {
+      File[] leftovers = directory.listFiles();
+      if(leftovers != null) {
+        for(File leftover : leftovers) {
+          leftover.delete();
+        }
+      }
+      directory.delete();
+    }
+  }
+
+  /*
+   * Build the map of a tested list, or give up as soon as it outgrows the memory budget
+   */
+  private BuildResult buildMap(File tested, long memoryBudget) throws IOException {
+    CompactStringBooleanMap map = new CompactStringBooleanMap(1024);
+    long bytesRead = 0, duplicates = 0, malformed = 0;
+    try (LineReader reader = new LineReader(tested)) {
+      while(reader.next()) {
+        bytesRead += reader.length + 1;
+        int comma = reader.indexOf((byte) ',', 0);
+        if(comma == -1) {
+          malformed++;
+          continue;
+        }
+        int next = reader.indexOf((byte) ',', comma + 1);
+        boolean isValid = reader.equalsIgnoreCase(comma + 1, (next == -1 ? reader.length : next) - comma - 1, "true");
+        // check before the put, which may allocate a grown copy of the map's arrays next to the old ones
+        long peak = map.getMemoryUsageToPut(comma);
+        if(peak > memoryBudget) {
+          return new BuildResult(null, (double) peak / bytesRead);
+        }
+        if(map.put(reader.line, reader.start, comma, isValid)) {
+          duplicates++;
+        }
+      }
+    }
+    this.duplicates += duplicates;
+    this.malformed += malformed;
+    return new BuildResult(map, 0);
+  }
+
+  private long probe(File complete, CompactStringBooleanMap map, OutputStream out) throws IOException {
+    LongAdder matches = new LongAdder();
+    engine.transform(complete, out, (line, output) -> {
+      int value = map.get(line.getBytes(), line.getStart(), line.getLength());
+      if(value != CompactStringBooleanMap.ABSENT) {
+        output.write(line.getBytes(), line.getStart(), line.getLength());
+        output.write(value == 1 ? TRUE : FALSE);
+        matches.increment();
+      }
+    });
+    return matches.sum();
+  }
+
+  /*
+   * Split a list into partitions by the hash of each line's key: the text before the first comma for the tested
+   * list, or the whole line for the complete list
+   */
+  private File[] partition(File input, File directory, String name, int partitions, int level, boolean keyed)
+      throws IOException {
+    File[] files = new File[partitions];
+    OutputStream[] outputs = new OutputStream[partitions];
+    try (LineReader reader = new LineReader(input)) {
+      for(int i = 0; i < partitions; i++) {
+        files[i] = new File(directory, name + "-" + level + "-" + i);
+        outputs[i] = new BufferedOutputStream(new FileOutputStream(files[i]), BUFFER_SIZE);
+      }
+      while(reader.next()) {
+        int keyLength = reader.length;
+        if(keyed) {
+          int comma = reader.indexOf((byte) ',', 0);
+          keyLength = (comma == -1 ? reader.length : comma);
+        }
+        int p = CompactStringBooleanMap.hash(reader.line, reader.start, keyLength, level) & (partitions - 1);
+        outputs[p].write(reader.line, reader.start, reader.length);
+        outputs[p].write('\n');
+      }
+    } finally {
+      for(OutputStream output : outputs) {
+        if(output != null) {
+          output.close();
+        }
+      }
+    }
+    return files;
+  }
+
+  private static final class BuildResult {
+    private final CompactStringBooleanMap map;
+    private final double memoryPerByte;
+
+    BuildResult(CompactStringBooleanMap map, double memoryPerByte) {
+      this.map = map;
+      this.memoryPerByte = memoryPerByte;
+    }
+  }
+
+  /*
+   * Reads the lines of a file as byte ranges of a reused buffer, without decoding them into strings. Line
+   * terminators ("\n" or "\r\n") are not included
+   */
+  private static final class LineReader implements Closeable {
+    private final InputStream in;
+    private byte[] line = new byte[BUFFER_SIZE];
+    private int start = 0, length = 0, end = 0, limit = 0;
+    private boolean eof = false;
+
+    LineReader(File file) throws IOException {
+      this.in = new FileInputStream(file);
+    }
+
+    boolean next() throws IOException {
+      start = end;
+      while(true) {
+        for(int i = start; i < limit; i++) {
+          if(line[i] == '\n') {
+            length = i - start;
+            end = i + 1;
+            if(length > 0 && line[i - 1] == '\r') {
+              length--;
+            }
+            return true;
+          }
+        }
+        if(eof) {
+          if(start < limit) {
+            length = limit - start;
+            end = limit;
+            return true;
+          }
+          return false;
+        }
+        fill();
+      }
+    }
+
+    private void fill() throws IOException {
+      // move the partial line to the front of the buffer, growing it if the line fills it
+      int remaining = limit - start;
+      if(remaining == line.length) {
+        line = Arrays.copyOf(line, line.length * 2);
+      } else {
+        System.arraycopy(line, start, line, 0, remaining);
+      }
+      start = 0;
+      limit = remaining;
+      int read = in.read(line, limit, line.length - limit);
+      if(read == -1) {
+        eof = true;
+      } else {
+        limit += read;
+      }
+    }
+
+    int indexOf(byte b, int from) {
+      for(int i = start + from; i < start + length; i++) {
+        if(line[i] == b) {
+          return i - start;
+        }
+      }
+      return -1;
+    }
+
+    boolean equalsIgnoreCase(int from, int count, String ascii) {
+      if(count != ascii.length()) {
+        return false;
+      }
+      for(int i = 0; i < count; i++) {
+        if(Character.toLowerCase((char) line[start + from + i]) != ascii.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
   public static void main(String[] args) throws IOException {
     File completeList = new File(args[0]);
     File testedList = new File(args[1]);
     String outputFilePath = args[2];
+    long memoryBudget = (args.length > 3 ? Long.parseLong(args[3]) * 1024 * 1024 : Runtime.getRuntime().maxMemory() / 2);
 
-    System.out.println("Processing tested list file");
+    System.out.println("Joining " + completeList.getAbsolutePath() + " with " + testedList.getAbsolutePath()
+        + " using up to " + memoryBudget / (1024 * 1024) + " MB");
     TermFileResultProcessor p = new TermFileResultProcessor(completeList, testedList);
-    Map<String,Boolean> map = p.parseTestedList();
-    System.out.println("Map size " + map.size());
-
-    System.out.println("Processing complete list file");
-    List<String> list = Utils.parseFile(completeList);
-    System.out.println("Complete list size: " + list.size());
-
-    System.out.println("Verifying values");
-    List<TermCheckResult> result = p.verifyValues(list, map);
-
-    p.serialize(result, outputFilePath);
+    p.join(new File(outputFilePath), memoryBudget);
   }
 }
 
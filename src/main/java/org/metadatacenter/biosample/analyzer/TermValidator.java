@@ -4,6 +4,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
@@ -13,12 +15,16 @@ import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.FileReader;
@@ -40,35 +46,82 @@ import org.apache.commons.cli.ParseException;
 public final class TermValidator {
   @Nonnull
   private final BioPortalAgent bioPortalAgent;
+
   @Nonnull
-  private final static Pattern p1 = Pattern.compile(" ");
+  private final Cache<String,TermValidationReport> termCache;
   @Nonnull
-  private final static Pattern p2 = Pattern.compile("%");
+  private final ConcurrentMap<String,CompletableFuture<TermValidationReport>> pendingLookups =
+      new ConcurrentHashMap<>();
   @Nonnull
-  private final static Pattern p3 = Pattern.compile("\\.");
+  private final static Metrics.Counter cacheHits = Metrics.counter("termCache.hits"),
+      cacheMisses = Metrics.counter("termCache.misses"), coalescedLookups = Metrics.counter("termCache.coalesced");
+  public final static long DEFAULT_CACHE_SIZE = 1000000;
 
   public TermValidator(@Nonnull BioPortalAgent bioPortalAgent) {
+    this(bioPortalAgent, newTermCache(DEFAULT_CACHE_SIZE));
+  }
+
+  /**
+   * Create a term validator that shares the given cache of search results, e.g. with other validators in the
+   * same JVM. The cache is keyed by search string, exact-match flag and ontologies.
+   */
+  public TermValidator(@Nonnull BioPortalAgent bioPortalAgent, @Nonnull Cache<String,TermValidationReport> termCache) {
     this.bioPortalAgent = checkNotNull(bioPortalAgent);
+    this.termCache = checkNotNull(termCache);
+  }
+
+  @Nonnull
+  public static Cache<String,TermValidationReport> newTermCache(long maximumSize) {
+    return CacheBuilder.newBuilder().maximumSize(maximumSize).build();
   }
 
   public TermValidationReport validateTerm(@Nonnull String term, boolean exactMatch, @Nonnull String... ontologies) {
-    String searchString = p1.matcher(term).replaceAll("+");
-    searchString = p2.matcher(searchString).replaceAll("");
-    searchString = p3.matcher(searchString).replaceAll("");
+    String searchString = TermCanonicalizer.canonicalize(term, false);
 
-    Optional<JsonNode> searchResult = Optional.empty();
-    if (!searchString.trim().isEmpty()) {
-      if (ontologies.length > 0) {
-        String onts = "";
-        for (int i = 0; i < ontologies.length; i++) {
-          onts += ontologies[i] + (i == ontologies.length - 1 ? "" : ",");
+    String onts = "";
+    for (int i = 0; i < ontologies.length; i++) {
+      onts += ontologies[i] + (i == ontologies.length - 1 ? "" : ",");
+    }
+    String cacheKey = searchString + '\t' + exactMatch + '\t' + onts;
+    TermValidationReport cached = termCache.getIfPresent(cacheKey);
+    if (cached != null) {
+      cacheHits.increment();
+      return cached;
+    }
+    // concurrent misses on the same term share one request
+    CompletableFuture<TermValidationReport> lookup = new CompletableFuture<>();
+    CompletableFuture<TermValidationReport> inFlight = pendingLookups.putIfAbsent(cacheKey, lookup);
+    if (inFlight != null) {
+      coalescedLookups.increment();
+      return inFlight.join();
+    }
+    cacheMisses.increment();
+    try {
+      Optional<JsonNode> searchResult = Optional.empty();
+      if (!searchString.trim().isEmpty()) {
+        if (ontologies.length > 0) {
+          searchResult = bioPortalAgent.getResult(searchString, exactMatch, onts);
+        } else {
+          searchResult = bioPortalAgent.getResult(searchString, exactMatch);
         }
-        searchResult = bioPortalAgent.getResult(searchString, exactMatch, onts);
-      } else {
-        searchResult = bioPortalAgent.getResult(searchString, exactMatch);
       }
+      TermValidationReport report = toReport(searchResult);
+      // failed requests come back empty; only cache actual answers
+      if (searchResult.isPresent() || searchString.trim().isEmpty()) {
+        termCache.put(cacheKey, report);
+      }
+      lookup.complete(report);
+      return report;
+    } catch (RuntimeException e) {
+      lookup.completeExceptionally(e);
+      throw e;
+    } finally {
+      pendingLookups.remove(cacheKey);
     }
+  }
 
+  @Nonnull
+  private TermValidationReport toReport(@Nonnull Optional<JsonNode> searchResult) {
     if (searchResult.isPresent() && searchResult.get().elements().hasNext()) {
       // look at the first result from BioPortal
       JsonNode node = searchResult.get().elements().next();
@@ -114,9 +167,7 @@ public final class TermValidator {
   }
 
   public ArrayList<TermValidationReport> validateTermMulti(@Nonnull String term, boolean exactMatch, @Nonnull String... ontologies) {
-    String searchString = p1.matcher(term).replaceAll("+");
-    searchString = p2.matcher(searchString).replaceAll("");
-    searchString = p3.matcher(searchString).replaceAll("");
+    String searchString = TermCanonicalizer.canonicalize(term, false);
 
     Optional<JsonNode> searchResult = Optional.empty();
     if (!searchString.trim().isEmpty()) {
@@ -313,16 +364,15 @@ public final class TermValidator {
     ArrayList<String> index_list = new ArrayList<String>();
     ArrayList<String> keywords_list = new ArrayList<String>();
 
-    BufferedReader br = new BufferedReader(new FileReader(ifname.toFile()));
-    String line;
-    while (((line = br.readLine()) != null) && line != ""){
+    List<String[]> rows = new MappedLineEngine().collect(ifname.toFile(), line -> {
       String cols[] = line.split("\t",0);
-      if (cols.length < 3) continue;
+      return (cols.length < 3) ? null : cols;
+    });
+    for (String[] cols : rows) {
       index_list.add(cols[0]);
       keywords_list.add(cols[2]);
     }
-    br.close();
-    
+
     TermValidator validator = new TermValidator(new BioPortalAgent(bioPortalApiKey));
     FileWriter fw = (ofname != null) ? new FileWriter(ofname.toFile(),true) : null;
     for (int i=0; i<keywords_list.size(); i++){
@@ -338,6 +388,11 @@ public final class TermValidator {
       ArrayList<TermValidationReport> reports = new ArrayList<TermValidationReport>();
       int num_retries = 0;
       while (true) {
+        // while BioPortal is paused, wait for it rather than writing out empty results
+        long pause = BioPortalAgent.getRemainingPause(TimeUnit.MILLISECONDS);
+        if (pause > 0) {
+          Thread.sleep(pause);
+        }
         try {
           if (allResults==true) {
             reports = validator.validateTermMulti(term, exactMatch);
@@ -362,10 +417,12 @@ public final class TermValidator {
             break;
           }
           System.out.println(e);
-          System.out.println("Caught system error trying to validate "+term+", retrying in 30 seconds with new agent...");
+          // back off exponentially; the agents share their limiter and breaker, so a new agent would not help
+          long backoff = 1000L << num_retries;
+          System.out.println("Caught system error trying to validate "+term+", retrying in "+backoff/1000+" seconds...");
           num_retries++;
-          // Thread.sleep(30000);
-          validator = new TermValidator(new BioPortalAgent(bioPortalApiKey));
+          Metrics.counter("bioportal.retries").increment();
+          Thread.sleep(backoff);
           continue;
         }
       }
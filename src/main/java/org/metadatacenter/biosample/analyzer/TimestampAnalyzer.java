@@ -1,11 +1,11 @@
 package org.metadatacenter.biosample.analyzer;
 
 import javax.annotation.Nonnull;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.OutputStream;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -17,45 +17,41 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public final class TimestampAnalyzer {
   @Nonnull private final File timestampFile;
+  @Nonnull private final MappedLineEngine engine;
+  @Nonnull private final GenericValidator validator = new GenericValidator(new TermValidator(new BioPortalAgent("")));
 
-  public TimestampAnalyzer(@Nonnull File timestampFile) {
+  public TimestampAnalyzer(@Nonnull File timestampFile, @Nonnull MappedLineEngine engine) {
     this.timestampFile = checkNotNull(timestampFile);
+    this.engine = checkNotNull(engine);
   }
 
-  @Nonnull
-  public List<TermCheckResult> analyseTimestamps() throws IOException {
-    List<String> timestamps = Utils.parseFile(timestampFile);
-    return validate(timestamps);
+  public TimestampAnalyzer(@Nonnull File timestampFile) {
+    this(timestampFile, new MappedLineEngine());
   }
 
   @Nonnull
-  public List<TermCheckResult> analyseTimestamps(@Nonnull String outputFile) throws IOException {
-    List<TermCheckResult> results = analyseTimestamps();
-    serialize(results, outputFile);
-    return results;
+  public List<TermCheckResult> analyseTimestamps() throws IOException {
+    return engine.collect(timestampFile, s -> new TermCheckResult(s, validator.isValidDateFormat(s)));
   }
 
-  @Nonnull
-  private List<TermCheckResult> validate(@Nonnull List<String> values) {
-    List<TermCheckResult> output = new ArrayList<>();
-    GenericValidator val = new GenericValidator(new TermValidator(new BioPortalAgent("")));
-    for(String s : values) {
-      boolean isValid = val.isValidDateFormat(s);
-      output.add(new TermCheckResult(s, isValid));
+  /**
+   * Validate all timestamps and append the results to the given file, without holding them in memory
+   *
+   * @return The number of timestamps validated
+   */
+  public long analyseTimestamps(@Nonnull String outputFile) throws IOException {
+    try (OutputStream output = new BufferedOutputStream(new FileOutputStream(outputFile, true), 1 << 16)) {
+      return engine.transform(timestampFile, output, (line, out) -> {
+        String s = line.getLine();
+        out.write("\"" + s + "\",\"" + validator.isValidDateFormat(s) + "\"\n");
+      });
     }
-    return output;
   }
 
-  private void serialize(List<TermCheckResult> list, String outputPath) throws IOException {
-    File output = new File(outputPath);
-    BufferedWriter writer = new BufferedWriter(new FileWriter(output, true));
-    for(TermCheckResult r : list) {
-      writer.write("\"" + r.getKey() + "\"");
-      writer.write(",");
-      writer.write("\"" + String.valueOf(r.getValue()) + "\"");
-      writer.write("\n");
-      writer.flush();
-    }
-    writer.close();
+  public static void main(String[] args) throws IOException {
+    File timestampFile = new File(args[0]);
+    String outputFilePath = args[1];
+    long count = new TimestampAnalyzer(timestampFile).analyseTimestamps(outputFilePath);
+    System.out.println("Validated " + count + " timestamps");
   }
 }
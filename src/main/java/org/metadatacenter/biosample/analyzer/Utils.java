@@ -15,7 +15,6 @@ public class Utils {
   @Nonnull public static final String LOCATION_SEPARATOR = ":";
 
   @Nonnull private static Set<String> invalidAttributeEntries = new HashSet<>();
-  @Nonnull private static List<String> validLocations = new ArrayList<>();
 
   static {
     invalidAttributeEntries.add("not applicable");
@@ -31,22 +30,6 @@ public class Utils {
     invalidAttributeEntries.add("none provided");
   }
 
-  static {
-    try {
-      InputStream inputStream = Utils.class.getClassLoader().getResourceAsStream("country-list.txt");
-      BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-      String line = reader.readLine();
-      while(line != null) {
-        validLocations.add(line.trim());
-        line = reader.readLine();
-      }
-      reader.close();
-      inputStream.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-  }
-
   @Nonnull
   public static boolean isInvalidEntry(String s) {
     return invalidAttributeEntries.contains(s);
@@ -57,9 +40,12 @@ public class Utils {
     return invalidAttributeEntries;
   }
 
+  /**
+   * Get the valid locations of the current schema (see {@link SchemaRegistry})
+   */
   @Nonnull
   public static List<String> getValidLocations() {
-    return validLocations;
+    return SchemaRegistry.current().getValidLocations();
   }
 
   @Nonnull
@@ -0,0 +1,367 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A resident validation service that validates BioSample records posted over HTTP with the rules of
+ * {@link GenericValidator}, so that clients such as a submission portal do not pay JVM startup, schema loading and a
+ * cold term cache for each record. Records are posted to {@code /validate} as BioSample XML (one or more
+ * {@code BioSample} elements), as a JSON record or as a JSON array of records (see {@link ReportJson}), and the
+ * response holds the validation report of each record in the same JSON shape.
+ * <p>
+ * Records of concurrent requests are micro-batched: a batch is collected until it reaches a maximum size or the
+ * oldest record has waited a few milliseconds, and the distinct ontology terms of the whole batch are looked up
+ * concurrently before its records are validated, so records that arrive together share one round of term lookups.
+ * The term cache lives as long as the service.
+ */
+public final class ValidationService {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(ValidationService.class.getName());
+  public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+  public static final long DEFAULT_MAX_BATCH_WAIT_MILLIS = 5;
+  private static final long REQUEST_TIMEOUT_SECS = 120;
+  private static final String VALIDATE_PATH = "/validate", SCHEMA_RELOAD_PATH = "/schema/reload";
+
+  @Nonnull private final GenericValidator validator;
+  @Nonnull private final HttpServer server;
+  @Nonnull private final ExecutorService requestExecutor;
+  @Nonnull private final ExecutorService lookupExecutor;
+  @Nonnull private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+  @Nonnull private final Thread batcher;
+  @Nonnull private final ObjectMapper mapper = new ObjectMapper();
+  private final int maxBatchSize;
+  private final long maxBatchWaitNanos;
+  @Nonnull private final Metrics.Counter recordsCounter = Metrics.counter("service.records"),
+      batchesCounter = Metrics.counter("service.batches");
+  @Nonnull private final Metrics.Timer requestTimer = Metrics.timer("service.request");
+
+  /**
+   * @param validator          Validator to validate records with
+   * @param address            Address to listen on. The service has no authentication, so anything but the loopback
+   *                           address lets other hosts validate records and reload the schema
+   * @param port               Port to listen on, or 0 for any free port
+   * @param threads            Number of threads that handle requests
+   * @param lookupThreads      Number of threads that look up terms and validate records
+   * @param maxBatchSize       Maximum number of records in a batch
+   * @param maxBatchWaitMillis Maximum time that a record waits for others to join its batch
+   */
+  public ValidationService(@Nonnull GenericValidator validator, @Nonnull InetAddress address, int port, int threads,
+                           int lookupThreads, int maxBatchSize, long maxBatchWaitMillis) throws IOException {
+    checkArgument(threads > 0 && lookupThreads > 0, "Number of threads must be positive");
+    checkArgument(maxBatchSize > 0, "Batch size must be positive");
+    checkArgument(maxBatchWaitMillis >= 0, "Batch wait must not be negative");
+    this.validator = checkNotNull(validator);
+    this.maxBatchSize = maxBatchSize;
+    this.maxBatchWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchWaitMillis);
+    this.requestExecutor = HttpServers.newThreadPool(threads, "validation-request");
+    this.lookupExecutor = HttpServers.newThreadPool(lookupThreads, "validation-lookup");
+    this.server = HttpServers.create(address, port, requestExecutor);
+    server.createContext(VALIDATE_PATH, this::handle);
+    server.createContext(SCHEMA_RELOAD_PATH, this::handleSchemaReload);
+    this.batcher = new Thread(this::runBatches, "validation-batcher");
+    batcher.setDaemon(true);
+  }
+
+  /**
+   * Create a service that listens on the loopback address only
+   */
+  public ValidationService(@Nonnull GenericValidator validator, int port, int threads, int lookupThreads,
+                           int maxBatchSize, long maxBatchWaitMillis) throws IOException {
+    this(validator, InetAddress.getLoopbackAddress(), port, threads, lookupThreads, maxBatchSize, maxBatchWaitMillis);
+  }
+
+  public void start() {
+    batcher.start();
+    server.start();
+    logger.info("Validation service listening on " + server.getAddress());
+  }
+
+  public void stop() {
+    server.stop(0);
+    batcher.interrupt();
+    requestExecutor.shutdownNow();
+    lookupExecutor.shutdownNow();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Validate the given record as part of the next batch
+   */
+  @Nonnull
+  public CompletableFuture<RecordValidationReport> submit(@Nonnull Record record) {
+    PendingRecord pending = new PendingRecord(checkNotNull(record));
+    queue.add(pending);
+    return pending.result;
+  }
+
+  private void runBatches() {
+    List<PendingRecord> batch = new ArrayList<>(maxBatchSize);
+    try {
+      while(!Thread.currentThread().isInterrupted()) {
+        batch.add(queue.take());
+        long deadline = System.nanoTime() + maxBatchWaitNanos;
+        while(batch.size() < maxBatchSize) {
+          PendingRecord next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if(next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+        validateBatch(batch);
+        batch = new ArrayList<>(maxBatchSize);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void validateBatch(@Nonnull List<PendingRecord> batch) {
+    batchesCounter.increment();
+    recordsCounter.add(batch.size());
+    List<Record> records = new ArrayList<>(batch.size());
+    for(PendingRecord pending : batch) {
+      records.add(pending.record);
+    }
+    // the lookups and validation run on the lookup threads, so that the batcher goes on collecting the next batch
+    // while a slow lookup holds up this one
+    CompletableFuture<Void> prefetch;
+    try {
+      prefetch = validator.startPrefetchingTerms(records, lookupExecutor);
+    } catch (RuntimeException e) {
+      prefetch = CompletableFuture.completedFuture(null);
+      logPrefetchFailure(batch, e);
+    }
+    prefetch.whenComplete((ignored, e) -> {
+      if(e != null) {
+        logPrefetchFailure(batch, e);
+      }
+      for(PendingRecord pending : batch) {
+        CompletableFuture.runAsync(() -> {
+          try {
+            pending.result.complete(validator.validateBioSampleRecord(pending.record));
+          } catch (RuntimeException ex) {
+            pending.result.completeExceptionally(ex);
+          }
+        }, lookupExecutor);
+      }
+    });
+  }
+
+  private static void logPrefetchFailure(@Nonnull List<PendingRecord> batch, @Nonnull Throwable e) {
+    // records whose terms failed to load are looked up again as they are validated
+    logger.warn("Could not look up terms of a batch of " + batch.size() + " records", e);
+  }
+
+  private void handle(@Nonnull HttpExchange exchange) throws IOException {
+    long start = System.nanoTime();
+    try {
+      if(!"POST".equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().set("Allow", "POST");
+        HttpServers.respond(exchange, 405, HttpServers.error("expected POST " + VALIDATE_PATH));
+        return;
+      }
+      byte[] body;
+      try (InputStream in = exchange.getRequestBody()) {
+        body = ByteStreams.toByteArray(in);
+      }
+      List<Record> records = new ArrayList<>();
+      boolean array;
+      try {
+        array = parseRecords(body, records);
+      } catch (IOException | RuntimeException e) {
+        HttpServers.respond(exchange, 400, HttpServers.error("Could not read records: " + e.getMessage()));
+        return;
+      }
+      if(records.isEmpty()) {
+        HttpServers.respond(exchange, 400, HttpServers.error("No records in request"));
+        return;
+      }
+      List<CompletableFuture<RecordValidationReport>> results = new ArrayList<>(records.size());
+      for(Record record : records) {
+        results.add(submit(record));
+      }
+      try {
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()]))
+            .get(REQUEST_TIMEOUT_SECS, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        HttpServers.respond(exchange, 503, HttpServers.error("Service is shutting down"));
+        return;
+      } catch (ExecutionException | TimeoutException e) {
+        logger.error("Could not validate records", e);
+        HttpServers.respond(exchange, 500, HttpServers.error("Could not validate records: " + e));
+        return;
+      }
+      HttpServers.respond(exchange, 200, toJson(results, array));
+    } finally {
+      exchange.close();
+      requestTimer.recordSince(start);
+    }
+  }
+
+  /*
+   * Reload the attribute schema. Records already being validated finish with the schema they started with
+   */
+  private void handleSchemaReload(@Nonnull HttpExchange exchange) throws IOException {
+    try {
+      if(!"POST".equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().set("Allow", "POST");
+        HttpServers.respond(exchange, 405, HttpServers.error("expected POST " + SCHEMA_RELOAD_PATH));
+        return;
+      }
+      SchemaSnapshot snapshot;
+      try {
+        snapshot = SchemaRegistry.reload();
+      } catch (IOException | RuntimeException e) {
+        logger.error("Could not reload the attribute schema", e);
+        HttpServers.respond(exchange, 500, HttpServers.error("Could not reload the attribute schema: " + e));
+        return;
+      }
+      HttpServers.respond(exchange, 200, ("{\"version\":" + snapshot.getVersion() + ",\"attributes\":"
+          + snapshot.getAttributeNames().size() + "}").getBytes(StandardCharsets.UTF_8));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /*
+   * Parse the records in a request body, which holds either JSON or BioSample XML. Returns whether the records were
+   * given as an array (or set), in which case the response is an array as well
+   */
+  private boolean parseRecords(@Nonnull byte[] body, @Nonnull List<Record> records) throws IOException {
+    int first = 0;
+    while(first < body.length && Character.isWhitespace(body[first])) {
+      first++;
+    }
+    if(first == body.length) {
+      return false;
+    }
+    if(body[first] == '{' || body[first] == '[') {
+      JsonNode node;
+      try {
+        node = mapper.readTree(body);
+      } catch (JsonProcessingException e) {
+        throw new IOException(e.getOriginalMessage(), e);
+      }
+      if(node.isArray()) {
+        for(JsonNode element : node) {
+          records.add(ReportJson.readRecord(element));
+        }
+        return true;
+      }
+      records.add(ReportJson.readRecord(node));
+      return false;
+    }
+    try (RecordStreamParser parser = new RecordStreamParser(new ByteArrayInputStream(body))) {
+      while(parser.hasNext()) {
+        records.add(parser.next());
+      }
+    }
+    return records.size() > 1;
+  }
+
+  @Nonnull
+  private byte[] toJson(@Nonnull List<CompletableFuture<RecordValidationReport>> results, boolean array)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096 * results.size());
+    try (JsonGenerator json = mapper.getFactory().createGenerator(bytes, JsonEncoding.UTF8)) {
+      if(array) {
+        json.writeStartArray();
+      }
+      for(CompletableFuture<RecordValidationReport> result : results) {
+        RecordValidationReport report = result.join();
+        ReportJson.write(json, report, validator.isValid(report));
+      }
+      if(array) {
+        json.writeEndArray();
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static final class PendingRecord {
+    @Nonnull final Record record;
+    @Nonnull final CompletableFuture<RecordValidationReport> result = new CompletableFuture<>();
+
+    PendingRecord(@Nonnull Record record) {
+      this.record = record;
+    }
+  }
+
+  public static void main(String[] args) throws IOException, ParseException {
+    Options options = new Options();
+    options.addOption("k", true, "BioPortal API key");
+    options.addOption("host", true, "Address to listen on, e.g. 0.0.0.0 for all interfaces. Requests are not "
+        + "authenticated, so only listen beyond the local host behind a proxy or firewall. Default: loopback address");
+    options.addOption("p", true, "Port to listen on. Default 8081");
+    options.addOption("threads", true, "Number of request threads. Default: 2 x nr of cores");
+    options.addOption("lookupThreads", true, "Number of concurrent term lookups. Default 16");
+    options.addOption("batchSize", true, "Maximum number of records validated in one batch. Default "
+        + DEFAULT_MAX_BATCH_SIZE);
+    options.addOption("batchWait", true, "Milliseconds that a record waits for others to join its batch. Default "
+        + DEFAULT_MAX_BATCH_WAIT_MILLIS);
+    options.addOption("schema", true, "Folder with attributes.csv and/or country-list.txt to use instead of the bundled "
+        + "schema files. The schema is reloaded from there on POST " + SCHEMA_RELOAD_PATH);
+    options.addOption("schemaReload", true, "Seconds between checks of the -schema folder for changes. Default: no "
+        + "checks");
+    CommandLineParser parser = new DefaultParser();
+    CommandLine cmd = parser.parse(options, args);
+    InetAddress address = (cmd.hasOption("host") ? InetAddress.getByName(cmd.getOptionValue("host")) :
+        InetAddress.getLoopbackAddress());
+    int port = Integer.parseInt(cmd.getOptionValue("p", "8081"));
+    int threads = Integer.parseInt(cmd.getOptionValue("threads",
+        String.valueOf(2 * Runtime.getRuntime().availableProcessors())));
+    int lookupThreads = Integer.parseInt(cmd.getOptionValue("lookupThreads", "16"));
+    int batchSize = Integer.parseInt(cmd.getOptionValue("batchSize", String.valueOf(DEFAULT_MAX_BATCH_SIZE)));
+    long batchWait = Long.parseLong(cmd.getOptionValue("batchWait", String.valueOf(DEFAULT_MAX_BATCH_WAIT_MILLIS)));
+
+    if(cmd.hasOption("schema")) {
+      SchemaRegistry.useFolder(new File(cmd.getOptionValue("schema")));
+      if(cmd.hasOption("schemaReload")) {
+        SchemaRegistry.watch(Long.parseLong(cmd.getOptionValue("schemaReload")));
+      }
+    }
+    GenericValidator validator = new GenericValidator(new TermValidator(new BioPortalAgent(cmd.getOptionValue("k"))));
+    ValidationService service = new ValidationService(validator, address, port, threads, lookupThreads, batchSize,
+        batchWait);
+    Runtime.getRuntime().addShutdownHook(new Thread(service::stop));
+    service.start();
+  }
+}
@@ -0,0 +1,152 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Pre-computed word vectors (e.g. GloVe, or word2vec/fastText in text format), held in an off-heap matrix so that
+ * millions of vectors do not weigh on the garbage collector. The matrix is split into blocks of rows of up to
+ * {@value #BLOCK_BYTES} bytes, allocated as the file is read, so that it is not bounded by the 2GB limit of a single
+ * buffer and growing it never copies the vectors read so far. Vectors are normalized to unit length when loaded, so
+ * the cosine similarity of two vectors is their dot product.
+ */
+public final class WordVectors {
+  @Nonnull private static final Logger logger = LoggerFactory.getLogger(WordVectors.class.getName());
+  @Nonnull private static final Pattern separator = Pattern.compile(" ");
+  private static final int BLOCK_BYTES = 64 * 1024 * 1024;
+
+  @Nonnull private final Map<String,Integer> words;
+  @Nonnull private final List<FloatBuffer> blocks;
+  private final int dimension, rowsPerBlock;
+
+  private WordVectors(@Nonnull Map<String,Integer> words, @Nonnull List<FloatBuffer> blocks, int dimension,
+                      int rowsPerBlock) {
+    this.words = checkNotNull(words);
+    this.blocks = checkNotNull(blocks);
+    this.dimension = dimension;
+    this.rowsPerBlock = rowsPerBlock;
+  }
+
+  /**
+   * Load word vectors from a text file with one word per line followed by its space-separated components. A
+   * word2vec-style header line giving the number of words and the dimension is skipped if present
+   */
+  @Nonnull
+  public static WordVectors load(@Nonnull File file) throws IOException {
+    Map<String,Integer> words = new HashMap<>();
+    List<FloatBuffer> blocks = new ArrayList<>();
+    int dimension = -1, rowsPerBlock = 0, count = 0;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+        StandardCharsets.UTF_8), 1 << 16)) {
+      String line;
+      while((line = reader.readLine()) != null) {
+        String[] tokens = separator.split(line.trim());
+        if(tokens.length <= 2) {
+          continue; // header or blank line
+        }
+        if(dimension == -1) {
+          dimension = tokens.length - 1;
+          rowsPerBlock = Math.max(1, BLOCK_BYTES / (dimension * Float.BYTES));
+        }
+        if(tokens.length - 1 != dimension || words.containsKey(tokens[0])) {
+          continue;
+        }
+        if(count % rowsPerBlock == 0) {
+          blocks.add(ByteBuffer.allocateDirect(rowsPerBlock * dimension * Float.BYTES).order(ByteOrder.nativeOrder())
+              .asFloatBuffer());
+        }
+        FloatBuffer block = blocks.get(blocks.size() - 1);
+        float[] vector = new float[dimension];
+        for(int i = 0; i < dimension; i++) {
+          vector[i] = Float.parseFloat(tokens[i + 1]);
+        }
+        normalize(vector);
+        block.put(vector);
+        words.put(tokens[0], count++);
+      }
+    }
+    checkArgument(dimension > 0, "No word vectors found in " + file);
+    logger.info("Loaded " + count + " word vectors of dimension " + dimension + " from " + file);
+    return new WordVectors(words, blocks, dimension, rowsPerBlock);
+  }
+
+  /**
+   * Scale the given vector to unit length
+   *
+   * @return false if the vector is all zeros, and so cannot be normalized
+   */
+  static boolean normalize(@Nonnull float[] vector) {
+    double norm = 0;
+    for(float v : vector) {
+      norm += v * v;
+    }
+    if(norm == 0) {
+      return false;
+    }
+    float scale = (float) (1 / Math.sqrt(norm));
+    for(int i = 0; i < vector.length; i++) {
+      vector[i] *= scale;
+    }
+    return true;
+  }
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  public int size() {
+    return words.size();
+  }
+
+  public boolean contains(@Nonnull String word) {
+    return words.containsKey(word) || words.containsKey(word.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Get the vector of a text, as the normalized mean of the vectors of its words. Words are looked up as written and
+   * then in lower case; words without a vector are ignored
+   *
+   * @return The text vector, or empty if none of its words has a vector
+   */
+  @Nonnull
+  public Optional<float[]> getVector(@Nonnull String text) {
+    float[] sum = new float[dimension];
+    boolean found = false;
+    for(String word : separator.split(StringClusterer.normalize(text))) {
+      Integer row = words.get(word);
+      if(row == null) {
+        row = words.get(word.toLowerCase(Locale.ROOT));
+      }
+      if(row != null) {
+        FloatBuffer block = blocks.get(row / rowsPerBlock);
+        int base = (row % rowsPerBlock) * dimension;
+        for(int i = 0; i < dimension; i++) {
+          sum[i] += block.get(base + i);
+        }
+        found = true;
+      }
+    }
+    return (found && normalize(sum) ? Optional.of(sum) : Optional.empty());
+  }
+}
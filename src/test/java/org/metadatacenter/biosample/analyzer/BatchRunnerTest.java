@@ -0,0 +1,21 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Output folder names of the inputs of a {@link BatchRunner}
+ */
+public class BatchRunnerTest {
+
+  @Test
+  public void stripsOnlyCompressionAndXmlExtensions() {
+    assertEquals("biosample.2024-01", BatchRunner.getBaseName(new File("biosample.2024-01.xml")));
+    assertEquals("biosample.2024-02", BatchRunner.getBaseName(new File("/data/biosample.2024-02.xml.gz")));
+    assertEquals("biosample_set", BatchRunner.getBaseName(new File("biosample_set.XML.zst")));
+    assertEquals("shard.1", BatchRunner.getBaseName(new File("shard.1.bz2")));
+  }
+}
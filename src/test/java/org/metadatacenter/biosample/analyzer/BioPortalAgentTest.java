@@ -0,0 +1,133 @@
+package org.metadatacenter.biosample.analyzer;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Term lookups through {@link BioPortalAgent} while its {@link CircuitBreaker} is open, against a local server that
+ * stands in for BioPortal
+ */
+public class BioPortalAgentTest {
+  private static final int BREAKER_FAILURES = 5;
+  private static final long PAUSE_MILLIS = 300;
+  private static final byte[] SEARCH_RESULT = ("{\"collection\":[{\"@id\":\"http://purl.obolibrary.org/obo/ENVO_1\","
+      + "\"@type\":\"http://www.w3.org/2002/07/owl#Class\",\"prefLabel\":\"term\",\"ontologyType\":\"ONTOLOGY\","
+      + "\"ontology\":\"http://data.bioontology.org/ontologies/ENVO\"}]}").getBytes(StandardCharsets.UTF_8);
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicLong firstRequest = new AtomicLong();
+  private ExecutorService executor;
+  private HttpServer server;
+
+  @Before
+  public void setUp() throws IOException {
+    executor = HttpServers.newThreadPool(4, "bioportal-stub");
+    server = HttpServers.create(InetAddress.getLoopbackAddress(), 0, executor);
+    server.createContext("/search", exchange -> {
+      firstRequest.compareAndSet(0, System.nanoTime());
+      requests.incrementAndGet();
+      HttpServers.respond(exchange, 200, SEARCH_RESULT);
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void lookupsWaitForOpenBreakerInsteadOfReportingInvalidTerms() {
+    CircuitBreaker breaker = new CircuitBreaker("stub", BREAKER_FAILURES, PAUSE_MILLIS, 10 * PAUSE_MILLIS,
+        TimeUnit.MILLISECONDS);
+    for(int i = 0; i < BREAKER_FAILURES; i++) {
+      breaker.onFailure(breaker.tryAcquire());
+    }
+    long opened = System.nanoTime();
+    assertTrue(breaker.getRemainingPause(TimeUnit.MILLISECONDS) > 0);
+    assertFalse(breaker.tryAcquire().isGranted());
+
+    BioPortalAgent agent = new BioPortalAgent("key", "http://127.0.0.1:" + server.getAddress().getPort(),
+        new ConcurrencyLimiter(4, 1, 64), breaker);
+    ExecutorService lookups = Executors.newFixedThreadPool(4);
+    try {
+      GenericValidator validator = new GenericValidator(new TermValidator(agent), lookups);
+      Record record = new RecordBuilder().setId("1").setAccession("SAMN1").setAccess("public")
+          .setPublicationDate("2020-01-01").setLastUpdate("2020-01-02").setSubmissionDate("2019-12-31")
+          .setOrganismTaxonomyId("9606").setOrganismTaxonomyName("Homo sapiens").setOrganismName("")
+          .setOwnerName("Owner").setModelName("Model").setPackageDisplayName("Human").setPackageName("Human.1.0")
+          .setStatus("live").setStatusDate("2020-01-01")
+          .addAttribute("env_biome", new AttributeImpl("env_biome", "env_biome", "Biome", "forest"))
+          .addAttribute("env_feature", new AttributeImpl("env_feature", "env_feature", "Feature", "lake"))
+          .addAttribute("env_material", new AttributeImpl("env_material", "env_material", "Material", "soil"))
+          .addAttribute("phenotype", new AttributeImpl("phenotype", "phenotype", "Phenotype", "tall"))
+          .build();
+      RecordValidationReport report = validator.validateBioSampleRecord(record);
+
+      int checked = 0;
+      for(AttributeGroupValidationReport group : report.getAttributeGroupValidationReports()) {
+        for(AttributeValidationReport attribute : group.getValidationReports()) {
+          if(attribute.isFilledIn()) {
+            assertTrue(attribute.getAttribute().getName() + " reported invalid", attribute.isValid());
+            checked++;
+          }
+        }
+      }
+      assertEquals(4, checked);
+      assertEquals(4, requests.get());
+      // nothing was sent while the breaker was open
+      assertTrue(firstRequest.get() - opened >= TimeUnit.MILLISECONDS.toNanos(PAUSE_MILLIS));
+      assertEquals(CircuitBreaker.Permit.REQUEST, breaker.tryAcquire());
+    } finally {
+      lookups.shutdownNow();
+    }
+  }
+
+  @Test
+  public void lookupWaitsForProbeInFlight() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker("stub", 1, PAUSE_MILLIS, PAUSE_MILLIS, TimeUnit.MILLISECONDS);
+    breaker.onFailure(breaker.tryAcquire());
+    Thread.sleep(PAUSE_MILLIS);
+    // another caller takes the probe and answers it a little later
+    CircuitBreaker.Permit probe = breaker.tryAcquire();
+    assertEquals(CircuitBreaker.Permit.PROBE, probe);
+    Thread prober = new Thread(() -> {
+      sleep(PAUSE_MILLIS / 2);
+      breaker.onSuccess(probe);
+    });
+    prober.start();
+
+    BioPortalAgent agent = new BioPortalAgent("key", "http://127.0.0.1:" + server.getAddress().getPort(),
+        new ConcurrencyLimiter(4, 1, 64), breaker);
+    TermValidationReport report = new TermValidator(agent).validateTerm("forest", true, "ENVO");
+    prober.join();
+    assertTrue(report.isResolvableOntologyClass());
+    assertEquals(1, requests.get());
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
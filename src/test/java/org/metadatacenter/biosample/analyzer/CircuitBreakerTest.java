@@ -0,0 +1,59 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Results of requests that were let through before a {@link CircuitBreaker} opened and finish while its probe is in
+ * flight
+ */
+public class CircuitBreakerTest {
+  private static final long PAUSE_MILLIS = 100;
+
+  @Test
+  public void lateFailureDoesNotReopenBreaker() throws InterruptedException {
+    CircuitBreaker breaker = newBreaker();
+    CircuitBreaker.Permit late = breaker.tryAcquire();
+    CircuitBreaker.Permit probe = openAndTakeProbe(breaker);
+
+    breaker.onFailure(late);
+    assertEquals(0, breaker.getRemainingPause(TimeUnit.NANOSECONDS));
+    assertEquals(CircuitBreaker.Permit.REJECTED, breaker.tryAcquire());
+    breaker.onSuccess(probe);
+    assertEquals(CircuitBreaker.Permit.REQUEST, breaker.tryAcquire());
+  }
+
+  @Test
+  public void lateSuccessDoesNotCloseBreaker() throws InterruptedException {
+    CircuitBreaker breaker = newBreaker();
+    CircuitBreaker.Permit late = breaker.tryAcquire();
+    CircuitBreaker.Permit probe = openAndTakeProbe(breaker);
+
+    breaker.onSuccess(late);
+    assertEquals(CircuitBreaker.Permit.REJECTED, breaker.tryAcquire());
+    breaker.onFailure(probe);
+    // the failed probe doubles the pause
+    assertTrue(breaker.getRemainingPause(TimeUnit.MILLISECONDS) > PAUSE_MILLIS);
+    assertEquals(CircuitBreaker.Permit.REJECTED, breaker.tryAcquire());
+  }
+
+  @Nonnull
+  private static CircuitBreaker newBreaker() {
+    return new CircuitBreaker("test", 1, PAUSE_MILLIS, 10 * PAUSE_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  @Nonnull
+  private static CircuitBreaker.Permit openAndTakeProbe(@Nonnull CircuitBreaker breaker) throws InterruptedException {
+    breaker.onFailure(breaker.tryAcquire());
+    assertEquals(CircuitBreaker.Permit.REJECTED, breaker.tryAcquire());
+    breaker.awaitPermit();
+    CircuitBreaker.Permit probe = breaker.tryAcquire();
+    assertEquals(CircuitBreaker.Permit.PROBE, probe);
+    return probe;
+  }
+}
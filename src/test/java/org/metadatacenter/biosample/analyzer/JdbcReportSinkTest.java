@@ -0,0 +1,185 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trip of validation results through {@link JdbcReportSink} into an in-memory H2 database
+ */
+public class JdbcReportSinkTest {
+  // keep the database open between the connections of the sinks, which close them, and the test's own connection
+  private static final String URL = "jdbc:h2:mem:jdbc-report-sink-test;DB_CLOSE_DELAY=-1";
+
+  private Connection connection;
+
+  @Before
+  public void setUp() throws SQLException {
+    connection = DriverManager.getConnection(URL);
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("DROP ALL OBJECTS");
+    }
+    connection.close();
+  }
+
+  @Test
+  public void writesRecordAndAttributeRows() throws SQLException {
+    JdbcReportSink sink = new JdbcReportSink(DriverManager.getConnection(URL), "dump.xml", true, 5000, 10000);
+    sink.write(report(1), false);
+    sink.close();
+
+    try (Statement statement = connection.createStatement()) {
+      try (ResultSet rs = statement.executeQuery("SELECT * FROM " + JdbcReportSink.RECORDS_TABLE)) {
+        assertTrue(rs.next());
+        assertEquals("dump.xml", rs.getString("input_name"));
+        assertEquals("1", rs.getString("id"));
+        assertEquals("SAMN1", rs.getString("accession"));
+        assertEquals("Homo sapiens", rs.getString("organism_taxonomy_name"));
+        assertEquals("Human.1.0", rs.getString("package_name"));
+        assertFalse(rs.getBoolean("is_valid"));
+        assertFalse(rs.next());
+      }
+      try (ResultSet rs = statement.executeQuery("SELECT * FROM " + JdbcReportSink.ATTRIBUTES_TABLE +
+          " ORDER BY attribute_id")) {
+        assertTrue(rs.next());
+        assertEquals("dump.xml", rs.getString("input_name"));
+        assertEquals(1, rs.getLong("attribute_id"));
+        assertEquals("1", rs.getString("record_id"));
+        assertEquals("ONTOLOGY_TERM", rs.getString("attribute_type"));
+        assertEquals("tissue", rs.getString("name"));
+        assertEquals("Tissue", rs.getString("display_name"));
+        assertEquals("liver", rs.getString("attribute_value"));
+        assertTrue(rs.getBoolean("is_valid"));
+        assertTrue(rs.getBoolean("is_filled_in"));
+        assertTrue(rs.getBoolean("is_valid_format"));
+        assertEquals("http://purl.obolibrary.org/obo/UBERON_0002107", rs.getString("match_value"));
+        assertNull(rs.getString("suggestion"));
+
+        assertTrue(rs.next());
+        assertEquals(2, rs.getLong("attribute_id"));
+        assertEquals("BOOLEAN", rs.getString("attribute_type"));
+        assertEquals("smoker", rs.getString("name"));
+        assertEquals("maybe", rs.getString("attribute_value"));
+        assertFalse(rs.getBoolean("is_valid"));
+        assertTrue(rs.getBoolean("is_filled_in"));
+        assertFalse(rs.getBoolean("is_valid_format"));
+        assertNull(rs.getString("match_value"));
+        assertEquals("yes", rs.getString("suggestion"));
+        assertFalse(rs.next());
+      }
+    }
+  }
+
+  @Test
+  public void flushesPartialBatchesAndCommits() throws SQLException {
+    // 240 attribute rows per commit go through two 100-row inserts, executed as one batch of 150+ rows, and 40
+    // single-row inserts at the flush; the last commit, on close, has 22 records left
+    int records = 262;
+    JdbcReportSink sink = new JdbcReportSink(DriverManager.getConnection(URL), "dump.xml", true, 150, 120);
+    for(int i = 1; i <= records; i++) {
+      sink.write(report(i), i % 2 == 0);
+    }
+    sink.close();
+
+    assertEquals(records, count("SELECT COUNT(*) FROM " + JdbcReportSink.RECORDS_TABLE));
+    assertEquals(records / 2, count("SELECT COUNT(*) FROM " + JdbcReportSink.RECORDS_TABLE + " WHERE is_valid"));
+    assertEquals(2 * records, count("SELECT COUNT(*) FROM " + JdbcReportSink.ATTRIBUTES_TABLE));
+    assertEquals(2 * records, count("SELECT COUNT(DISTINCT attribute_id) FROM " + JdbcReportSink.ATTRIBUTES_TABLE));
+    assertEquals(2, count("SELECT COUNT(*) FROM " + JdbcReportSink.ATTRIBUTES_TABLE + " WHERE record_id = '" +
+        records + "'"));
+  }
+
+  @Test
+  public void keepsRowsOfDifferentInputsApart() throws SQLException {
+    for(String input : new String[]{"first", "second"}) {
+      JdbcReportSink sink = new JdbcReportSink(DriverManager.getConnection(URL), input, true, 5000, 10000);
+      for(int i = 1; i <= 3; i++) {
+        sink.write(report(i), true);
+      }
+      sink.close();
+    }
+    assertEquals(12, count("SELECT COUNT(*) FROM " + JdbcReportSink.ATTRIBUTES_TABLE));
+    assertEquals(12, count("SELECT COUNT(*) FROM (SELECT DISTINCT input_name, attribute_id FROM " +
+        JdbcReportSink.ATTRIBUTES_TABLE + ")"));
+    assertEquals(3, count("SELECT COUNT(*) FROM " + JdbcReportSink.RECORDS_TABLE + " WHERE input_name = 'second'"));
+  }
+
+  @Test
+  public void commitsOnlyEveryCommitIntervalWhenAutoCommitStartsOn() throws SQLException {
+    // 119 records put 238 attribute rows in the database through two 100-row inserts, without committing them
+    Connection sinkConnection = rejectingCommitInAutoCommitMode(DriverManager.getConnection(URL));
+    assertTrue(sinkConnection.getAutoCommit());
+    JdbcReportSink sink = new JdbcReportSink(sinkConnection, "dump.xml", true, 150, 120);
+    for(int i = 1; i <= 119; i++) {
+      sink.write(report(i), true);
+    }
+    assertEquals(0, count("SELECT COUNT(*) FROM " + JdbcReportSink.ATTRIBUTES_TABLE));
+    sink.write(report(120), true);
+    assertEquals(120, count("SELECT COUNT(*) FROM " + JdbcReportSink.RECORDS_TABLE));
+    assertEquals(240, count("SELECT COUNT(*) FROM " + JdbcReportSink.ATTRIBUTES_TABLE));
+    sink.write(report(121), true);
+    assertEquals(120, count("SELECT COUNT(*) FROM " + JdbcReportSink.RECORDS_TABLE));
+    sink.close();
+    assertEquals(121, count("SELECT COUNT(*) FROM " + JdbcReportSink.RECORDS_TABLE));
+  }
+
+  /* A connection that rejects commit() in auto-commit mode, as MySQL Connector/J does and H2 does not */
+  @Nonnull
+  private static Connection rejectingCommitInAutoCommitMode(@Nonnull Connection connection) {
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+        (proxy, method, args) -> {
+          if(method.getName().equals("commit") && connection.getAutoCommit()) {
+            throw new SQLException("Can't call commit when autocommit=true");
+          }
+          try {
+            return method.invoke(connection, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+
+  private long count(@Nonnull String sql) throws SQLException {
+    try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+
+  @Nonnull
+  private static RecordValidationReport report(int id) {
+    Attribute tissue = new AttributeImpl("tissue", "tissue", "Tissue", "liver");
+    Attribute smoker = new AttributeImpl("smoker", "smoker", "Smoker", "maybe");
+    Record record = new RecordBuilder().setId(String.valueOf(id)).setAccession("SAMN" + id).setAccess("public")
+        .setPublicationDate("2020-01-01").setLastUpdate("2020-01-02").setSubmissionDate("2019-12-31")
+        .setOrganismTaxonomyId("9606").setOrganismTaxonomyName("Homo sapiens").setOrganismName("")
+        .setOwnerName("Owner").setModelName("Model").setPackageDisplayName("Human").setPackageName("Human.1.0")
+        .setStatus("live").setStatusDate("2020-01-01")
+        .addAttribute("tissue", tissue).addAttribute("smoker", smoker).build();
+    return new RecordValidationReport(record, Arrays.asList(
+        new AttributeGroupValidationReport("ONTOLOGY_TERM", Arrays.asList(new AttributeValidationReport(tissue, true,
+            true, Optional.of("http://purl.obolibrary.org/obo/UBERON_0002107")))),
+        new AttributeGroupValidationReport("BOOLEAN", Arrays.asList(new AttributeValidationReport(smoker, true,
+            false, Optional.empty(), Optional.of("yes"))))));
+  }
+}
@@ -0,0 +1,52 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Records read by {@link ParallelRecordParser} from chunks much smaller than a record, compared with those read
+ * sequentially by {@link RecordStreamParser}
+ */
+public class ParallelRecordParserTest {
+  private static final int RECORDS = 300;
+  private static final int CHUNK_SIZE = 512;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void tinyChunksYieldSameRecordsAsStreamParser() throws IOException {
+    File dump = folder.newFile("dump.xml");
+    new BioSampleDumpGenerator(42, 0.2, 0.5).generate(dump, RECORDS);
+
+    List<Record> expected;
+    try (RecordStreamParser parser = new RecordStreamParser(new FileInputStream(dump), RecordProjection.ALL)) {
+      expected = readAll(parser);
+    }
+    List<Record> actual;
+    try (ParallelRecordParser parser = new ParallelRecordParser(dump, RecordProjection.ALL, 4, CHUNK_SIZE, null)) {
+      actual = readAll(parser);
+    }
+    assertEquals(RECORDS, expected.size());
+    assertFalse(expected.get(0).getAttributes().isEmpty());
+    assertEquals(expected, actual);
+  }
+
+  @Nonnull
+  private static List<Record> readAll(@Nonnull Iterator<Record> parser) {
+    List<Record> records = new ArrayList<>();
+    parser.forEachRemaining(records::add);
+    return records;
+  }
+}
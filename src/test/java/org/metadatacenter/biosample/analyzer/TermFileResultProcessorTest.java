@@ -0,0 +1,55 @@
+package org.metadatacenter.biosample.analyzer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Joins by {@link TermFileResultProcessor} whose tested list does not fit in the memory budget, compared with the
+ * join of the whole list in memory
+ */
+public class TermFileResultProcessorTest {
+  private static final int TESTED_TERMS = 20000;
+  private static final long SMALL_BUDGET = 64 * 1024;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void partitionedJoinMatchesInMemoryJoin() throws IOException {
+    File tested = folder.newFile("tested.txt"), complete = folder.newFile("complete.txt");
+    try (PrintWriter writer = new PrintWriter(tested, "UTF-8")) {
+      for(int i = 0; i < TESTED_TERMS; i++) {
+        writer.println("term " + i + "," + (i % 3 == 0));
+      }
+    }
+    try (PrintWriter writer = new PrintWriter(complete, "UTF-8")) {
+      // every other tested term, plus as many terms that were not tested
+      for(int i = 0; i < 2 * TESTED_TERMS; i += 2) {
+        writer.println("term " + i);
+      }
+    }
+    TermFileResultProcessor processor = new TermFileResultProcessor(complete, tested);
+    File inMemory = folder.newFile("in-memory.txt"), partitioned = folder.newFile("partitioned.txt");
+    assertEquals(TESTED_TERMS / 2, processor.join(inMemory, Long.MAX_VALUE));
+    assertEquals(TESTED_TERMS / 2, processor.join(partitioned, SMALL_BUDGET));
+    assertEquals(sortedLines(inMemory), sortedLines(partitioned));
+  }
+
+  @Nonnull
+  private static List<String> sortedLines(@Nonnull File file) throws IOException {
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    Collections.sort(lines);
+    return lines;
+  }
+}